@@ -0,0 +1,91 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of scanning one new pattern against a whole catalog on a single thread, the work of one ScanTask
+ * side, and of the parallel I3SCatalog scan. The new pattern is a resighting of one catalog pattern.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CatalogScanBenchmark {
+
+  @Param({"10000"})
+  public int catalogSize;
+
+  //a 40 spot Groth scan of 10000 patterns takes tens of minutes per shot; override with -p numSpots=40
+  @Param({"10", "20"})
+  public int numSpots;
+
+  ArrayList<EncounterLite> catalog;
+  EncounterLite newEncounter;
+  I3SCatalog i3sCatalog;
+
+  @Setup
+  public void setup() {
+    catalog = SpotPatterns.catalog(catalogSize, numSpots, 42);
+    newEncounter = SpotPatterns.resighting(new Random(7), "new", catalog.get(catalogSize / 2));
+    i3sCatalog = new I3SCatalog(catalog, false);
+  }
+
+  @Benchmark
+  public void groth(Blackhole bh) {
+    double[] newX = newEncounter.getSpotsX();
+    double[] newY = newEncounter.getSpotsY();
+    for (int i = 0; i < catalogSize; i++) {
+      bh.consume(catalog.get(i).getPointsForBestMatch(newX, newY, PairComparisonBenchmark.EPSILON, PairComparisonBenchmark.R, PairComparisonBenchmark.SIZELIM, PairComparisonBenchmark.MAX_TRIANGLE_ROTATION, PairComparisonBenchmark.C, true, false));
+    }
+  }
+
+  @Benchmark
+  public void i3s(Blackhole bh) {
+    for (int i = 0; i < catalogSize; i++) {
+      bh.consume(catalog.get(i).i3sScan(newEncounter, false));
+    }
+  }
+
+  @Benchmark
+  public ArrayList<I3SMatchObject> i3sCatalog() {
+    return i3sCatalog.scan(newEncounter, TopMatchAccumulator.DEFAULT_MAX_MATCHES);
+  }
+
+}
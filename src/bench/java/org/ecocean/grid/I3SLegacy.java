@@ -0,0 +1,207 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import com.reijns.I3S.Affine;
+import com.reijns.I3S.FingerPrint;
+import com.reijns.I3S.Pair;
+import com.reijns.I3S.Point2D;
+import org.ecocean.SuperSpot;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * The I3S pair comparison as EncounterLite.i3sScan ran it before PairBuffer: FingerPrint.distance kept its
+ * point pairs as Pair objects in a TreeMap, and Compare.exhaustiveSearch allocated a new FingerPrint and
+ * TreeMap for every triple of pairs. Kept for the benchmarks as the baseline the current i3sScan is
+ * measured against, and must give the same scores.
+ */
+class I3SLegacy {
+
+  private I3SLegacy() {
+  }
+
+  /**
+   * Scores a new encounter against a catalog encounter, as catalog.i3sScan(newEnc, scanRight) does.
+   */
+  static I3SMatchObject i3sScan(EncounterLite catalog, EncounterLite newEnc, boolean scanRight) {
+    SuperSpot[] newSpots = new SuperSpot[0];
+    SuperSpot[] thisSpots = new SuperSpot[0];
+    Point2D[] newEncControlSpots;
+    Point2D[] thisEncControlSpots;
+    if (scanRight) {
+      newSpots = (SuperSpot[]) newEnc.getRightSpots().toArray(newSpots);
+      thisSpots = (SuperSpot[]) catalog.getRightSpots().toArray(thisSpots);
+      newEncControlSpots = newEnc.getThreeRightFiducialPoints();
+      thisEncControlSpots = catalog.getThreeRightFiducialPoints();
+    } else {
+      newSpots = (SuperSpot[]) newEnc.getSpots().toArray(newSpots);
+      thisSpots = (SuperSpot[]) catalog.getSpots().toArray(thisSpots);
+      newEncControlSpots = newEnc.getThreeLeftFiducialPoints();
+      thisEncControlSpots = catalog.getThreeLeftFiducialPoints();
+    }
+    FingerPrint newPrint = toFingerPrint(newSpots, newEncControlSpots);
+    FingerPrint thisPrint = toFingerPrint(thisSpots, thisEncControlSpots);
+
+    TreeMap hm = new TreeMap();
+    FingerPrint best = find(thisPrint, newPrint, hm);
+    return (new I3SMatchObject(catalog.getBelongsToMarkedIndividual(), best.getScore(), catalog.getEncounterNumber(), catalog.getSex(), catalog.getDate(), catalog.getSize(), hm, 0));
+  }
+
+  //the spots as a FingerPrint, normalized with the three control points as in EncounterLite.doAffine
+  private static FingerPrint toFingerPrint(SuperSpot[] spots, Point2D[] control) {
+    Point2D[] orig = new Point2D[spots.length];
+    Point2D[] pnts = new Point2D[spots.length];
+    for (int i = 0; i < spots.length; i++) {
+      orig[i] = new Point2D(spots[i].getTheSpot().getCentroidX(), spots[i].getTheSpot().getCentroidY());
+      pnts[i] = new Point2D(spots[i].getTheSpot().getCentroidX(), spots[i].getTheSpot().getCentroidY());
+    }
+    FingerPrint fp = new FingerPrint(orig, pnts, control);
+    double[] matrix = new double[6];
+    Affine.calcAffine(fp.control[0].getX(), fp.control[0].getY(), fp.control[1].getX(), fp.control[1].getY(), fp.control[2].getX(), fp.control[2].getY(), 100, 100, 900, 100, 500, 700, matrix);
+    for (int i = 0; i < fp.orig.length; i++) {
+      fp.fpp[i].x = matrix[0] * fp.orig[i].getX() + matrix[1] * fp.orig[i].getY() + matrix[2];
+      fp.fpp[i].y = matrix[3] * fp.orig[i].getX() + matrix[4] * fp.orig[i].getY() + matrix[5];
+    }
+    return fp;
+  }
+
+  //Compare.find(unknown, best, 1, true, pairs) on a Compare holding only encountered
+  private static FingerPrint find(FingerPrint encountered, FingerPrint unknown, TreeMap pairs) {
+    distance(encountered, unknown, pairs, 0);
+    return exhaustiveSearch(encountered, unknown, pairs);
+  }
+
+  private static FingerPrint exhaustiveSearch(FingerPrint best, FingerPrint unknown, Map pairs) {
+    int paircnt = pairs.size();
+    double[] matrix = new double[6];
+
+    Pair[] arrayPairs = new Pair[pairs.values().size()];
+    Pair aPair;
+    for (int i = 0; i < pairs.values().size(); i++) {
+      aPair = (Pair) pairs.values().toArray()[i];
+      arrayPairs[i] = new Pair();
+      arrayPairs[i].dist = aPair.getDist();
+      arrayPairs[i].m1 = aPair.getM1();
+      arrayPairs[i].m2 = aPair.getM2();
+    }
+
+    for (int j = 0; j < paircnt - 2; j++) {
+      for (int k = j + 1; k < paircnt - 1; k++) {
+        for (int l = k + 1; l < paircnt; l++) {
+          FingerPrint test = new FingerPrint(best);
+
+          Point2D from1 = test.getFpp(arrayPairs[j].getM1());
+          Point2D from2 = test.getFpp(arrayPairs[k].getM1());
+          Point2D from3 = test.getFpp(arrayPairs[l].getM1());
+          Point2D to1 = unknown.getFpp(arrayPairs[j].getM2());
+          Point2D to2 = unknown.getFpp(arrayPairs[k].getM2());
+          Point2D to3 = unknown.getFpp(arrayPairs[l].getM2());
+
+          Affine.calcAffine(from1.getX(), from1.getY(),
+            from2.getX(), from2.getY(),
+            from3.getX(), from3.getY(),
+            to1.getX(), to1.getY(),
+            to2.getX(), to2.getY(),
+            to3.getX(), to3.getY(),
+            matrix);
+
+          test.doAffine(matrix);
+          TreeMap tmppairs = new TreeMap();
+          distance(test, unknown, tmppairs, -3);
+
+          if (test.getScore() < best.getScore()) {
+            best = test;
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  //FingerPrint.distance(f, pairs, affine_corr) called on fp, with its pairs kept in a Map of Pair objects
+  private static double distance(FingerPrint fp, FingerPrint f, Map pairs, int affine_corr) {
+    double totaldist = 0;
+    for (int i = 0; i < fp.getCnt(); i++) {
+      double mindist = 1000000000;
+      double second = 1000000000;
+      int minj = -1;
+
+      for (int j = 0; j < f.getCnt(); j++) {
+        double fppxd = fp.fpp[i].x - f.fpp[j].x;
+        double fppyd = fp.fpp[i].y - f.fpp[j].y;
+        double dist = (fppxd * fppxd) + (fppyd * fppyd);
+        if (dist < mindist) {
+          second = mindist;
+          mindist = dist;
+          minj = j;
+        }
+      }
+
+      if (mindist * 4 <= second) {
+        Pair aPair = new Pair();
+        if (pairs.containsKey((new Integer(minj))) == false) {
+          totaldist += addPair(pairs, i, mindist, minj, aPair);
+        } else {
+          double oldDist = findPair(pairs, Math.sqrt(mindist), minj);
+          if (oldDist > 0) {
+            totaldist += addPair(pairs, i, mindist, minj, aPair) - oldDist;
+          }
+        }
+      }
+    }
+
+    int paircnt = pairs.size() + affine_corr;
+    double score;
+    if (paircnt == 0) {
+      score = 1000000.0;
+    } else {
+      score = totaldist / (paircnt * paircnt);
+    }
+    fp.setScore(score);
+    return score;
+  }
+
+  private static double addPair(Map pairs, int i, double mindist, int j, Pair aPair) {
+    double sqrtDist = Math.sqrt(mindist);
+    aPair.m1 = i;
+    aPair.m2 = j;
+    aPair.dist = sqrtDist;
+    pairs.put((new Integer(j)), aPair);
+    return sqrtDist;
+  }
+
+  private static double findPair(Map pairs, double dist, int i) {
+    double result = -1;
+    for (Iterator iter = pairs.values().iterator(); iter.hasNext();) {
+      Pair aPair = (Pair) iter.next();
+      if (aPair.m2 == i && aPair.dist > dist) {
+        result = aPair.dist;
+        iter.remove();
+        break;
+      }
+    }
+    return result;
+  }
+
+}
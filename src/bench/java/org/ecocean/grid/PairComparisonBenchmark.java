@@ -0,0 +1,93 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import org.ecocean.SuperSpot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of comparing one pattern against one other with each matcher, for patterns of 10 to 80 spots.
+ * The Groth parameters are the GridManager defaults. grothLegacy and i3sLegacy run the implementations
+ * the current ones replaced, see GrothLegacy and I3SLegacy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PairComparisonBenchmark {
+
+  static final double EPSILON = 0.01;
+  static final double R = 50;
+  static final double SIZELIM = 0.9999;
+  static final double MAX_TRIANGLE_ROTATION = 10;
+  static final double C = 0.99;
+
+  @Param({"10", "20", "40", "80"})
+  public int numSpots;
+
+  EncounterLite catalogEncounter;
+  EncounterLite newEncounter;
+  SuperSpot[] newSpots;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(numSpots);
+    catalogEncounter = SpotPatterns.pattern(r, "catalog", numSpots, 0);
+    newEncounter = SpotPatterns.resighting(r, "new", catalogEncounter);
+    newSpots = (SuperSpot[]) newEncounter.getSpots().toArray(new SuperSpot[0]);
+  }
+
+  @Benchmark
+  public MatchObject groth() {
+    return catalogEncounter.getPointsForBestMatch(newEncounter.getSpotsX(), newEncounter.getSpotsY(), EPSILON, R, SIZELIM, MAX_TRIANGLE_ROTATION, C, true, false);
+  }
+
+  @Benchmark
+  public MatchObject grothLegacy() {
+    return GrothLegacy.getPointsForBestMatch(catalogEncounter, newSpots, EPSILON, R, SIZELIM, MAX_TRIANGLE_ROTATION, C, true, false);
+  }
+
+  @Benchmark
+  public I3SMatchObject i3s() {
+    return catalogEncounter.i3sScan(newEncounter, false);
+  }
+
+  @Benchmark
+  public I3SMatchObject i3sLegacy() {
+    return I3SLegacy.i3sScan(catalogEncounter, newEncounter, false);
+  }
+
+}
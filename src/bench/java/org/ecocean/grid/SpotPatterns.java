@@ -0,0 +1,193 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Spot patterns for the matcher benchmarks.
+ * <p/>
+ * Patterns are synthetic by default. If the bench.spotPatterns system property names a file of real,
+ * anonymized patterns (one pattern per line, as x,y pairs separated by spaces, e.g. exported from the
+ * spot coordinates of a catalog without any encounter data), those are used instead, cut to the number
+ * of spots a benchmark asks for. Resightings are always derived from a pattern by a small rotation,
+ * scaling and shift plus positional noise, with a few spots missed and a few spurious ones added.
+ */
+class SpotPatterns {
+
+  private static final double MIN_SEPARATION = 25;
+
+  private static List<double[][]> realPatterns = null;
+
+  private SpotPatterns() {
+  }
+
+  /**
+   * Returns numEncounters left-side catalog encounters with numSpots spots each.
+   */
+  static ArrayList<EncounterLite> catalog(int numEncounters, int numSpots, long seed) {
+    Random r = new Random(seed);
+    ArrayList<EncounterLite> catalog = new ArrayList<EncounterLite>(numEncounters);
+    for (int i = 0; i < numEncounters; i++) {
+      catalog.add(pattern(r, "catalog" + i, numSpots, i));
+    }
+    return catalog;
+  }
+
+  /**
+   * Returns a pattern with numSpots spots; index picks the real pattern to use, if there are any.
+   */
+  static EncounterLite pattern(Random r, String encounterNumber, int numSpots, int index) {
+    double[] x = new double[numSpots];
+    double[] y = new double[numSpots];
+    List<double[][]> real = getRealPatterns();
+    int filled = 0;
+    if (real.size() > 0) {
+      double[][] p = real.get(index % real.size());
+      filled = Math.min(numSpots, p[0].length);
+      System.arraycopy(p[0], 0, x, 0, filled);
+      System.arraycopy(p[1], 0, y, 0, filled);
+    }
+    for (int i = filled; i < numSpots; i++) {
+      double[] spot = separatedSpot(r, x, y, i);
+      x[i] = spot[0];
+      y[i] = spot[1];
+    }
+    return encounter(encounterNumber, x, y, new double[]{0, 1000, 500}, new double[]{0, 0, 500});
+  }
+
+  /**
+   * Returns a resighting of a left-side pattern.
+   */
+  static EncounterLite resighting(Random r, String encounterNumber, EncounterLite of) {
+    double angle = (r.nextDouble() - 0.5) * 0.2;
+    double scale = 0.9 + r.nextDouble() * 0.2;
+    double dx = (r.nextDouble() - 0.5) * 40;
+    double dy = (r.nextDouble() - 0.5) * 40;
+    double cos = Math.cos(angle) * scale;
+    double sin = Math.sin(angle) * scale;
+
+    double[] ox = of.getSpotsX();
+    double[] oy = of.getSpotsY();
+    ArrayList<double[]> spots = new ArrayList<double[]>();
+    for (int i = 0; i < ox.length; i++) {
+      //about one spot in ten is missed
+      if (r.nextInt(10) > 0) {
+        spots.add(new double[]{cos * ox[i] - sin * oy[i] + dx + r.nextGaussian() * 2, sin * ox[i] + cos * oy[i] + dy + r.nextGaussian() * 2});
+      }
+    }
+    int numSeen = spots.size();
+    int spurious = ox.length / 10;
+    double[] x = new double[numSeen + spurious];
+    double[] y = new double[numSeen + spurious];
+    for (int i = 0; i < numSeen; i++) {
+      x[i] = spots.get(i)[0];
+      y[i] = spots.get(i)[1];
+    }
+    for (int i = numSeen; i < x.length; i++) {
+      double[] spot = separatedSpot(r, x, y, i);
+      x[i] = spot[0];
+      y[i] = spot[1];
+    }
+    double[] refX = new double[3];
+    double[] refY = new double[3];
+    double[] ofRefX = {0, 1000, 500};
+    double[] ofRefY = {0, 0, 500};
+    for (int i = 0; i < 3; i++) {
+      refX[i] = cos * ofRefX[i] - sin * ofRefY[i] + dx;
+      refY[i] = sin * ofRefX[i] + cos * ofRefY[i] + dy;
+    }
+    return encounter(encounterNumber, x, y, refX, refY);
+  }
+
+  //a random spot at least MIN_SEPARATION from the first n spots, as real spots do not overlap;
+  //synthetic spots much closer than that make GrothMatcher warn about the epsilon value
+  private static double[] separatedSpot(Random r, double[] x, double[] y, int n) {
+    double[] spot = new double[2];
+    for (int tries = 0; tries < 1000; tries++) {
+      spot[0] = 50 + r.nextDouble() * 900;
+      spot[1] = 50 + r.nextDouble() * 400;
+      boolean separated = true;
+      for (int i = 0; (i < n) && separated; i++) {
+        double dx = x[i] - spot[0];
+        double dy = y[i] - spot[1];
+        separated = ((dx * dx) + (dy * dy)) >= (MIN_SEPARATION * MIN_SEPARATION);
+      }
+      if (separated) {
+        break;
+      }
+    }
+    return spot;
+  }
+
+  private static EncounterLite encounter(String encounterNumber, double[] x, double[] y, double[] refX, double[] refY) {
+    return new EncounterLite(encounterNumber, null, "unknown", "Unknown", 0, x, y, null, null, refX, refY, null, null);
+  }
+
+  private static synchronized List<double[][]> getRealPatterns() {
+    if (realPatterns != null) {
+      return realPatterns;
+    }
+    realPatterns = new ArrayList<double[][]>();
+    String fileName = System.getProperty("bench.spotPatterns");
+    if ((fileName == null) || fileName.trim().equals("")) {
+      return realPatterns;
+    }
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(new FileReader(fileName));
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] pairs = line.trim().split("\\s+");
+        if (pairs.length < 3) {
+          continue;
+        }
+        double[][] p = new double[2][pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+          String[] xy = pairs[i].split(",");
+          p[0][i] = Double.parseDouble(xy[0]);
+          p[1][i] = Double.parseDouble(xy[1]);
+        }
+        realPatterns.add(p);
+      }
+      System.out.println("SpotPatterns: loaded " + realPatterns.size() + " spot patterns from " + fileName);
+    }
+    catch (IOException ioe) {
+      throw new RuntimeException("Could not read spot patterns from " + fileName, ioe);
+    }
+    finally {
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException ioe) {
+        }
+      }
+    }
+    return realPatterns;
+  }
+
+}
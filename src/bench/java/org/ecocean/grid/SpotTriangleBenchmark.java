@@ -0,0 +1,91 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import org.ecocean.Spot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of building the Groth triangles of one pattern, as SpotTriangle objects and as a SpotTriangleSet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpotTriangleBenchmark {
+
+  @Param({"10", "20", "40", "80"})
+  public int numSpots;
+
+  double[] x;
+  double[] y;
+  Spot[] spots;
+  SpotTriangleSet triangles;
+
+  @Setup
+  public void setup() {
+    EncounterLite el = SpotPatterns.pattern(new Random(numSpots), "catalog", numSpots, 0);
+    x = el.getSpotsX();
+    y = el.getSpotsY();
+    spots = new Spot[numSpots];
+    for (int i = 0; i < numSpots; i++) {
+      spots[i] = new Spot(0, x[i], y[i]);
+    }
+    triangles = new SpotTriangleSet();
+  }
+
+  @Benchmark
+  public SpotTriangle[] spotTriangles() {
+    SpotTriangle[] all = new SpotTriangle[numSpots * (numSpots - 1) * (numSpots - 2) / 6];
+    int t = 0;
+    for (int i = 0; i < numSpots - 2; i++) {
+      for (int j = i + 1; j < numSpots - 1; j++) {
+        for (int k = j + 1; k < numSpots; k++) {
+          all[t++] = new SpotTriangle(spots[i], spots[j], spots[k], PairComparisonBenchmark.EPSILON);
+        }
+      }
+    }
+    return all;
+  }
+
+  @Benchmark
+  public SpotTriangleSet spotTriangleSet() {
+    triangles.setSpots(x, y, numSpots, true);
+    triangles.build(PairComparisonBenchmark.EPSILON, PairComparisonBenchmark.R, PairComparisonBenchmark.C, PairComparisonBenchmark.SIZELIM, true);
+    return triangles;
+  }
+
+}
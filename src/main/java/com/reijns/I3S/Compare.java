@@ -191,38 +191,34 @@ public class Compare {
   //@SuppressWarnings("unchecked")
   private void exhaustiveSearch(FingerPrint unknown, Map pairs) {
     //System.out.println("     Doing an exhaustive scan!");
-    int paircnt = pairs.size();
     double[] matrix = new double[6];
 
-    TreeMap bestPairs = new TreeMap();
-    Pair[] arrayPairs = new Pair[pairs.values().size()];
-//Changed Jan 23, 2007
-// Old : deleted System.arraycopy code and replaced it with for loop
-//		System.arraycopy(pairs.values().toArray(), 0, arrayPairs, 0, arrayPairs.length);
-// New :
-    Pair aPair;
-    for (int i = 0; i < pairs.values().size(); i++) {
-      aPair = (Pair) pairs.values().toArray()[i];
-      arrayPairs[i] = new Pair();
-      arrayPairs[i].dist = aPair.getDist();
-      arrayPairs[i].m1 = aPair.getM1();
-      arrayPairs[i].m2 = aPair.getM2();
-    }
-//End change
+    // The pairs are copied once into a PairBuffer, which lists them in the
+    // order the TreeMap iterates them, and each candidate transformation is
+    // scored into a second, reused PairBuffer instead of a new TreeMap.
+    PairBuffer arrayPairs = new PairBuffer(unknown.getCnt());
+    arrayPairs.load(pairs);
+    int paircnt = arrayPairs.compact();
+    PairBuffer tmppairs = new PairBuffer(unknown.getCnt());
+
+    // test is reused for every candidate; it is never the encountered
+    // FingerPrint itself, which must not be changed.
+    FingerPrint encountered = best;
+    FingerPrint test = new FingerPrint(best);
 
     int bestPairCnt = 0;
 
     for (int j = 0; j < paircnt - 2; j++)
       for (int k = j + 1; k < paircnt - 1; k++)
         for (int l = k + 1; l < paircnt; l++) {
-          FingerPrint test = new FingerPrint(best);
+          test.copyFpp(best);
 
-          Point2D from1 = test.getFpp(arrayPairs[j].getM1());
-          Point2D from2 = test.getFpp(arrayPairs[k].getM1());
-          Point2D from3 = test.getFpp(arrayPairs[l].getM1());
-          Point2D to1 = unknown.getFpp(arrayPairs[j].getM2());
-          Point2D to2 = unknown.getFpp(arrayPairs[k].getM2());
-          Point2D to3 = unknown.getFpp(arrayPairs[l].getM2());
+          Point2D from1 = test.getFpp(arrayPairs.getListM1(j));
+          Point2D from2 = test.getFpp(arrayPairs.getListM1(k));
+          Point2D from3 = test.getFpp(arrayPairs.getListM1(l));
+          Point2D to1 = unknown.getFpp(arrayPairs.getListM2(j));
+          Point2D to2 = unknown.getFpp(arrayPairs.getListM2(k));
+          Point2D to3 = unknown.getFpp(arrayPairs.getListM2(l));
 
           // the affine class is used to "unskew, unstretch, unrotate
           // and otherwise untransform" points so that they represent
@@ -238,22 +234,20 @@ public class Compare {
             matrix);
 
           test.doAffine(matrix);
-          TreeMap tmppairs = new TreeMap();
+          tmppairs.clear(unknown.getCnt());
           test.distance(unknown, tmppairs, -3);
 
-          //pairs=tmppairs;
           if (test.getScore() < best.getScore()) {
-            //bestPairs.put((new Integer(bestPairCnt)), tmppairs.clone());
-            pairs = bestPairs;
+            FingerPrint previous = best;
             best = test;
             bestPairCnt++;
+            if (previous == encountered) {
+              test = new FingerPrint(best);
+            } else {
+              test = previous;
+            }
           }
         }
-
-    //if(bestPairCnt>0)
-    //{
-    //	pairs.putAll(bestPairs);
-    //}
   }
 
   public void reset() {
@@ -19,7 +19,6 @@
 
 package com.reijns.I3S;
 
-import java.util.Iterator;
 import java.util.Map;
 
 public class FingerPrint {
@@ -154,9 +153,6 @@ public class FingerPrint {
    *         total distance between points) with a default value of 1000000.0 returned if the
    *         comparison did not succeed.
    */
-  // SupressWarnings for Java 1.5 where collection parameters are not
-  // specified to make them Java 1.4x compatable.
-  //@SuppressWarnings("unchecked")
   public double distance(FingerPrint f, Map pairs, int affine_corr) {
 
     //System.out.println("Starting the distance method...");
@@ -165,6 +161,29 @@ public class FingerPrint {
       return -1;
     }
 
+    PairBuffer buffer = new PairBuffer(f.cnt);
+    buffer.load(pairs);
+    double result = distance(f, buffer, affine_corr);
+    buffer.store(pairs);
+    return result;
+  }
+
+  /**
+   * Same as distance(FingerPrint, Map, int), recording the pairs in a PairBuffer instead of a Map of
+   * Pair objects. pairs must have room for f.getCnt() visitor points; pairs already in it are kept
+   * unless a closer point is found, exactly as in the Map version.
+   *
+   * @param f           FingerPrint : The visitor FingerPrint object that is passed.
+   * @param pairs       PairBuffer : The pairs of nearest points that are calculated.
+   * @param affine_corr int : a known affine correction value (skew, shear, rotate, etc.).
+   * @return double : Returns the calculated distance score.
+   */
+  public double distance(FingerPrint f, PairBuffer pairs, int affine_corr) {
+
+    if (f == null || pairs == null) {
+      return -1;
+    }
+
     double totaldist = 0;
 
     /*
@@ -190,15 +209,7 @@ public class FingerPrint {
 
       if (mindist * 4 <= second) {
         //System.out.println("Fingerprint.distance.if mindist*4<=second");
-        Pair aPair = new Pair();
-        if (pairs.containsKey((new Integer(minj))) == false) {
-          totaldist += addPair(pairs, i, mindist, minj, aPair);
-        } else {
-          double oldDist = findPair(pairs, Math.sqrt(mindist), minj);
-          if (oldDist > 0) {
-            totaldist += addPair(pairs, i, mindist, minj, aPair) - oldDist;
-          }
-        }
+        totaldist += pairs.offer(i, minj, Math.sqrt(mindist));
       }
     }
 
@@ -211,52 +222,6 @@ public class FingerPrint {
     return score;
   }
 
-  /**
-   * Adds the distance and array index reference between two points in two
-   * different FingerPrints.
-   *
-   * @param pairs     Pair[] : Array of pairs to add this pair to.
-   * @param totaldist double : Total distance between all valid pairs
-   * @param i         int : Current index of the visitor FingerPrint point
-   * @param mindist   double : Distance between two points
-   * @param j         int : Current index of the source FingerPrint point
-   * @param aPair     Pair : The Pair object to set values for and add to Pairs[]
-   * @return totaldist double : Returns the new calculated total distance.
-   */
-  //@SuppressWarnings("unchecked")
-  private double addPair(Map pairs, int i, double mindist, int j, Pair aPair) {
-    double sqrtDist = Math.sqrt(mindist);
-    aPair.m1 = i;
-    aPair.m2 = j;
-    aPair.dist = sqrtDist;
-    pairs.put((new Integer(j)), aPair);
-    return sqrtDist;
-  }
-
-  /**
-   * Find the matching pair object with the same soure FingerPrint point
-   * index
-   *
-   * @param pairs Map : Map of pairs to check
-   * @param dist  double : Distance between current points
-   * @param i     int : The point array index value to check as a match
-   * @return Pair : Returns the matching pair, or null if none was found.
-   */
-  private double findPair(Map pairs, double dist, int i) {
-    double result = -1;
-    for (Iterator iter = pairs.values().iterator(); iter.hasNext();) {
-      Pair aPair = (Pair) iter.next();
-      if (aPair.m2 == i && aPair.dist > dist) {
-        result = aPair.dist;
-        iter.remove();
-        break;
-      } else {
-        aPair = null;
-      }
-    }
-    return result;
-  }
-
   /**
    * Finds the distance between a point in the local fpp[] array and
    * that in a test FingerPrint class.
@@ -281,6 +246,18 @@ public class FingerPrint {
     score = 1000000.0;
   }
 
+  /**
+   * Copies the current point positions of another FingerPrint with the same number of points.
+   *
+   * @param f
+   */
+  void copyFpp(FingerPrint f) {
+    for (int i = 0; i < cnt; i++) {
+      fpp[i].x = f.fpp[i].x;
+      fpp[i].y = f.fpp[i].y;
+    }
+  }
+
   /**
    * @param matrix
    */
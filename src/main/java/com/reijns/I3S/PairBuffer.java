@@ -0,0 +1,167 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package com.reijns.I3S;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Primitive replacement for the Map of Pair objects that FingerPrint.distance fills in.
+ * <p/>
+ * The Map is keyed by the index of the visitor (unknown) point, and holds at most one Pair per visitor
+ * point. This class keeps the same information in parallel arrays indexed by visitor point: the index of
+ * the paired source point (-1 for no pair) and the distance. Recording a pair is O(1) where the Map
+ * needed boxing, a Pair object and, for a replaced pair, a scan of all values.
+ * <p/>
+ * compact() lists the pairs in ascending visitor point order, which is the order a TreeMap iterates them
+ * in, so code walking the list sees the pairs exactly as it would have walked the TreeMap.
+ */
+public class PairBuffer {
+
+  // paired source point and distance for each visitor point
+  private int[] m1;
+  private double[] dist;
+  private int capacity;
+  private int cnt;
+
+  // the pairs in ascending visitor point order, filled by compact()
+  private int[] listM1;
+  private int[] listM2;
+  private double[] listDist;
+
+  public PairBuffer(int numVisitorPoints) {
+    m1 = new int[0];
+    dist = new double[0];
+    listM1 = new int[0];
+    listM2 = new int[0];
+    listDist = new double[0];
+    clear(numVisitorPoints);
+  }
+
+  /**
+   * Removes all pairs and makes room for a visitor FingerPrint with numVisitorPoints points.
+   */
+  public void clear(int numVisitorPoints) {
+    if (m1.length < numVisitorPoints) {
+      m1 = new int[numVisitorPoints];
+      dist = new double[numVisitorPoints];
+      listM1 = new int[numVisitorPoints];
+      listM2 = new int[numVisitorPoints];
+      listDist = new double[numVisitorPoints];
+    }
+    capacity = numVisitorPoints;
+    for (int j = 0; j < capacity; j++) {
+      m1[j] = -1;
+    }
+    cnt = 0;
+  }
+
+  /**
+   * Pairs source point i with visitor point j at distance d, unless j is already paired at a distance of d
+   * or less. Returns the change in the total distance of all pairs, as FingerPrint.distance accumulates it.
+   */
+  public double offer(int i, int j, double d) {
+    if (m1[j] < 0) {
+      m1[j] = i;
+      dist[j] = d;
+      cnt++;
+      return d;
+    }
+    if (dist[j] > d) {
+      double oldDist = dist[j];
+      m1[j] = i;
+      dist[j] = d;
+      return d - oldDist;
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the number of pairs.
+   */
+  public int size() {
+    return cnt;
+  }
+
+  public boolean contains(int j) {
+    return (j < capacity) && (m1[j] >= 0);
+  }
+
+  /**
+   * Lists the pairs in ascending visitor point order, see getListM1, getListM2 and getListDist, and
+   * returns their number.
+   */
+  public int compact() {
+    int n = 0;
+    for (int j = 0; j < capacity; j++) {
+      if (m1[j] >= 0) {
+        listM1[n] = m1[j];
+        listM2[n] = j;
+        listDist[n] = dist[j];
+        n++;
+      }
+    }
+    return n;
+  }
+
+  public int getListM1(int n) {
+    return listM1[n];
+  }
+
+  public int getListM2(int n) {
+    return listM2[n];
+  }
+
+  public double getListDist(int n) {
+    return listDist[n];
+  }
+
+  /**
+   * Adds the Pairs of a map keyed by visitor point, as FingerPrint.distance fills it.
+   */
+  public void load(Map pairs) {
+    for (Iterator iter = pairs.values().iterator(); iter.hasNext();) {
+      Pair aPair = (Pair) iter.next();
+      if ((aPair.m2 >= 0) && (aPair.m2 < capacity) && (m1[aPair.m2] < 0)) {
+        m1[aPair.m2] = aPair.m1;
+        dist[aPair.m2] = aPair.dist;
+        cnt++;
+      }
+    }
+  }
+
+  /**
+   * Replaces the contents of a map with the pairs, as Pair objects keyed by visitor point.
+   */
+  //@SuppressWarnings("unchecked")
+  public void store(Map pairs) {
+    pairs.clear();
+    for (int j = 0; j < capacity; j++) {
+      if (m1[j] >= 0) {
+        Pair aPair = new Pair();
+        aPair.m1 = m1[j];
+        aPair.m2 = j;
+        aPair.dist = dist[j];
+        pairs.put(new Integer(j), aPair);
+      }
+    }
+  }
+
+}
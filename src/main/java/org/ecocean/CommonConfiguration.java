@@ -48,16 +48,17 @@ public class CommonConfiguration {
   //private static String currentContext;
 
 
-  private static Properties initialize(String context) {
+  //the shared, cached commonConfiguration.properties of the context; lookups on it take no locks
+  private static ShepherdProperties.CachedProperties initialize(String context) {
     //set up the file input stream
     //if ((currentContext==null)||(!currentContext.equals(context))||(propsSize == 0)) {
-      return loadProps(context);
+      return ShepherdProperties.getCachedProperties(COMMON_CONFIGURATION_PROPERTIES, "", context);
     //}
   }
 
 
   
-  public static synchronized Properties loadProps(String context) {
+  public static Properties loadProps(String context) {
       InputStream resourceAsStream = null;
       Properties props=new Properties();
       try {
@@ -276,7 +277,7 @@ public class CommonConfiguration {
   }
 
   public static String getWikiLocation(String context) {
-    Properties props=initialize(context);
+    ShepherdProperties.CachedProperties props=initialize(context);
     if(props.getProperty("wikiLocation")!=null){return props.getProperty("wikiLocation").trim();}
     return null;
   }
@@ -411,7 +412,7 @@ public class CommonConfiguration {
   }
 
   public static ArrayList<String> getSequentialPropertyValues(String propertyPrefix, String context){
-    Properties myProps=initialize(context);
+    ShepherdProperties.CachedProperties myProps=initialize(context);
     //System.out.println(myProps.toString());
     ArrayList<String> returnThese=new ArrayList<String>();
 
@@ -0,0 +1,225 @@
+package org.ecocean;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.datastore.JDOConnection;
+import javax.jdo.metadata.ColumnMetadata;
+import javax.jdo.metadata.IndexMetadata;
+import javax.jdo.metadata.MemberMetadata;
+import javax.jdo.metadata.TypeMetadata;
+
+/**
+ * Reports the indexes declared in the package.jdo files that an existing database does not have.
+ * <p/>
+ * DataNucleus creates the declared indexes along with new tables, but a schema created before an index was
+ * declared, or one managed with automatic schema changes turned off, can be missing them and have the
+ * search pages scan whole tables. {@link #check} compares the indexes declared for the classes in CLASSES
+ * with the ones the database reports, and prints a CREATE INDEX statement for each one that is missing.
+ * An index counts as present if any index of the table starts with the same columns, in the same order.
+ * <p/>
+ * Table and column names are the ones set in the metadata, or the DataNucleus defaults of the class and
+ * field name, in the case the database stores unquoted identifiers in.
+ */
+public class DatabaseIndexCheck {
+
+  //the classes the searches and Shepherd queries filter on
+  static final String[] CLASSES = {
+    "org.ecocean.Encounter",
+    "org.ecocean.MarkedIndividual",
+    "org.ecocean.Annotation",
+    "org.ecocean.Taxonomy",
+    "org.ecocean.media.MediaAsset",
+    "org.ecocean.ia.Task"
+  };
+
+  private DatabaseIndexCheck() {
+  }
+
+  /**
+   * Prints the declared indexes missing from the database of the context, and returns the CREATE INDEX
+   * statements that would add them. Returns an empty list if the database cannot be checked.
+   */
+  public static List<String> check(String context) {
+    ArrayList<String> missing = new ArrayList<String>();
+    PersistenceManagerFactory pmf = ShepherdPMF.getPMF(context);
+    PersistenceManager pm = null;
+    JDOConnection jc = null;
+    try {
+      pm = pmf.getPersistenceManager();
+      jc = pm.getDataStoreConnection();
+      DatabaseMetaData md = ((Connection) jc.getNativeConnection()).getMetaData();
+      for (int i = 0; i < CLASSES.length; i++) {
+        TypeMetadata type = pmf.getMetadata(CLASSES[i]);
+        if (type == null) {
+          continue;
+        }
+        String table = toDatabaseCase(md, getTable(type));
+        List<List<String>> existing = getIndexes(md, table);
+        Iterator<Map.Entry<String, List<String>>> it = getDeclaredIndexes(type).entrySet().iterator();
+        while (it.hasNext()) {
+          Map.Entry<String, List<String>> declared = it.next();
+          List<String> columns = new ArrayList<String>();
+          for (int j = 0; j < declared.getValue().size(); j++) {
+            columns.add(toDatabaseCase(md, declared.getValue().get(j)));
+          }
+          if (!isIndexed(existing, columns)) {
+            missing.add("CREATE INDEX " + declared.getKey() + " ON " + table + " (" + join(columns) + ");");
+          }
+        }
+      }
+    }
+    catch (Exception e) {
+      System.out.println("DatabaseIndexCheck: could not check the indexes of context " + context + ": " + e.toString());
+      return missing;
+    }
+    finally {
+      if (jc != null) {
+        jc.close();
+      }
+      if (pm != null) {
+        pm.close();
+      }
+    }
+
+    if (missing.size() == 0) {
+      System.out.println("DatabaseIndexCheck: all declared indexes are present in context " + context + ".");
+    } else {
+      System.out.println("DatabaseIndexCheck: " + missing.size() + " declared indexes are missing from the database of context " + context + ". Searches on these columns will scan the whole table until they are created:");
+      for (int i = 0; i < missing.size(); i++) {
+        System.out.println("  " + missing.get(i));
+      }
+    }
+    return missing;
+  }
+
+  //index name to columns, for the indexes on fields and on the class
+  private static Map<String, List<String>> getDeclaredIndexes(TypeMetadata type) {
+    HashMap<String, List<String>> indexes = new HashMap<String, List<String>>();
+    MemberMetadata[] members = type.getMembers();
+    for (int i = 0; (members != null) && (i < members.length); i++) {
+      IndexMetadata index = members[i].getIndexMetadata();
+      if (index != null) {
+        ArrayList<String> columns = new ArrayList<String>();
+        columns.add(getColumn(members[i]));
+        indexes.put(getIndexName(index, type, members[i].getName()), columns);
+      }
+    }
+    IndexMetadata[] classIndexes = type.getIndices();
+    for (int i = 0; (classIndexes != null) && (i < classIndexes.length); i++) {
+      ArrayList<String> columns = new ArrayList<String>();
+      MemberMetadata[] indexMembers = classIndexes[i].getMembers();
+      for (int j = 0; (indexMembers != null) && (j < indexMembers.length); j++) {
+        columns.add(getColumn(indexMembers[j]));
+      }
+      ColumnMetadata[] indexColumns = classIndexes[i].getColumns();
+      for (int j = 0; (indexColumns != null) && (j < indexColumns.length); j++) {
+        columns.add(indexColumns[j].getName());
+      }
+      if (columns.size() > 0) {
+        indexes.put(getIndexName(classIndexes[i], type, columns.get(0)), columns);
+      }
+    }
+    return indexes;
+  }
+
+  //the columns of each index of the table, in index order
+  private static List<List<String>> getIndexes(DatabaseMetaData md, String table) throws SQLException {
+    HashMap<String, List<String>> byName = new HashMap<String, List<String>>();
+    ResultSet rs = md.getIndexInfo(null, null, table, false, true);
+    try {
+      while (rs.next()) {
+        String name = rs.getString("INDEX_NAME");
+        String column = rs.getString("COLUMN_NAME");
+        int position = rs.getInt("ORDINAL_POSITION");
+        if ((name == null) || (column == null) || (position < 1)) {
+          continue;
+        }
+        List<String> columns = byName.get(name);
+        if (columns == null) {
+          columns = new ArrayList<String>();
+          byName.put(name, columns);
+        }
+        while (columns.size() < position) {
+          columns.add(null);
+        }
+        columns.set(position - 1, column);
+      }
+    }
+    finally {
+      rs.close();
+    }
+    return new ArrayList<List<String>>(byName.values());
+  }
+
+  private static boolean isIndexed(List<List<String>> existing, List<String> columns) {
+    for (int i = 0; i < existing.size(); i++) {
+      List<String> index = existing.get(i);
+      if (index.size() < columns.size()) {
+        continue;
+      }
+      boolean leading = true;
+      for (int j = 0; leading && (j < columns.size()); j++) {
+        leading = columns.get(j).equalsIgnoreCase(index.get(j));
+      }
+      if (leading) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String getTable(TypeMetadata type) {
+    if (type.getTable() != null) {
+      return type.getTable();
+    }
+    String name = type.getName();
+    return name.substring(name.lastIndexOf('.') + 1).toUpperCase();
+  }
+
+  private static String getColumn(MemberMetadata member) {
+    ColumnMetadata[] columns = member.getColumns();
+    if ((columns != null) && (columns.length > 0) && (columns[0].getName() != null)) {
+      return columns[0].getName();
+    }
+    return member.getName().toUpperCase();
+  }
+
+  private static String getIndexName(IndexMetadata index, TypeMetadata type, String column) {
+    if (index.getName() != null) {
+      return index.getName();
+    }
+    return (getTable(type) + "_" + column + "_idx").toUpperCase();
+  }
+
+  private static String toDatabaseCase(DatabaseMetaData md, String identifier) throws SQLException {
+    if (md.storesLowerCaseIdentifiers()) {
+      return identifier.toLowerCase();
+    }
+    if (md.storesUpperCaseIdentifiers()) {
+      return identifier.toUpperCase();
+    }
+    return identifier;
+  }
+
+  private static String join(List<String> columns) {
+    StringBuffer sb = new StringBuffer();
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(columns.get(i));
+    }
+    return sb.toString();
+  }
+
+}
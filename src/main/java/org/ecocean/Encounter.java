@@ -40,6 +40,7 @@ import java.io.*;
 import java.lang.reflect.Field;
 
 import javax.jdo.Query;
+import javax.jdo.listener.StoreCallback;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
@@ -90,7 +91,7 @@ import org.datanucleus.api.rest.orgjson.JSONException;
  * @author Jason Holmberg
  * @version 2.0
  */
-public class Encounter implements java.io.Serializable {
+public class Encounter implements java.io.Serializable, StoreCallback {
   static final long serialVersionUID = -146404246317385604L;
 
     public static final String STATE_MATCHING_ONLY = "matching_only";
@@ -206,6 +207,9 @@ public class Encounter implements java.io.Serializable {
   private String dwcDateAdded;
   private Long dwcDateAddedLong;
 
+  //Time this encounter was last stored, set on every store whatever was changed. modified is set by hand and often holds only the date.
+  private Long modifiedLong;
+
   // If Encounter spanned more than one day, date of release
   private Date releaseDate;
 
@@ -1614,6 +1618,22 @@ System.out.println("did not find MediaAsset for params=" + sp + "; creating one?
         modified = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
     }
 
+  /**
+   * Returns the time in milliseconds this encounter was last stored in the database, or null if it has not been
+   * stored since this field was added.
+   */
+  public Long getModifiedLong() {
+    return modifiedLong;
+  }
+
+  /**
+   * Records the time of every store, so that changes can be found by time even when the code making them did not
+   * call setDWCDateLastModified.
+   */
+  public void jdoPreStore() {
+    modifiedLong = new Long(System.currentTimeMillis());
+  }
+
   public String getDWCDateAdded() {
     return dwcDateAdded;
   }
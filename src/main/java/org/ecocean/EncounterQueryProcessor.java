@@ -1381,6 +1381,14 @@ This code is no longer necessary with Charles Overbeck's new multi-measurement f
   }
 
   public static EncounterQueryResult processQuery(Shepherd myShepherd, HttpServletRequest request, String order){
+    return processQuery(myShepherd, request, order, null);
+  }
+
+  /**
+   * Runs the query of the request, loading the matching encounters with the named fetch group of package.jdo,
+   * see Shepherd.setFetchGroup. A null fetchGroup loads the default fetch group.
+   */
+  public static EncounterQueryResult processQuery(Shepherd myShepherd, HttpServletRequest request, String order, String fetchGroup){
 
     Vector<Encounter> rEncounters=new Vector<Encounter>();
     Iterator<Encounter> allEncounters;
@@ -1407,7 +1415,7 @@ This code is no longer necessary with Charles Overbeck's new multi-measurement f
     if(!filter.trim().equals("")){
         //filter="("+filter+")";
         //query.setFilter(filter);
-        allEncounters=myShepherd.getAllEncounters(query, paramMap);
+        allEncounters=myShepherd.getAllEncounters(query, paramMap, fetchGroup);
     }
     else{
       allEncounters=myShepherd.getAllEncountersNoFilter();
@@ -4,8 +4,10 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.Vector;
 import java.lang.StringBuffer;
@@ -1405,6 +1407,65 @@ public class IndividualQueryProcessor {
 
     } //end if not noQuery
 
+    //--filter by years between resights, numResights form field---------------------------
+    //getMaxNumYearsBetweenSightings() returns the persistent maxYearsBetweenResightings, so the database can test it
+    if ((request.getParameter("numResights") != null) && (!request.getParameter("numResights").equals("")) && (request.getParameter("numResightsOperator") != null)) {
+      prettyPrint.append("Number of resights is " + request.getParameter("numResightsOperator") + " than " + request.getParameter("numResights") + "<br />");
+
+      int numResights = 1;
+      String operator = "greater";
+      try {
+        numResights = (new Integer(request.getParameter("numResights"))).intValue();
+        operator = request.getParameter("numResightsOperator");
+      } catch (NumberFormatException nfe) {
+      }
+      String resightsFilter = null;
+      if (operator.equals("greater")) {resightsFilter = "maxYearsBetweenResightings >= " + numResights;}
+      else if (operator.equals("less")) {resightsFilter = "maxYearsBetweenResightings <= " + numResights;}
+      else if (operator.equals("equals")) {resightsFilter = "maxYearsBetweenResightings == " + numResights;}
+      if (resightsFilter != null) {
+        if(filter.equals(SELECT_FROM_ORG_ECOCEAN_INDIVIDUAL_WHERE)){filter+="("+resightsFilter+")";}
+        else{filter+=" && ("+resightsFilter+")";}
+      }
+    }
+    //---end numResights filter---------------------------------------
+
+    //--sighted in each of the locationIDs--------------------------
+    //one Encounter variable per locationID, so that every locationID has to match an encounter of its own
+    if((request.getParameter("andLocationIDs") != null)&&(locCodes!=null)&&(!locCodes[0].equals("None"))){
+      String orText = "Sighted in at least one of the following locationsIDs";
+      int orTextStart = prettyPrint.indexOf(orText);
+      if (orTextStart != -1) {
+        prettyPrint.replace(orTextStart, orTextStart + orText.length(), "Sighted at least once in each of the following location IDs");
+      }
+      for(int kwIter=0;kwIter<locCodes.length;kwIter++) {
+        String kwParam=locCodes[kwIter].replaceAll("%20", " ").trim();
+        if(!kwParam.equals("")){
+          String andLocFilter="encounters.contains(encLoc"+kwIter+") && encLoc"+kwIter+".locationID == andLocationID"+kwIter;
+          if(filter.equals(SELECT_FROM_ORG_ECOCEAN_INDIVIDUAL_WHERE)){filter+=andLocFilter;}
+          else{filter+=(" && "+andLocFilter);}
+          jdoqlVariableDeclaration = updateJdoqlVariableDeclaration(jdoqlVariableDeclaration, "org.ecocean.Encounter encLoc"+kwIter);
+          parameterDeclaration = updateParametersDeclaration(parameterDeclaration, "String andLocationID"+kwIter);
+          paramMap.put("andLocationID"+kwIter, kwParam);
+        }
+      }
+    }
+    //--end sighted in each of the locationIDs----------------------
+
+    //--first sighted in year---------------------------------------
+    //an encounter in the year and none dated earlier, which is what getEarliestSightingYear() tests
+    if ((request.getParameter("firstYearField")!=null)&&(!request.getParameter("firstYearField").trim().equals(""))) {
+
+      prettyPrint.append("First sighted in year: "+request.getParameter("firstYearField") +"<br />");
+      int firstSightedInYear = new Integer(request.getParameter("firstYearField")).intValue();
+      String firstYearFilter="encounters.contains(encFirst) && encFirst.year > 0 && encFirst.year == "+firstSightedInYear+" && !encounters.contains(encEarlier) && encEarlier.year > 0 && encEarlier.year < "+firstSightedInYear;
+      if(filter.equals(SELECT_FROM_ORG_ECOCEAN_INDIVIDUAL_WHERE)){filter+=firstYearFilter;}
+      else{filter+=(" && "+firstYearFilter);}
+      jdoqlVariableDeclaration = updateJdoqlVariableDeclaration(jdoqlVariableDeclaration, "org.ecocean.Encounter encFirst");
+      jdoqlVariableDeclaration = updateJdoqlVariableDeclaration(jdoqlVariableDeclaration, "org.ecocean.Encounter encEarlier");
+    }
+    //--end first sighted in year-----------------------------------
+
 	//in the case where no parameters were specified, we need to replace the final "&&"
 		//System.out.println("filter is--"+filter+"--");
 		if(filter.equals(SELECT_FROM_ORG_ECOCEAN_INDIVIDUAL_WHERE)){filter="SELECT FROM org.ecocean.MarkedIndividual WHERE encounters.contains(enc)";}
@@ -1419,6 +1480,14 @@ public class IndividualQueryProcessor {
   }
 
   public static MarkedIndividualQueryResult processQuery(Shepherd myShepherd, HttpServletRequest request, String order){
+      return processQuery(myShepherd, request, order, null);
+  }
+
+  /**
+   * Runs the query of the request, loading the matching individuals with the named fetch group of package.jdo,
+   * see Shepherd.setFetchGroup. A null fetchGroup loads the default fetch group.
+   */
+  public static MarkedIndividualQueryResult processQuery(Shepherd myShepherd, HttpServletRequest request, String order, String fetchGroup){
       Iterator<MarkedIndividual> allSharks;
       Vector<MarkedIndividual> rIndividuals=new Vector<MarkedIndividual>();
       StringBuffer prettyPrint=new StringBuffer();
@@ -1447,20 +1516,20 @@ public class IndividualQueryProcessor {
         }
 
         if(request.getParameter("sort")!=null) {
-          if(request.getParameter("sort").equals("sex")){allSharks=myShepherd.getAllMarkedIndividuals(query, "sex ascending", paramMap);}
-          else if(request.getParameter("sort").equals("name")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "individualID ascending", paramMap);}
-          else if(request.getParameter("sort").equals("numberEncounters")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "numberEncounters descending", paramMap);}
-          else if(request.getParameter("sort").equals("numberLocations")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "numberLocations descending", paramMap);}
-          else if(request.getParameter("sort").equals("dateTimeLatestSighting")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "dateTimeLatestSighting descending", paramMap);}
+          if(request.getParameter("sort").equals("sex")){allSharks=myShepherd.getAllMarkedIndividuals(query, "sex ascending", paramMap, fetchGroup);}
+          else if(request.getParameter("sort").equals("name")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "individualID ascending", paramMap, fetchGroup);}
+          else if(request.getParameter("sort").equals("numberEncounters")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "numberEncounters descending", paramMap, fetchGroup);}
+          else if(request.getParameter("sort").equals("numberLocations")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "numberLocations descending", paramMap, fetchGroup);}
+          else if(request.getParameter("sort").equals("dateTimeLatestSighting")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "dateTimeLatestSighting descending", paramMap, fetchGroup);}
           // Added to show adoptable sharks in gallery.
-          else if(request.getParameter("sort").equals("dateTimeLatestSighting")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "dateTimeLatestSighting descending", paramMap);}
+          else if(request.getParameter("sort").equals("dateTimeLatestSighting")) {allSharks=myShepherd.getAllMarkedIndividuals(query, "dateTimeLatestSighting descending", paramMap, fetchGroup);}
 
           else{
-            allSharks=myShepherd.getAllMarkedIndividuals(query, "individualID ascending", paramMap);
+            allSharks=myShepherd.getAllMarkedIndividuals(query, "individualID ascending", paramMap, fetchGroup);
           }
         }
         else{
-          allSharks=myShepherd.getAllMarkedIndividuals(query, "individualID ascending", paramMap);
+          allSharks=myShepherd.getAllMarkedIndividuals(query, "individualID ascending", paramMap, fetchGroup);
           //keyword and then individualID ascending
         }
         //process over to Vector
@@ -1474,6 +1543,8 @@ public class IndividualQueryProcessor {
       catch(NullPointerException npe){}
 
 
+      //community and role searches are made against Relationships, which are not related to MarkedIndividual in
+      //the schema, so they filter the results by individualID, one query per community or role
       //community search
       if(request.getParameterValues("community")!=null){
         String[] communities=request.getParameterValues("community");
@@ -1481,13 +1552,7 @@ public class IndividualQueryProcessor {
         prettyPrint.append("Social unit is one of the following: ");
         for(int i=0;i<numCommunities;i++){
           prettyPrint.append(communities[i]+" ");
-          for (int q = 0; q < rIndividuals.size(); q++) {
-            MarkedIndividual tShark = (MarkedIndividual) rIndividuals.get(q);
-            if(!myShepherd.getAllMarkedIndividualsInCommunity(communities[i]).contains(tShark)) {
-              rIndividuals.remove(q);
-              q--;
-            }
-          }
+          rIndividuals=retainIndividuals(rIndividuals, myShepherd.getMarkedIndividualNamesInCommunity(communities[i]));
         }
         prettyPrint.append("<br />");
       }
@@ -1508,139 +1573,25 @@ public class IndividualQueryProcessor {
           prettyPrint.append(roles[h]+"&nbsp;");
         }
 
-
-
+        if(orRoles){
           //logical OR the roles
-            for (int q = 0; q<rIndividuals.size(); q++) {
-              MarkedIndividual tShark = (MarkedIndividual) rIndividuals.get(q);
-              List<String> myRoles=myShepherd.getAllRoleNamesForMarkedIndividual(tShark.getIndividualID());
-
-              if(orRoles){
-
-                //logical OR the role
-                boolean hasRole=false;
-                int f=0;
-                while(!hasRole && (f<numRoles)){
-                  if(myRoles.contains(roles[f])){hasRole=true;}
-                  f++;
-                }
-                if(!hasRole) {
-                   rIndividuals.remove(q);
-                   q--;
-                }
-              }
-              else{
-
-                //logical AND the roles
-                boolean hasRole=true;
-                int f=0;
-                while(hasRole && (f<numRoles)){
-                  if(!myRoles.contains(roles[f])){hasRole=false;}
-                  f++;
-                }
-                if(!hasRole) {
-                   rIndividuals.remove(q);
-                   q--;
-                }
-
-
-              }
-
-
-        }
-
-
-
-        prettyPrint.append("<br />");
-      }
-
-
-
-
-    //min number of resights
-    if ((request.getParameter("numResights") != null) && (!request.getParameter("numResights").equals("")) && (request.getParameter("numResightsOperator") != null)) {
-      prettyPrint.append("Number of resights is " + request.getParameter("numResightsOperator") + " than " + request.getParameter("numResights") + "<br />");
-
-      int numResights = 1;
-      String operator = "greater";
-      try {
-        numResights = (new Integer(request.getParameter("numResights"))).intValue();
-        operator = request.getParameter("numResightsOperator");
-      } catch (NumberFormatException nfe) {
-      }
-      for (int q = 0; q < rIndividuals.size(); q++) {
-        MarkedIndividual tShark = (MarkedIndividual) rIndividuals.get(q);
-
-
-        if (operator.equals("greater")) {
-          if (tShark.getMaxNumYearsBetweenSightings() < numResights) {
-            rIndividuals.remove(q);
-            q--;
-          }
-        } else if (operator.equals("less")) {
-          if (tShark.getMaxNumYearsBetweenSightings() > numResights) {
-            rIndividuals.remove(q);
-            q--;
+          HashSet<String> withAnyRole=new HashSet<String>();
+          for(int f=0;f<numRoles;f++){
+            withAnyRole.addAll(myShepherd.getMarkedIndividualNamesWithRole(roles[f]));
           }
-        } else if (operator.equals("equals")) {
-          if (tShark.getMaxNumYearsBetweenSightings() != numResights) {
-            rIndividuals.remove(q);
-            q--;
+          rIndividuals=retainIndividuals(rIndividuals, withAnyRole);
+        }
+        else{
+          //logical AND the roles
+          for(int f=0;f<numRoles;f++){
+            rIndividuals=retainIndividuals(rIndividuals, myShepherd.getMarkedIndividualNamesWithRole(roles[f]));
           }
         }
 
+        prettyPrint.append("<br />");
+      }
 
-      } //end for
-    }//end if resightOnly
-
-    String[] locCodes=request.getParameterValues("locationCodeField");
-    //check whether locationIDs are AND'd rather than OR'd
-    if(request.getParameter("andLocationIDs") != null){
-		 //String[] locCodes=request.getParameterValues("locationCodeField");
-
-      prettyPrint=new StringBuffer(prettyPrint.toString().replaceAll("Sighted in at least one of the following locationsIDs", "Sighted at least once in each of the following location IDs"));
-
-		    if((locCodes!=null)&&(!locCodes[0].equals("None"))){
-		       for (int q = 0; q < rIndividuals.size(); q++) {
-        			MarkedIndividual tShark = (MarkedIndividual) rIndividuals.get(q);
-
-		          	int kwLength=locCodes.length;
-					int kwIter=0;
-					boolean matchesSelectedLocationIDs=true;
-		            while((kwIter<kwLength)&&matchesSelectedLocationIDs) {
-		              String kwParam=locCodes[kwIter].replaceAll("%20", " ").trim();
-		              if(!kwParam.equals("")){
-						if(!tShark.wasSightedInLocationCode(kwParam)){
-							rIndividuals.remove(q);
-							q--;
-							matchesSelectedLocationIDs=false;
-
-						}
-
-		              }
-		              kwIter++;
-
-		            }
-			  }
-    	}
-
-	}
-
-    //filter based on first sighting year
-    if ((request.getParameter("firstYearField")!=null)&&(!request.getParameter("firstYearField").trim().equals(""))) {
-
-      prettyPrint.append("First sighted in year: "+request.getParameter("firstYearField") +"<br />");
-      int firstSightedInYear = new Integer(request.getParameter("firstYearField")).intValue();
-      for (int q = 0; q < rIndividuals.size(); q++) {
-            MarkedIndividual tShark = (MarkedIndividual) rIndividuals.get(q);
-            if (tShark.getEarliestSightingYear()!=firstSightedInYear) {
-              rIndividuals.remove(q);
-              q--;
-            }
-          } //end for
-
-
-    }
+    //the numResights, andLocationIDs and firstYearField filters are part of the query, see queryStringBuilder
 
     query.closeAll();
 		return (new MarkedIndividualQueryResult(rIndividuals,filter,prettyPrint.toString()));
@@ -1718,6 +1669,18 @@ public class IndividualQueryProcessor {
     return tagFilter.toString();
   }
 
+  //the individuals whose individualID is one of the names, in the same order
+  private static Vector<MarkedIndividual> retainIndividuals(Vector<MarkedIndividual> individuals, Set<String> names) {
+    Vector<MarkedIndividual> retained=new Vector<MarkedIndividual>();
+    for (int q = 0; q < individuals.size(); q++) {
+      MarkedIndividual tShark = individuals.get(q);
+      if (names.contains(tShark.getIndividualID())) {
+        retained.add(tShark);
+      }
+    }
+    return retained;
+  }
+
   private static String updateJdoqlVariableDeclaration(String jdoqlVariableDeclaration, String typeAndVariable) {
     StringBuilder sb = new StringBuilder(jdoqlVariableDeclaration);
     if (jdoqlVariableDeclaration.length() == 0) {
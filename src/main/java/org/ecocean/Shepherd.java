@@ -33,6 +33,7 @@ import javax.jdo.*;
 import javax.servlet.http.HttpServletRequest;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.File;
 import java.net.URL;
 import java.text.DateFormat;
@@ -81,6 +82,9 @@ public class Shepherd {
   private String action="undefined";
   private String shepherdID="";
 
+  //counts of the getNum methods by context and count name, see getCachedCount
+  private static final Map<String, long[]> countCache = new ConcurrentHashMap<String, long[]>();
+
 
   /**
    * Constructor to create a new shepherd thread object
@@ -135,6 +139,7 @@ public class Shepherd {
     try {
       pm.makePersistent(enc);
       commitDBTransaction();
+      clearCachedCount("Encounter");
     } catch (Exception e) {
       rollbackDBTransaction();
       System.out.println("I failed to create a new encounter in shepherd.storeNewEncounter().");
@@ -184,6 +189,7 @@ public class Shepherd {
       try {
         pm.makePersistent(enc);
         commitDBTransaction();
+        clearCachedCount("Occurrence");
       } catch (Exception e) {
         rollbackDBTransaction();
         System.out.println("I failed to create a new Occurrence in shepherd.storeNewOccurrence().");
@@ -258,6 +264,7 @@ public class Shepherd {
     try {
       pm.makePersistent(indie);
       commitDBTransaction();
+      clearCachedCount("MarkedIndividual");
     } catch (Exception e) {
       rollbackDBTransaction();
       System.out.println("I failed to create a new MarkedIndividual in Shepherd.storeNewMarkedIndividual().");
@@ -272,6 +279,7 @@ public class Shepherd {
     try {
       pm.makePersistent(ad);
       commitDBTransaction();
+      clearCachedCount("Adoption");
     } catch (Exception e) {
       rollbackDBTransaction();
       System.out.println("I failed to create a new adoption in shepherd.storeNewAdoption().");
@@ -352,6 +360,7 @@ public class Shepherd {
   public void throwAwayEncounter(Encounter enc) {
     String number = enc.getEncounterNumber();
     pm.deletePersistent(enc);
+    clearCachedCount("Encounter");
   }
 
   public void throwAwayWorkspace(Workspace wSpace) {
@@ -393,6 +402,7 @@ public class Shepherd {
   public void throwAwayAdoption(Adoption ad) {
     String number = ad.getID();
     pm.deletePersistent(ad);
+    clearCachedCount("Adoption");
   }
 
   public void throwAwayKeyword(Keyword word) {
@@ -402,6 +412,7 @@ public class Shepherd {
 
   public void throwAwayOccurrence(Occurrence word) {
     pm.deletePersistent(word);
+    clearCachedCount("Occurrence");
   }
 
 
@@ -423,6 +434,7 @@ public class Shepherd {
   public void throwAwayMarkedIndividual(MarkedIndividual bye_bye_sharky) {
     //String name=bye_bye_sharky.getName();
     pm.deletePersistent(bye_bye_sharky);
+    clearCachedCount("MarkedIndividual");
   }
 
   public void throwAwayTask(ScanTask sTask) {
@@ -1707,6 +1719,15 @@ public class Shepherd {
   }
 
   public Iterator<Encounter> getAllEncounters(Query acceptedEncounters, Map<String, Object> paramMap) {
+    return getAllEncounters(acceptedEncounters, paramMap, null);
+  }
+
+  /**
+   * Retrieves the encounters matching a query, loading only the fields of the named fetch group of package.jdo,
+   * see setFetchGroup. A null fetchGroup loads the default fetch group.
+   */
+  public Iterator<Encounter> getAllEncounters(Query acceptedEncounters, Map<String, Object> paramMap, String fetchGroup) {
+    setFetchGroup(acceptedEncounters, fetchGroup);
     Collection c;
     try {
       c = (Collection) (acceptedEncounters.executeWithMap(paramMap));
@@ -2764,6 +2785,14 @@ public class Shepherd {
    * @see shark, java.util.Iterator
    */
   public Iterator<MarkedIndividual> getAllMarkedIndividuals() {
+    return getAllMarkedIndividuals((String) null);
+  }
+
+  /**
+   * Retrieves all the individuals, loading only the fields of the named fetch group of package.jdo, see
+   * setFetchGroup. A null fetchGroup loads the default fetch group.
+   */
+  public Iterator<MarkedIndividual> getAllMarkedIndividuals(String fetchGroup) {
     Extent allSharks = null;
     try {
       allSharks = pm.getExtent(MarkedIndividual.class, true);
@@ -2772,6 +2801,7 @@ public class Shepherd {
     }
     Extent encClass = pm.getExtent(MarkedIndividual.class, true);
     Query sharks = pm.newQuery(encClass);
+    setFetchGroup(sharks, fetchGroup);
     Collection c = (Collection) (sharks.execute());
     ArrayList list = new ArrayList(c);
     sharks.closeAll();
@@ -2779,6 +2809,25 @@ public class Shepherd {
     return it;
   }
 
+  /**
+   * Makes a query load only the fields of a named fetch group of package.jdo instead of the default fetch group,
+   * which for a MarkedIndividual includes all of its encounters. Other fields are still loaded when accessed.
+   * <ul>
+   * <li>listSummary holds the fields search results show, without related objects</li>
+   * <li>export holds the fields the search exports write, and the encounters of an individual</li>
+   * <li>matchGraph holds what an EncounterLite is made from</li>
+   * </ul>
+   * A null fetchGroup leaves the query unchanged.
+   */
+  public static void setFetchGroup(Query query, String fetchGroup) {
+    if (fetchGroup == null) {
+      return;
+    }
+    query.getFetchPlan().setGroup(fetchGroup);
+    //individual -> encounter -> measurement, tissue sample or tag
+    query.getFetchPlan().setMaxFetchDepth(fetchGroup.equals("export") ? 3 : 2);
+  }
+
   public Iterator getAllWorkspaces() {
     Extent allWorkspaces = null;
     try {
@@ -2838,6 +2887,15 @@ public class Shepherd {
   }
 
   public Iterator<MarkedIndividual> getAllMarkedIndividuals(Query sharkies, String order, Map<String, Object> params) {
+    return getAllMarkedIndividuals(sharkies, order, params, null);
+  }
+
+  /**
+   * Retrieves the individuals matching a query, loading only the fields of the named fetch group of package.jdo,
+   * see setFetchGroup. A null fetchGroup loads the default fetch group.
+   */
+  public Iterator<MarkedIndividual> getAllMarkedIndividuals(Query sharkies, String order, Map<String, Object> params, String fetchGroup) {
+    setFetchGroup(sharkies, fetchGroup);
     sharkies.setOrdering(order);
     Collection c = (Collection) (sharkies.executeWithMap(params));
     ArrayList list = new ArrayList(c);
@@ -2847,24 +2905,76 @@ public class Shepherd {
   }
 
 
-  public int getNumMarkedIndividuals() {
-    int num = 0;
-    Query q = pm.newQuery(MarkedIndividual.class); // no filter, so all instances match
-
+  /**
+   * Returns the value of a count query, which must have a count(this) result, or -1 if it fails.
+   */
+  private int executeCount(Query q) {
     try {
-      pm.getFetchPlan().setGroup("count");
-      Collection results = (Collection) q.execute();
-      num = results.size();
-
+      Long num = (Long) q.execute();
+      return (num == null) ? 0 : num.intValue();
     } catch (javax.jdo.JDOException x) {
       x.printStackTrace();
+      return -1;
+    } finally {
       q.closeAll();
-      return num;
     }
-    q.closeAll();
+  }
+
+  /**
+   * Returns a count of the whole catalog of this context, counting it with the query if it is not cached.
+   * <p/>
+   * Counts are only cached if countCacheSeconds is set in commonConfiguration.properties, for that many
+   * seconds, so that busy pages like index.jsp do not count every table on each request. Storing or
+   * throwing away an object through this class drops the count of its class; a cached count can lag behind
+   * records added or deleted any other way for that time. Failed counts are not cached.
+   */
+  private int getCachedCount(String name, Query q) {
+    long ttlMillis = getCountCacheMillis();
+    String key = localContext + "|" + name;
+    long now = System.currentTimeMillis();
+    if (ttlMillis > 0) {
+      long[] cached = countCache.get(key);
+      if ((cached != null) && ((now - cached[1]) < ttlMillis)) {
+        q.closeAll();
+        return (int) cached[0];
+      }
+    }
+    int num = executeCount(q);
+    if (num < 0) {
+      return 0;
+    }
+    if (ttlMillis > 0) {
+      countCache.put(key, new long[]{num, now});
+    }
     return num;
   }
 
+  private long getCountCacheMillis() {
+    String seconds = CommonConfiguration.getProperty("countCacheSeconds", localContext);
+    if ((seconds == null) || seconds.trim().equals("")) {
+      return 0;
+    }
+    try {
+      return (long) (Double.parseDouble(seconds.trim()) * 1000);
+    } catch (NumberFormatException nfe) {
+      System.out.println("Shepherd: ignoring countCacheSeconds that is not a number: " + seconds);
+      return 0;
+    }
+  }
+
+  /**
+   * Drops one cached count of this context, so that the next call of its getNum method counts again.
+   */
+  private void clearCachedCount(String name) {
+    countCache.remove(localContext + "|" + name);
+  }
+
+  public int getNumMarkedIndividuals() {
+    Query q = pm.newQuery(MarkedIndividual.class); // no filter, so all instances match
+    q.setResult("count(this)");
+    return getCachedCount("MarkedIndividual", q);
+  }
+
   public int getNumUsers() {
     int num = 0;
     Query q = pm.newQuery(User.class); // no filter, so all instances match
@@ -2884,20 +2994,10 @@ public class Shepherd {
 
 
   public int getNumScanTasks() {
-    Extent allTasks = null;
-    int num = 0;
     Query q = pm.newQuery(ScanTask.class); // no filter, so all instances match
-
-    try {
-      Collection results = (Collection) q.execute();
-      num = results.size();
-
-    } catch (javax.jdo.JDOException x) {
-      x.printStackTrace();
-      return num;
-    }
-    q.closeAll();
-    return num;
+    q.setResult("count(this)");
+    //not cached, GridManager polls it to notice new and deleted tasks
+    return Math.max(executeCount(q), 0);
   }
 
   public int getNumUnfinishedScanTasks() {
@@ -2922,51 +3022,24 @@ public class Shepherd {
 
 
   public int getNumEncounters() {
-    pm.getFetchPlan().setGroup("count");
     Extent encClass = pm.getExtent(Encounter.class, true);
     String filter = "this.state != \"unidentifiable\"";
     Query acceptedEncounters = pm.newQuery(encClass, filter);
-    try {
-      Collection c = (Collection) (acceptedEncounters.execute());
-      int num = c.size();
-      acceptedEncounters.closeAll();
-      return num;
-    } catch (javax.jdo.JDOException x) {
-      x.printStackTrace();
-      acceptedEncounters.closeAll();
-      return 0;
-    }
+    acceptedEncounters.setResult("count(this)");
+    return getCachedCount("Encounter", acceptedEncounters);
   }
   public int getNumOccurrences() {
-    pm.getFetchPlan().setGroup("count");
     Extent encClass = pm.getExtent(Occurrence.class, true);
     Query acceptedOccurrences = pm.newQuery(encClass);
-    try {
-      Collection c = (Collection) (acceptedOccurrences.execute());
-      int num = c.size();
-      acceptedOccurrences.closeAll();
-      return num;
-    } catch (javax.jdo.JDOException x) {
-      x.printStackTrace();
-      acceptedOccurrences.closeAll();
-      return 0;
-    }
+    acceptedOccurrences.setResult("count(this)");
+    return getCachedCount("Occurrence", acceptedOccurrences);
   }
 
   public int getNumAdoptions() {
-    pm.getFetchPlan().setGroup("count");
     Extent encClass = pm.getExtent(Adoption.class, true);
     Query acceptedEncounters = pm.newQuery(encClass);
-    try {
-      Collection c = (Collection) (acceptedEncounters.execute());
-      int num = c.size();
-      acceptedEncounters.closeAll();
-      return num;
-    } catch (javax.jdo.JDOException x) {
-      x.printStackTrace();
-      acceptedEncounters.closeAll();
-      return 0;
-    }
+    acceptedEncounters.setResult("count(this)");
+    return getCachedCount("Adoption", acceptedEncounters);
   }
 
   public int getNumApprovedEncounters() {
@@ -3142,16 +3215,8 @@ public class Shepherd {
     String filter = "this.submitterID == \"" + user + "\"";
     Extent encClass = pm.getExtent(Encounter.class, true);
     Query acceptedEncounters = pm.newQuery(encClass, filter);
-    try {
-      Collection c = (Collection) (acceptedEncounters.execute());
-      int num = c.size();
-      acceptedEncounters.closeAll();
-      return num;
-    } catch (javax.jdo.JDOException x) {
-      x.printStackTrace();
-      acceptedEncounters.closeAll();
-      return 0;
-    }
+    acceptedEncounters.setResult("count(this)");
+    return Math.max(executeCount(acceptedEncounters), 0);
   }
 
   /**
@@ -4159,6 +4224,50 @@ public class Shepherd {
     return roles;
   }
 
+  /**
+   * Returns the names of the individuals that have the role in at least one relationship, as
+   * getAllRoleNamesForMarkedIndividual finds roles, with one query for all individuals.
+   */
+  public HashSet<String> getMarkedIndividualNamesWithRole(String role){
+    HashSet<String> names=new HashSet<String>();
+    Extent encClass = pm.getExtent(Relationship.class, true);
+    Query query = pm.newQuery(encClass, "this.markedIndividualRole1 == role || this.markedIndividualRole2 == role");
+    query.declareParameters("String role");
+    Collection c = (Collection) (query.execute(role));
+    Iterator it = c.iterator();
+    while(it.hasNext()){
+      Relationship rel=(Relationship)it.next();
+      if((rel.getMarkedIndividualName1()!=null)&&(role.equals(rel.getMarkedIndividualRole1()))){
+        names.add(rel.getMarkedIndividualName1());
+      }
+      if((rel.getMarkedIndividualName2()!=null)&&(role.equals(rel.getMarkedIndividualRole2()))){
+        names.add(rel.getMarkedIndividualName2());
+      }
+    }
+    query.closeAll();
+    return names;
+  }
+
+  /**
+   * Returns the names in the relationships of a social unit, the individuals getAllMarkedIndividualsInCommunity
+   * loads, without loading them.
+   */
+  public HashSet<String> getMarkedIndividualNamesInCommunity(String communityName){
+    HashSet<String> names=new HashSet<String>();
+    Extent encClass = pm.getExtent(Relationship.class, true);
+    Query query = pm.newQuery(encClass, "this.relatedSocialUnitName == communityName");
+    query.declareParameters("String communityName");
+    Collection c = (Collection) (query.execute(communityName));
+    Iterator it = c.iterator();
+    while(it.hasNext()){
+      Relationship rel=(Relationship)it.next();
+      if(rel.getMarkedIndividualName1()!=null){names.add(rel.getMarkedIndividualName1());}
+      if(rel.getMarkedIndividualName2()!=null){names.add(rel.getMarkedIndividualName2());}
+    }
+    query.closeAll();
+    return names;
+  }
+
   public ArrayList<Relationship> getAllRelationshipsForCommunity(String commName){
     //ArrayList<Relationship> relies=new ArrayList<Relationship>();
     Extent encClass = pm.getExtent(Relationship.class, true);
@@ -4409,6 +4518,50 @@ public class Shepherd {
       return encs;
   }
   
+  /**
+   * Returns the catalog numbers of the encounters added or stored after the given time, in milliseconds. Encounters
+   * stored before Encounter.modifiedLong existed are not returned.
+   */
+  public List<String> getEncounterNumbersModifiedSince(long millis){
+      List<String> encs=null;
+      String filter="SELECT DISTINCT catalogNumber FROM org.ecocean.Encounter WHERE modifiedLong > :sinceMillis";
+      Query query=getPM().newQuery(filter);
+      Collection c = (Collection) (query.execute(new Long(millis)));
+      encs=new ArrayList<String>(c);
+      query.closeAll();
+      return encs;
+  }
+
+  /**
+   * Returns the number of encounters that have left or right spots.
+   */
+  public int getNumEncountersWithSpots(){
+      String filter="SELECT count(this) FROM org.ecocean.Encounter WHERE !spots.isEmpty() || !rightSpots.isEmpty()";
+      Query query=getPM().newQuery(filter);
+      Long num=(Long)query.execute();
+      query.closeAll();
+      return num.intValue();
+  }
+
+  /**
+   * Returns a page of the encounters that have left or right spots, ordered by catalog number so that successive
+   * pages do not overlap. The encounters are loaded with the matchGraph fetch group, which holds only the spot
+   * and reference spot collections and the few fields an EncounterLite needs, so that building the match graph
+   * does not load every image, annotation and measurement of the catalog.
+   */
+  public List<Encounter> getEncountersWithSpots(int start, int numResults){
+      String filter="SELECT FROM org.ecocean.Encounter WHERE !spots.isEmpty() || !rightSpots.isEmpty() ORDER BY catalogNumber ascending";
+      Query query=getPM().newQuery(filter);
+      query.getFetchPlan().setGroup("matchGraph");
+      //Encounter -> SuperSpot
+      query.getFetchPlan().setMaxFetchDepth(2);
+      query.setRange(start, start+numResults);
+      Collection c = (Collection) (query.execute());
+      ArrayList<Encounter> encs=new ArrayList<Encounter>(c);
+      query.closeAll();
+      return encs;
+  }
+
   public List<String> getAllUsernamesWithRoles(){
     List<String> usernames=null;
     String filter="SELECT DISTINCT username FROM org.ecocean.Role";  
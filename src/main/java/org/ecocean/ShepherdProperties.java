@@ -4,10 +4,76 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Loads the .properties bundles, preferring an override file in the data directory of the context to the
+ * bundle on the classpath.
+ * <p/>
+ * Loaded bundles are cached by file name, language and context, together with the modification times of the
+ * files they were loaded from. A cached bundle is checked against those files at most every
+ * CHECK_INTERVAL_MILLIS and reloaded when one of them has changed, so editing an override file still takes
+ * effect without a restart. Bundles inside a jar are not checked, they only change on redeployment.
+ */
 public class ShepherdProperties {
 
+  //how long a cached bundle is used before its files are checked for changes again
+  static final long CHECK_INTERVAL_MILLIS = 2000;
+
+  private static final String CONTEXTS_PROPERTIES = "contexts.properties";
+
+  private static final ConcurrentHashMap<String, CachedProperties> cache = new ConcurrentHashMap<String, CachedProperties>();
+
+  /**
+   * A loaded bundle and the files it was loaded from. It is never modified once cached: a change on disk
+   * replaces it with a newly loaded instance, so lookups need no locking.
+   */
+  static final class CachedProperties {
+    final LinkedProperties props;
+    private final HashMap<String, String> values = new HashMap<String, String>();
+    private final File[] sources;
+    private final long[] lastModified;
+    private volatile long checkedAt;
+
+    CachedProperties(LinkedProperties props, ArrayList<File> sources, ArrayList<Long> lastModified) {
+      this.props = props;
+      for (String name : props.stringPropertyNames()) {
+        values.put(name, props.getProperty(name));
+      }
+      this.sources = sources.toArray(new File[sources.size()]);
+      this.lastModified = new long[sources.size()];
+      for (int i = 0; i < this.lastModified.length; i++) {
+        this.lastModified[i] = lastModified.get(i).longValue();
+      }
+      checkedAt = System.currentTimeMillis();
+    }
+
+    String getProperty(String name) {
+      return values.get(name);
+    }
+
+    Enumeration<?> propertyNames() {
+      return props.propertyNames();
+    }
+
+    //true if none of the files has been changed, created or deleted since the bundle was loaded
+    private boolean isCurrent() {
+      for (int i = 0; i < sources.length; i++) {
+        if (sources[i].lastModified() != lastModified[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
   public static Properties getProperties(String fileName){
     return getProperties(fileName, "en");
   }
@@ -19,19 +85,55 @@ public class ShepherdProperties {
     
   }
 
+  /**
+   * Returns a copy of the bundle, which the caller may modify.
+   */
   public static Properties getProperties(String fileName, String langCode, String context){
+    return copy(getCachedProperties(fileName, langCode, context).props);
+  }
+
+  /**
+   * Returns the cached bundle, loading it if it is not cached or has changed on disk. The bundle is shared
+   * and must not be modified.
+   */
+  static CachedProperties getCachedProperties(String fileName, String langCode, String context) {
+    String key = fileName + "|" + langCode + "|" + context;
+    CachedProperties cached = cache.get(key);
+    if ((cached != null) && isCurrent(cached)) {
+      return cached;
+    }
+    CachedProperties loaded = load(fileName, langCode, context);
+    cache.put(key, loaded);
+    return loaded;
+  }
+
+  private static boolean isCurrent(CachedProperties cached) {
+    long now = System.currentTimeMillis();
+    if ((now - cached.checkedAt) < CHECK_INTERVAL_MILLIS) {
+      return true;
+    }
+    cached.checkedAt = now;
+    return cached.isCurrent();
+  }
+
+  private static CachedProperties load(String fileName, String langCode, String context) {
     LinkedProperties props=new LinkedProperties();
+    ArrayList<File> sources = new ArrayList<File>();
+    ArrayList<Long> lastModified = new ArrayList<Long>();
 
     String shepherdDataDir="wildbook_data_dir";
+    String langDir = langCode;
     if(!langCode.equals("")){
-      langCode=langCode+"/";
+      langDir=langCode+"/";
     }
     
     //if((CommonConfiguration.getProperty("dataDirectoryName",context)!=null)&&(!CommonConfiguration.getProperty("dataDirectoryName",context).trim().equals(""))){
     //  shepherdDataDir=CommonConfiguration.getProperty("dataDirectoryName",context);
     //}
     
-    Properties contextsProps=getContextsProperties();
+    //the data directory of the context decides where the override file is, so a change to it reloads the bundle too
+    CachedProperties contextsProps=getCachedContextsProperties();
+    addSources(contextsProps, sources, lastModified);
     if(contextsProps.getProperty(context+"DataDir")!=null){
       shepherdDataDir=contextsProps.getProperty(context+"DataDir");
       
@@ -39,8 +141,9 @@ public class ShepherdProperties {
     
     //context change here!
     
-    
-    LinkedProperties overrideProps=loadOverrideProps(shepherdDataDir, fileName, langCode);
+    File overrideFile = getOverrideFile(shepherdDataDir, fileName, langDir);
+    addSource(overrideFile, sources, lastModified);
+    LinkedProperties overrideProps=loadOverrideProps(overrideFile);
     //System.out.println(overrideProps);
 
     if(overrideProps.size()>0){props=overrideProps;}
@@ -48,7 +151,12 @@ public class ShepherdProperties {
       //otherwise load the embedded commonConfig
 
       try {
-        InputStream inputStream=ShepherdProperties.class.getResourceAsStream("/bundles/"+langCode+fileName);
+        URL resource = ShepherdProperties.class.getResource("/bundles/"+langDir+fileName);
+        if (resource == null) {
+          throw new IOException("No bundle /bundles/"+langDir+fileName);
+        }
+        addSource(getFile(resource), sources, lastModified);
+        InputStream inputStream=resource.openStream();
         props.load(inputStream);
         inputStream.close();
       }
@@ -57,7 +165,9 @@ public class ShepherdProperties {
         //OK, we couldn't find the overridden file, and we couldn't find the local file in the webapp
         //default to the English version
         if(!langCode.equals("en")) {
-          props=(LinkedProperties)getProperties(fileName, "en", context);
+          CachedProperties english = getCachedProperties(fileName, "en", context);
+          props=english.props;
+          addSources(english, sources, lastModified);
         }
         else {
           ioe.printStackTrace();
@@ -68,13 +178,29 @@ public class ShepherdProperties {
       }
     }
 
-    return props;
+    return new CachedProperties(props, sources, lastModified);
   }
   
   public static Properties getContextsProperties(){
-    Properties props=new Properties();
+    return copy(getCachedContextsProperties().props);
+  }
+
+  private static CachedProperties getCachedContextsProperties() {
+    String key = CONTEXTS_PROPERTIES;
+    CachedProperties cached = cache.get(key);
+    if ((cached != null) && isCurrent(cached)) {
+      return cached;
+    }
+    LinkedProperties props=new LinkedProperties();
+    ArrayList<File> sources = new ArrayList<File>();
+    ArrayList<Long> lastModified = new ArrayList<Long>();
       try {
-        InputStream inputStream = ShepherdProperties.class.getResourceAsStream("/bundles/contexts.properties");
+        URL resource = ShepherdProperties.class.getResource("/bundles/"+CONTEXTS_PROPERTIES);
+        if (resource == null) {
+          throw new IOException("No bundle /bundles/"+CONTEXTS_PROPERTIES);
+        }
+        addSource(getFile(resource), sources, lastModified);
+        InputStream inputStream = resource.openStream();
         props.load(inputStream);
         inputStream.close();
       }
@@ -82,14 +208,12 @@ public class ShepherdProperties {
         ioe.printStackTrace();
       }
     
-
-    return props;
+    CachedProperties loaded = new CachedProperties(props, sources, lastModified);
+    cache.put(key, loaded);
+    return loaded;
   }
 
-  private static LinkedProperties loadOverrideProps(String shepherdDataDir, String fileName, String langCode) {
-    //System.out.println("Starting loadOverrideProps");
-
-    LinkedProperties myProps=new LinkedProperties();
+  private static File getOverrideFile(String shepherdDataDir, String fileName, String langCode) {
     File configDir = new File("webapps/"+shepherdDataDir+"/WEB-INF/classes/bundles/"+langCode);
     //System.out.println(configDir.getAbsolutePath());
     //sometimes this ends up being the "bin" directory of the J2EE container
@@ -108,7 +232,13 @@ public class ShepherdProperties {
     }
     //System.out.println("ShepherdProps: "+configDir.getAbsolutePath());
     if(!configDir.exists()){configDir.mkdirs();}
-    File configFile = new File(configDir, fileName);
+    return new File(configDir, fileName);
+  }
+
+  private static LinkedProperties loadOverrideProps(File configFile) {
+    //System.out.println("Starting loadOverrideProps");
+
+    LinkedProperties myProps=new LinkedProperties();
     if (configFile.exists()) {
       //System.out.println("ShepherdProps: "+"Overriding default properties with " + configFile.getAbsolutePath());
       FileInputStream fileInputStream = null;
@@ -134,4 +264,43 @@ public class ShepherdProperties {
     return myProps;
   }
 
+  //the file behind a classpath resource, or null if it is inside a jar
+  private static File getFile(URL resource) {
+    if (!"file".equals(resource.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(resource.toURI());
+    }
+    catch (URISyntaxException use) {
+      return new File(resource.getPath());
+    }
+  }
+
+  //records the modification time before the file is read, so a change made while reading is picked up next time
+  private static void addSource(File file, ArrayList<File> sources, ArrayList<Long> lastModified) {
+    if (file != null) {
+      sources.add(file);
+      lastModified.add(Long.valueOf(file.lastModified()));
+    }
+  }
+
+  private static void addSources(CachedProperties cached, ArrayList<File> sources, ArrayList<Long> lastModified) {
+    for (int i = 0; i < cached.sources.length; i++) {
+      sources.add(cached.sources[i]);
+      lastModified.add(Long.valueOf(cached.lastModified[i]));
+    }
+  }
+
+  //copies keep the order of the bundle, as LinkedProperties does
+  private static LinkedProperties copy(LinkedProperties props) {
+    LinkedProperties copy = new LinkedProperties();
+    Iterator<Object> it = props.orderedKeys().iterator();
+    while (it.hasNext()) {
+      Object key = it.next();
+      copy.put(key, props.get(key));
+    }
+    return copy;
+  }
+
 }
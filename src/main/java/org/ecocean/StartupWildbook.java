@@ -17,6 +17,7 @@ import org.ecocean.ia.IA;
 import org.ecocean.ia.IAPluginManager;
 import org.ecocean.grid.MatchGraphCreationThread;
 //import org.ecocean.grid.ScanTaskCleanupThread;
+import org.ecocean.grid.ScanTaskCheckpoint;
 import org.ecocean.grid.SharkGridThreadExecutorService;
 import org.ecocean.media.LocalAssetStore;
 import org.ecocean.servlet.ServletUtilities;
@@ -123,6 +124,9 @@ public class StartupWildbook implements ServletContextListener {
             return;
         }
 
+        //reports indexes declared in package.jdo that an older schema is missing
+        DatabaseIndexCheck.check(context);
+
         //initialize the plugin (instances)
         IAPluginManager.initPlugins(context);
         //this should be handling all plugin startups
@@ -130,7 +134,14 @@ public class StartupWildbook implements ServletContextListener {
 
         //NOTE! this is whaleshark-specific (and maybe other spot-matchers?) ... should be off on any other trees
         if (CommonConfiguration.useSpotPatternRecognition(context)) {
-            createMatchGraph();
+            File snapshotDir = null;
+            try {
+                snapshotDir = CommonConfiguration.getDataDirectory(sContext, context);
+                ScanTaskCheckpoint.setDirectory(new File(snapshotDir, ScanTaskCheckpoint.DIRECTORY_NAME));
+            } catch (java.io.FileNotFoundException fnfe) {
+                System.out.println("+ WARNING: no data directory for the match graph snapshot; the match graph will be rebuilt from the database");
+            }
+            createMatchGraph(snapshotDir);
         }
 
         //TODO genericize starting "all" consumers ... configurable? how?  etc.
@@ -207,6 +218,13 @@ public class StartupWildbook implements ServletContextListener {
       es.execute(new MatchGraphCreationThread());
     }
 
+    //loads the match graph from the snapshot in snapshotDir, falling back to a full rebuild if there is no usable snapshot
+    public static void createMatchGraph(File snapshotDir){
+      System.out.println("Entering createMatchGraph StartupWildbook method.");
+      ThreadPoolExecutor es=SharkGridThreadExecutorService.getExecutorService();
+      es.execute(new MatchGraphCreationThread(snapshotDir));
+    }
+
     public static boolean skipInit(ServletContextEvent sce, String extra) {
         ServletContext sc = sce.getServletContext();
         if ("".equals(sc.getContextPath())) {
@@ -28,11 +28,9 @@ import com.reijns.I3S.Compare;
 import com.reijns.I3S.FingerPrint;
 import com.reijns.I3S.Point2D;
 import org.ecocean.Encounter;
-import org.ecocean.Spot;
 import org.ecocean.SuperSpot;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.TreeMap;
 
 //a class...
@@ -59,10 +57,37 @@ public class EncounterLite implements java.io.Serializable {
   private String encounterNumber = "";
   private String belongsToMarkedIndividual="";
   String date = "";
+  //catalog context used to partition the match graph and filter scans
+  private String taxonomy = "";
+  private String locationID = "";
+
+  //GridWireFormat key of this encounter's content, computed on first use
+  private transient String wireKey;
+
+  //pre-filter descriptors of the left and right patterns, computed on first use
+  private transient SpotPatternDescriptor leftDescriptor;
+  private transient SpotPatternDescriptor rightDescriptor;
 
   public EncounterLite() {
   }
 
+  //used by GridWireFormat to rebuild an encounter received by a grid node
+  EncounterLite(String encounterNumber, String belongsToMarkedIndividual, String sex, String date, double size, double[] spotsX, double[] spotsY, double[] rightSpotsX, double[] rightSpotsY, double[] leftReferenceSpotsX, double[] leftReferenceSpotsY, double[] rightReferenceSpotsX, double[] rightReferenceSpotsY) {
+    this.encounterNumber = encounterNumber;
+    this.belongsToMarkedIndividual = belongsToMarkedIndividual;
+    this.sex = sex;
+    this.date = date;
+    this.size = size;
+    this.spotsX = spotsX;
+    this.spotsY = spotsY;
+    this.rightSpotsX = rightSpotsX;
+    this.rightSpotsY = rightSpotsY;
+    this.leftReferenceSpotsX = leftReferenceSpotsX;
+    this.leftReferenceSpotsY = leftReferenceSpotsY;
+    this.rightReferenceSpotsX = rightReferenceSpotsX;
+    this.rightReferenceSpotsY = rightReferenceSpotsY;
+  }
+
   public EncounterLite(Encounter enc) {
     this.date = enc.getDate();
     this.encounterNumber = enc.getEncounterNumber();
@@ -72,6 +97,12 @@ public class EncounterLite implements java.io.Serializable {
     if(enc.getSex()!=null){
       this.sex = enc.getSex();
     }
+    if(enc.getTaxonomyString()!=null){
+      this.taxonomy = enc.getTaxonomyString();
+    }
+    if(enc.getLocationID()!=null){
+      this.locationID = enc.getLocationID();
+    }
     //this.size = enc.getSize();
     /*if(enc.getSpots()!=null) {
         this.spots=new superSpot[enc.getSpots().length];
@@ -194,1170 +225,132 @@ public class EncounterLite implements java.io.Serializable {
     return encounterNumber;
   }
 
-  public MatchObject getPointsForBestMatch(SuperSpot[] newspotsTemp, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, boolean secondRun, boolean rightScan) {
-    System.out.println("\nNow comparing against encounter " + encounterNumber + " of " + belongsToMarkedIndividual + "...");
-    try {
-
-      SuperSpot[] spots = new SuperSpot[0];
-
-      //check to see if this is a right side scan. if false, this is a left-side scan.
-      if (rightScan) {
-        //this is a rightside pattern scan
-        spots = (SuperSpot[]) getRightSpots().toArray(spots);
-      } else {
-        spots = (SuperSpot[]) getSpots().toArray(spots);
-      }
-
-      SuperSpot[] newspots;
-      //set up variables needed to normalize spots and make sure that list A is always the smallest of the two lists
-      boolean swappedSpots = false;
-
-      newspots = new SuperSpot[newspotsTemp.length];
-      for (int nsIter = 0; nsIter < newspotsTemp.length; nsIter++) {
-        newspots[nsIter] = newspotsTemp[nsIter];
-      }
-
-      double xMaxCatalog = 0;
-      double yMaxCatalog = 0;
-      double xMaxNew = 0;
-      double yMaxNew = 0;
-      for (int iterN1 = 0; iterN1 < newspots.length; iterN1++) {
-        if (newspots[iterN1].getTheSpot().getCentroidX() > xMaxNew) {
-          xMaxNew = newspots[iterN1].getTheSpot().getCentroidX();
-        }
-      }
-      for (int iterN2 = 0; iterN2 < newspots.length; iterN2++) {
-        if (newspots[iterN2].getTheSpot().getCentroidY() > yMaxNew) {
-          yMaxNew = newspots[iterN2].getTheSpot().getCentroidY();
-        }
-      }
-      for (int iterN3 = 0; iterN3 < spots.length; iterN3++) {
-        if (spots[iterN3].getTheSpot().getCentroidX() > xMaxCatalog) {
-          xMaxCatalog = spots[iterN3].getTheSpot().getCentroidX();
-        }
-      }
-
-      //correction
-      for (int iterN4 = 0; iterN4 < spots.length; iterN4++) {
-        if (spots[iterN4].getTheSpot().getCentroidY() > yMaxCatalog) {
-          yMaxCatalog = spots[iterN4].getTheSpot().getCentroidY();
-        }
-      }
-      double normFactorCatalog = 0;
-      if (xMaxCatalog > yMaxCatalog) {
-        normFactorCatalog = xMaxCatalog;
-      } else {
-        normFactorCatalog = yMaxCatalog;
-      }
-      //System.out.println("normFactorCatalog is: "+normFactorCatalog);
-      double normFactorNew = 0;
-      if (xMaxNew > yMaxNew) {
-        normFactorNew = xMaxNew;
-      } else {
-        normFactorNew = yMaxNew;
-      }
-      for (int iterj = 0; iterj < newspots.length; iterj++) {
-        Spot replaceMe = newspots[iterj].getTheSpot();
-        newspots[iterj] = new SuperSpot(new Spot(replaceMe.getArea(), (replaceMe.getCentroidX() / normFactorNew), (replaceMe.getCentroidY() / normFactorNew)));
-      }
-      //now iterate through catalog spots and normalize each
-      for (int iterj2 = 0; iterj2 < spots.length; iterj2++) {
-        Spot replaceMe = spots[iterj2].getTheSpot();
-        spots[iterj2] = new SuperSpot(new Spot(replaceMe.getArea(), (replaceMe.getCentroidX() / normFactorCatalog), (replaceMe.getCentroidY() / normFactorCatalog)));
-      }
-
-      //stopped formatting here
-
-
-      //start triangle creation in Groth method
-      double newSpan, baseSpan, newClosePairDist, baseClosePairDist;
-      double bestScore = 0, adjustedScore = 0;
-      int orient;
-      double allowedRotationDiff = Math.toRadians(maxTriangleRotation);
-
-
-      //construct all triangles for the newEncounter
-      newSpan = -1;
-      newClosePairDist = 9999;
-      int numSpots = newspots.length;
-      //System.out.println("     I expect "+(numSpots*(numSpots-1)*(numSpots-2)/6)+" triangles.");
-      ArrayList newTriangles = new ArrayList(numSpots * (numSpots - 1) * (numSpots - 2) / 6);
-      int newSpotArrayL = newspots.length - 2;
-      for (int i = 0; i < newSpotArrayL; i++) {
-
-        for (int j = i + 1; j < (newspots.length - 1); j++) {
-          int newArrayL = newspots.length;
-          for (int k = j + 1; k < newArrayL; k++) {
-            SpotTriangle tempTriangle = new SpotTriangle(newspots[i].getTheSpot(), newspots[j].getTheSpot(), newspots[k].getTheSpot(), epsilon);
-            orient = 0;
-            if (tempTriangle.clockwise) orient = 1;
-
-
-            if (tempTriangle.D13 > newSpan) {
-
-
-              newSpan = tempTriangle.D13;
-            }
-            if (tempTriangle.D12 < newClosePairDist) {
-              newClosePairDist = tempTriangle.D12;
-            }
-            if ((tempTriangle.R <= R) && (tempTriangle.C <= C)) {
-              newTriangles.add(tempTriangle);
-
-            }
-          }
-        }
-      }
-      //System.out.println("     I found "+newTriangles.size()+" new encounter triangles.\n Filtering for Sizelim...");
-      for (int i = 0; i < newTriangles.size(); i++) {
-        SpotTriangle tempTriangle = (SpotTriangle) newTriangles.get(i);
-
-        //old sizelim computation
-        if (tempTriangle.D13 / newSpan >= Sizelim) {
-
-          //System.out.println("Removing large triangle: "+tempTriangle.D13+" "+newSpan+" "+tempTriangle.D13/newSpan);
-          newTriangles.remove(i);
-          i--;
-
-        }
-      }
-      if (newClosePairDist < (3 * epsilon)) {
-        System.out.println("WARNING!!!! Spots in the new encounter are too close together to support this high of an epsilon value!!!");
-      }
-
-      //construct all triangles for the base Encounter to be compared to
-      baseSpan = -1;
-      baseClosePairDist = 9999;
-      SuperSpot[] baseSpots = spots;
-      int spotAL = baseSpots.length;
-      //System.out.println("      I expect "+(spotAL*(spotAL-1)*(spotAL-2)/6)+" triangles.");
-      ArrayList baseTriangles = new ArrayList(spotAL * (spotAL - 1) * (spotAL - 2) / 6);
-      int spotArrayL = baseSpots.length - 2;
-      int ensureNumIterations = 0;
-      for (int i = 0; i < spotArrayL; i++) {
-
-        for (int j = i + 1; j < (baseSpots.length - 1); j++) {
-
-          for (int k = j + 1; k < baseSpots.length; k++) {
-            SpotTriangle tempTriangle = new SpotTriangle(baseSpots[i].getTheSpot(), baseSpots[j].getTheSpot(), baseSpots[k].getTheSpot(), epsilon);
-            orient = 0;
-            if (tempTriangle.clockwise) orient = 1;
-            //System.out.println("New "+i+" "+j+" "+k+" "+tempTriangle.C+" "+tempTriangle.tC2+" "+tempTriangle.R+" "+tempTriangle.tR2+" "+tempTriangle.D13+" "+orient);
-            //System.out.println(i+" "+j+" "+k+" "+tempTriangle.Dxs+" "+tempTriangle.Dys+" "+tempTriangle.Dxl+" "+tempTriangle.Dyl+" "+orient);
-            if (tempTriangle.D13 > baseSpan) {
-              baseSpan = tempTriangle.D13;
-            }
-            if (tempTriangle.D12 < baseClosePairDist) {
-              baseClosePairDist = tempTriangle.D12;
-            }
-            if ((tempTriangle.R <= R) && (tempTriangle.C <= C)) {
-              baseTriangles.add(tempTriangle);
-            }
-          }
-        }
-      }
-      //System.out.println("     I found "+baseTriangles.size()+" base encounter triangles.\n Filtering for Sizelim...");
-      for (int i = 0; i < baseTriangles.size(); i++) {
-        SpotTriangle tempTriangle = (SpotTriangle) baseTriangles.get(i);
-
-        //old way
-        if (tempTriangle.D13 / baseSpan >= Sizelim) {
-
-          //new way
-          //	if (tempTriangle.D13/baseSpan < Sizelim) {
-          //System.out.println("Removing large triangle: "+tempTriangle.D13+" "+baseSpan+" "+tempTriangle.D13/baseSpan);
-          baseTriangles.remove(i);
-          i--;
-        } else {
-          //System.out.println("Keeping: "+i+" "+tempTriangle.D13+" "+baseSpan+" "+tempTriangle.D13/baseSpan);
-        }
-      }
-      //System.out.println("     Now using "+baseTriangles.size()+" base encounter triangles.");
-      //System.out.println("newSpan "+newSpan+" baseSpan "+baseSpan);
-      //System.out.println("     baseClosePairDist is "+baseClosePairDist);
-      if (baseClosePairDist < (3 * epsilon)) {
-        System.out.println("WARNING!!!! Spots in the catalog encounter are too close together to support this high of an epsilon value!!!");
-      }
-
-      //System.out.println("   I have constructed all of the triangles!");
-
-      //now swap the traingles if newTriangles>baseTriangles
-
-      SpotTriangle[] tArray = new SpotTriangle[0];
-      SpotTriangle[] baseArray = new SpotTriangle[0];
-
-      if (newTriangles.size() > baseTriangles.size()) {
-        swappedSpots = true;
-        baseArray = (SpotTriangle[]) (newTriangles.toArray(baseArray));
-        tArray = (SpotTriangle[]) (baseTriangles.toArray(tArray));
-      } else {
-        tArray = (SpotTriangle[]) (newTriangles.toArray(tArray));
-        baseArray = (SpotTriangle[]) (baseTriangles.toArray(baseArray));
-      }
-
-      //now begin processing the triangles
-
-      Arrays.sort(tArray, new RComparator());
-      Arrays.sort(baseArray, new RComparator());
-
-      //VmatchesA are the matched triangles of the new encounter whose spots were passed into this method
-      ArrayList VmatchesA = new ArrayList(5000);
-
-      //VmatchesB are the matched triangles of this encounter
-      ArrayList VmatchesB = new ArrayList(5000);
-      ArrayList bestSums = new ArrayList(5000);
-      double holdingMatch = 0;
-
-      boolean matched;
-      int arrayL = tArray.length;
-      int baseArrayL = baseArray.length;
-      // below, 'A' refers to tArray which is the array of the new encounter triangles, 'B' to baseArray which is the array of this database encounter's triangles
-      double RA, RB, CA, CB;
-      double tRA2, tRB2, tCA2, tCB2;
-      double RotA, rotdiff, bestrot;
-      double sqrttR2sum, Rdiff2, Cdiff2, sumdiffs, bestsum, besttol;
-      int bestiter2 = 0;
-      for (int iter1 = 0; iter1 < arrayL; iter1++) {
-        matched = false;
-        bestsum = 99999;
-        RA = tArray[iter1].R;
-        tRA2 = tArray[iter1].tR2;
-        CA = tArray[iter1].C;
-        tCA2 = tArray[iter1].tC2;
-        RotA = tArray[iter1].getMyVertexOneRotationInRadians();
-        for (int iter2 = 0; iter2 < baseArrayL; iter2++) {
-          RB = baseArray[iter2].R;
-          tRB2 = baseArray[iter2].tR2;
-          sqrttR2sum = Math.sqrt(tRA2 + tRB2);
-          //System.out.println(iter1+" "+iter2+" RB "+RB+" RA-sqrttR2sum "+(RA-sqrttR2sum)+" RA+sqrttR2sum "+(RA+sqrttR2sum));
-          if ((RB > (RA - sqrttR2sum)) && (RB < (RA + sqrttR2sum))) {
-            //System.out.println("Testing...");
-            CB = baseArray[iter2].C;
-            tCB2 = baseArray[iter2].tC2;
-            Rdiff2 = (RA - RB) * (RA - RB) / (tRA2 + tRB2);
-            Cdiff2 = (CA - CB) * (CA - CB) / (tCA2 + tCB2);
-            rotdiff = Math.abs(RotA - baseArray[iter2].getMyVertexOneRotationInRadians()) / allowedRotationDiff;
-            if ((Rdiff2 < 1.0) && (Cdiff2 < 1.0) && (rotdiff < 1.0)) {
-              sumdiffs = Rdiff2 + Cdiff2 + (rotdiff * rotdiff);
-              //System.out.println("Match: "+iter1+" "+iter2+" RA "+RA+" RB "+RB+" CA "+CA+" CB "+CB+" CWA "+tArray[iter1].clockwise+" CWB "+baseArray[iter2].clockwise+" "+sumdiffs);
-              //System.out.println("PerA "+tArray[iter1].logPerimeter+" PerB "+baseArray[iter2].logPerimeter);
-
-
-              //added the requirement here that matched trianlges be of the same orientation - jah 1/19/04
-              if (sumdiffs < bestsum) {
-
-                //check to make sure that the triangles are not extreme rotations of each other
-
-                //System.out.println("angle of rotation diff is: "+Math.toDegrees(tArray[iter1].getMyVertexOneRotationInRadians()-baseArray[iter2].getMyVertexOneRotationInRadians()));
-                matched = true;
-                bestiter2 = iter2;
-                bestsum = sumdiffs;
-                //VmatchesA.add(tArray[iter1]);
-                //VmatchesB.add(baseArray[iter2]);
-                //	}
-              }
-            }
-          }
-        }
-        if (matched) {
-          //System.out.println("Best iter2:"+bestiter2);
-          //System.out.println("Match: "+bestsum+" "+tArray[iter1].R+" "+baseArray[bestiter2].R+" "+tArray[iter1].C+" "+baseArray[bestiter2].C+" "+tArray[iter1].D13/newSpan+" "+baseArray[bestiter2].D13/baseSpan+" "+tArray[iter1].clockwise+" "+baseArray[bestiter2].clockwise+" "+iter1+" "+bestiter2);
-          VmatchesA.add(tArray[iter1]);
-          VmatchesB.add(baseArray[bestiter2]);
-          bestSums.add(new Double(bestsum));
-        }
-      }
-      //System.out.println("I am now about to start filtering with "+VmatchesA.size()+" triangles!");
-      //now begin filtering
-      ArrayList logM = new ArrayList(VmatchesA.size());
-      int nPLUS = 0;
-      int nMINUS = 0;
-
-
-      for (int iter3 = 0; iter3 < VmatchesA.size(); iter3++) {
-        logM.add(new Double((((SpotTriangle) VmatchesA.get(iter3)).logPerimeter) - ((SpotTriangle) VmatchesB.get(iter3)).logPerimeter));
-        //System.out.println("M value of: "+(new Double((((spotTriangle)VmatchesA.elementAt(iter3)).logPerimeter)-((spotTriangle)VmatchesB.elementAt(iter3)).logPerimeter)).doubleValue());
-        if (((SpotTriangle) VmatchesA.get(iter3)).clockwise == ((SpotTriangle) VmatchesB.get(iter3)).clockwise) {
-          nPLUS++;
-        } else {
-          nMINUS++;
-        }
-      }
-      int mT = Math.abs(nPLUS - nMINUS);
-      int mF = nPLUS + nMINUS - mT;
-      double multiple = 0;
-      boolean stillIterate = true;
-      int numIterations = 0;
-      //System.out.println("   Going into the logM filter with "+VmatchesA.size()+" matching triangles. Before filtering, N+="+nPLUS+" N-="+nMINUS);
-
-      double oldStdDeviationLogM = 10000;
-      while (stillIterate && (numIterations < 20) && (VmatchesA.size() > 0)) {
-        //System.out.println("          iterating filter with "+VmatchesA.size()+" triangles!");
-        numIterations++;
-        boolean haveMadeChange = false;
-
-        //let's find some logM info
-        double meanLogM = 0;
-        double stdDeviationLogM = 0;
-
-        //method to compute logM using only the standard deviations of same sense triangles
-        int logMSize = logM.size();
-        for (int iter4 = 0; iter4 < logMSize; iter4++) {
-          boolean Aorientation = ((SpotTriangle) VmatchesA.get(iter4)).clockwise;
-          boolean Borientation = ((SpotTriangle) VmatchesB.get(iter4)).clockwise;
-          if (Aorientation == Borientation) {
-            //logMSize++;
-            meanLogM += ((Double) logM.get(iter4)).doubleValue();
-          }
-        }
-        meanLogM = meanLogM / nPLUS;
-        //System.out.println("Found a mean of: "+meanLogM);
-
-
-        //weighted method
-        //int logMSize=logM.size();
-        //int sumLogMDivBestSum=0;
-        //int OneOverBestSum=0;
-
-        //for(int iter4=0; iter4<logMSize; iter4++){
-        //	sumLogMDivBestSum+=(((Double)logM.get(iter4)).doubleValue())/(((Double)bestSums.get(iter4)).doubleValue());
-        //	OneOverBestSum+=1/(((Double)bestSums.get(iter4)).doubleValue());
-        //	}
-        //meanLogM=sumLogMDivBestSum/OneOverBestSum;
-
-
-        for (int iter5 = 0; iter5 < logMSize; iter5++) {
-          boolean Aorientation = ((SpotTriangle) VmatchesA.get(iter5)).clockwise;
-          boolean Borientation = ((SpotTriangle) VmatchesB.get(iter5)).clockwise;
-          if (Aorientation == Borientation) {
-            stdDeviationLogM += Math.pow((((Double) logM.get(iter5)).doubleValue() - meanLogM), 2);
-          }
-        }
-        //System.out.println("Almost standard deviation is: "+stdDeviationLogM);
-        //System.out.println("LogM list size minus one is: "+(logM.size()-1));
-        //System.out.println("The real std dev. should be: "+Math.pow((stdDeviationLogM/(logM.size()-1)), 0.5));
-
-
-        if (nPLUS > 1) {
-          stdDeviationLogM = Math.pow((stdDeviationLogM / (nPLUS - 1)), 0.5);
-        } else {
-          stdDeviationLogM = 0.0;
-        }
-
-        //System.out.println("Found a std. dev. of: "+stdDeviationLogM);
-
-
-        //now let's define a filter based on logM
-        int greaterThanMeanLogM = 0;
-        int lessThanMeanLogM = 0;
-        for (int iterCount = 0; iterCount < logM.size(); iterCount++) {
-          if ((((Double) logM.get(iterCount)).doubleValue()) > meanLogM) {
-            greaterThanMeanLogM++;
-          } else {
-            lessThanMeanLogM++;
-          }
-        }
-        boolean leftSideHeavy = false;
-        boolean rightSideHeavy = false;
-        boolean balanced = false;
-        if (Math.pow((lessThanMeanLogM - greaterThanMeanLogM), 2) > (lessThanMeanLogM + greaterThanMeanLogM)) {
-          if (lessThanMeanLogM > greaterThanMeanLogM) {
-            leftSideHeavy = true;
-          } else {
-            rightSideHeavy = true;
-          }
-        } else {
-          balanced = true;
-        }
-
-        //Groth's way
-        //if(mF>mT) {multiple=1;}
-        //else if((0.1*mT)>mF) {multiple=3;}
-        //else{multiple=2;}
-
-        // softer logM filter:
-        //if(mF>2.0*mT) {multiple=1;}
-        //else if((0.5*mT)>mF) {multiple=3;}
-        //else{multiple=2;}
-
-
-        // softer still:
-        if (nMINUS > nPLUS) {
-          multiple = 1;
-        } else if ((0.5 * mT) > mF) {
-          multiple = 3;
-        } else {
-          multiple = 2;
-        }
-
-
-        //now discard nonmatches
-        int logMremovals = 0;
-        int leftsideRemovals = 0, rightsideRemovals = 0;
-        for (int iter6 = 0; iter6 < logM.size(); iter6++) {
-
-          if (Math.abs(((Double) logM.get(iter6)).doubleValue() - meanLogM) > (multiple * stdDeviationLogM)) {
-            if (leftSideHeavy && (((Double) logM.get(iter6)).doubleValue() < meanLogM)) {
-              leftsideRemovals++;
-            } else if (rightSideHeavy && (((Double) logM.get(iter6)).doubleValue() > meanLogM)) {
-              rightsideRemovals++;
-            } else if (leftSideHeavy && (((Double) logM.get(iter6)).doubleValue() > meanLogM)) {
-              rightsideRemovals++;
-            } else if (rightSideHeavy && (((Double) logM.get(iter6)).doubleValue() < meanLogM)) {
-              leftsideRemovals++;
-            }
-            logM.remove(iter6);
-            VmatchesA.remove(iter6);
-            VmatchesB.remove(iter6);
-            bestSums.remove(iter6);
-            haveMadeChange = true;
-            iter6--;
-            logMremovals++;
-          }
-        }
-        //System.out.print("     left heavy? "+leftSideHeavy+"   ");
-        //System.out.print("     right heavy? "+rightSideHeavy+"   ");
-        //System.out.println("     Balanced? "+balanced+"   ");
-        //	System.out.println("     Removed "+logMremovals+" triangles on logM filter pass "+numIterations+" with a filter/multiple value of "+multiple);
-        //System.out.println("          leftsideRemovals="+leftsideRemovals+"     rightsideRemovals="+rightsideRemovals);
-        //System.out.println("          N+ is "+nPLUS+" and N- is "+nMINUS);
-
-        if (!haveMadeChange) {
-          stillIterate = false;
-        }
-        nPLUS = 0;
-        nMINUS = 0;
-        int iterLimit = VmatchesA.size();
-        for (int iter7 = 0; iter7 < iterLimit; iter7++) {
-          if (((SpotTriangle) VmatchesA.get(iter7)).clockwise == ((SpotTriangle) VmatchesB.get(iter7)).clockwise) {
-            nPLUS++;
-          } else {
-            nMINUS++;
-          }
-        }
-        mT = Math.abs(nPLUS - (nMINUS));
-        mF = nPLUS + nMINUS - mT;
-
-        oldStdDeviationLogM = stdDeviationLogM;
-        //System.out.println("          Going into the next round with mT, mF: "+mT+","+mF);
-      }
+  public double[] getSpotsX() {
+    return spotsX;
+  }
 
+  public double[] getSpotsY() {
+    return spotsY;
+  }
 
-      for (int iter8 = 0; iter8 < VmatchesA.size(); iter8++) {
-        if (((SpotTriangle) VmatchesA.get(iter8)).clockwise != ((SpotTriangle) VmatchesB.get(iter8)).clockwise) {
-          logM.remove(iter8);
-          VmatchesA.remove(iter8);
-          VmatchesB.remove(iter8);
-          bestSums.remove(iter8);
-          iter8--;
-        }
+  public double[] getRightSpotsX() {
+    return rightSpotsX;
+  }
 
-      }
+  public double[] getRightSpotsY() {
+    return rightSpotsY;
+  }
 
-      //System.out.println("Going into scoring with "+VmatchesA.size()+" matching triangles.");
-      if (VmatchesA.size() == 0) {
-        return (new MatchObject(belongsToMarkedIndividual, 0, 0, encounterNumber));
-      }
-      MatchedPoints mp = new MatchedPoints();
-      int vMatchL = VmatchesA.size();
-      for (int iter10 = 0; iter10 < vMatchL; iter10++) {
-        for (int iter11 = 0; iter11 < 3; iter11++) {
-          Spot spotA = ((SpotTriangle) VmatchesA.get(iter10)).getVertex(iter11 + 1);
-          Spot spotB = ((SpotTriangle) VmatchesB.get(iter10)).getVertex(iter11 + 1);
-          //for(int iter12=iter11+1; iter12<VmatchesA.size(); iter12++) {
-          int tempPlace = mp.hasMatchedPair(spotA, spotB);
-          if (tempPlace != -1) {
-            ((VertexPointMatch) mp.get(tempPlace)).points++;
-
-          } else {
-            mp.add(new VertexPointMatch(spotA, spotB, 1));
-          }
-          //	}
-        }
+  double[] getLeftReferenceSpotsX() {
+    return leftReferenceSpotsX;
+  }
 
-      }
-      VertexPointMatch[] scores = new VertexPointMatch[0];
-      scores = (VertexPointMatch[]) (mp.toArray(scores));
-      Arrays.sort(scores, new ScoreComparator());
-      //System.out.println("scores.length is: "+scores.length);
-      if (scores[0].points == 1) {
-        System.out.println("Exiting because I could not match a single triangle point more than once.");
-
-        return (new MatchObject(belongsToMarkedIndividual, 0, 0, encounterNumber));
-      }
-      ArrayList secondRunSpots = new ArrayList();
-      //ArrayList secondRunSpotsB=new ArrayList();
-      int scoresSize = scores.length;
-      secondRunSpots.add(scores[0]);
-      int iter20 = 1;
-      boolean keepOnCounting = true;
-      boolean hasNotBeenSeenYet = true;
-
-      /*old way
-   ArrayList countedSpots=new ArrayList();
-   countedSpots.add(new spot(0, scores[0].newX, scores[0].newY));
-   while(keepOnCounting&&(iter20<scoresSize)){
-
-
-
-       for(int iter30=0;iter30<countedSpots.size();iter30++){
-           spot tempSpot=(spot)countedSpots.get(iter30);
-           if((scores[iter20].newX==tempSpot.getCentroidX())&&(scores[iter20].newY==tempSpot.getCentroidY())){hasNotBeenSeenYet=false;}
-       }
-
-       if((scores[iter20].points>(scores[(iter20-1)].points/2))&&(scores[iter20].points>1)&&(hasNotBeenSeenYet)){
-           secondRunSpots.add(scores[iter20]);
-           countedSpots.add(new spot(0, scores[iter20].newX, scores[iter20].newY));
-           }
-       else{keepOnCounting=false;}
-       iter20++;
-      }*/
-
-      //Zaven's correction
-      ArrayList countedSpotsA = new ArrayList();
-      ArrayList countedSpotsB = new ArrayList();
-      countedSpotsA.add(new Spot(0, scores[0].newX, scores[0].newY));
-      countedSpotsB.add(new Spot(0, scores[0].oldX, scores[0].oldY));
-      while (keepOnCounting && (iter20 < scoresSize)) {
-
-        for (int iter30 = 0; iter30 < countedSpotsA.size(); iter30++) {
-          Spot tempSpot = (Spot) countedSpotsA.get(iter30);
-          if ((scores[iter20].newX == tempSpot.getCentroidX()) && (scores[iter20].newY == tempSpot.getCentroidY())) {
-            hasNotBeenSeenYet = false;
-          }
-          tempSpot = (Spot) countedSpotsB.get(iter30);
-          if ((scores[iter20].oldX == tempSpot.getCentroidX()) && (scores[iter20].oldY == tempSpot.getCentroidY())) {
-            hasNotBeenSeenYet = false;
-          }
-        }
-
-        if ((scores[iter20].points > (scores[(iter20 - 1)].points / 2)) && (scores[iter20].points > 1) && (hasNotBeenSeenYet)) {
-          secondRunSpots.add(scores[iter20]);
-          countedSpotsA.add(new Spot(0, scores[iter20].newX, scores[iter20].newY));
-          countedSpotsB.add(new Spot(0, scores[iter20].oldX, scores[iter20].oldY));
-        } else {
-          keepOnCounting = false;
-        }
-        iter20++;
-      }
+  double[] getLeftReferenceSpotsY() {
+    return leftReferenceSpotsY;
+  }
 
+  double[] getRightReferenceSpotsX() {
+    return rightReferenceSpotsX;
+  }
 
-      VertexPointMatch[] scoredSpots = new VertexPointMatch[0];
-      scoredSpots = (VertexPointMatch[]) (secondRunSpots.toArray(scoredSpots));
+  double[] getRightReferenceSpotsY() {
+    return rightReferenceSpotsY;
+  }
 
-      //System.out.print("     Scoring going into second pass: ");
-      for (int iter40 = 0; iter40 < scoredSpots.length; iter40++) {
-        //System.out.print(scoredSpots[iter40].points+"+");
-      }
-      //System.out.println("...");
-
-      ArrayList secondRunSpotsA = new ArrayList();
-      ArrayList secondRunSpotsB = new ArrayList();
-      for (int iter25 = 0; iter25 < scoredSpots.length; iter25++) {
-        boolean matchListA = false;
-        for (int iter26 = 0; iter26 < secondRunSpotsA.size(); iter26++) {
-          if ((scoredSpots[iter25].newX == (((SuperSpot) secondRunSpotsA.get(iter26)).getTheSpot().getCentroidX())) && (scoredSpots[iter25].newY == (((SuperSpot) secondRunSpotsA.get(iter26)).getTheSpot().getCentroidY()))) {
-            matchListA = true;
-          }
-        }
-        if (!matchListA) {
-          secondRunSpotsA.add(new SuperSpot(new Spot(0, scoredSpots[iter25].newX, scoredSpots[iter25].newY)));
-        }
-        boolean matchListB = false;
-        for (int iter26 = 0; iter26 < secondRunSpotsB.size(); iter26++) {
-          if ((scoredSpots[iter25].oldX == (((SuperSpot) secondRunSpotsB.get(iter26)).getTheSpot().getCentroidX())) && (scoredSpots[iter25].oldY == (((SuperSpot) secondRunSpotsB.get(iter26)).getTheSpot().getCentroidY()))) {
-            matchListB = true;
-          }
-        }
-        if (!matchListB) {
-          secondRunSpotsB.add(new SuperSpot(new Spot(0, scoredSpots[iter25].oldX, scoredSpots[iter25].oldY)));
-        }
-      }
-      SuperSpot[] secondNewSpots = new SuperSpot[0];
-      secondNewSpots = (SuperSpot[]) (secondRunSpotsA.toArray(secondNewSpots));
-      SuperSpot[] secondBaseSpots = new SuperSpot[0];
-      secondBaseSpots = (SuperSpot[]) (secondRunSpotsB.toArray(secondBaseSpots));
-
-      //System.out.println("secondNewSpots is :"+secondNewSpots.length);
-      //System.out.println("secondBaseSpots is :"+secondBaseSpots.length);
-
-      //now run Groth's algorithm again if there are enough spots. if not, exit as this is not a match.
-      VertexPointMatch[] secondPassSpots = scoredSpots;
-      if ((secondNewSpots.length > 3) && (secondBaseSpots.length > 3)) {
-
-        //run recursion on these spots now
-        secondPassSpots = secondGrothPass(secondNewSpots, secondBaseSpots, epsilon, R, Sizelim, maxTriangleRotation, C);
-        if (secondPassSpots.length < 3) {
-          //System.out.println("Exiting after the second pass because the returned number of spots was less than three. "+scoredSpots.length+"-"+(scoredSpots.length-secondPassSpots.length)+"="+secondPassSpots.length);
-          return (new MatchObject(belongsToMarkedIndividual, 0, 0, encounterNumber));
-        }
-        //System.out.println("     The second pass cut out "+(scoredSpots.length-secondPassSpots.length)+" spots.");
-      } else {
-        //System.out.println("Exiting processing because there were less than three spots going into the second filter pass. This is not a match.");
-        return (new MatchObject(belongsToMarkedIndividual, 0, 0, encounterNumber));
-      }
-      // end second run
+  public String getSex() {
+    return sex;
+  }
 
+  public double getSize() {
+    return size;
+  }
 
-      //let's create and pass along an array of the logM values of the matched and scored triangles.
-      int logMSize = logM.size();
-      double[] logMbreakdown = new double[logMSize];
-      for (int logMIter = 0; logMIter < logMSize; logMIter++) {
-        logMbreakdown[logMIter] = ((Double) (logM.get(logMIter))).doubleValue();
-      }
+  public String getBelongsToMarkedIndividual() {
+    return belongsToMarkedIndividual;
+  }
 
-      String pointBreakdown = "";
-      int iterLimit = secondPassSpots[0].points;
-      int iter14 = 0;
-      boolean ok2iterate = true;
-      int scoresLength = secondPassSpots.length;
-      while ((iter14 < scoresLength) && ok2iterate) {
-        if (iter14 == 0) {
-
-          bestScore += secondPassSpots[iter14].points;
-          pointBreakdown += secondPassSpots[iter14].points + " + ";
-          //System.out.print(secondPassSpots[iter14].points+"+");
-          //}
-          iter14++;
-        }
-        //modification...remove the drop in half limit that Groth recommends in his paper b/c point scores are so low.
-        //else if(scores[iter14].points>=((scores[(iter14-1)].points)/2)) {
-        else {
-          bestScore += secondPassSpots[iter14].points;
-          pointBreakdown += secondPassSpots[iter14].points + " + ";
-          //System.out.print(secondPassSpots[iter14].points+"+");
-          iter14++;
-        }
+  /**
+   * Returns the genus and specific epithet of the encounter, or an empty String if it has none.
+   */
+  public String getTaxonomy() {
+    return taxonomy;
+  }
 
-      }
-      adjustedScore = bestScore / (arrayL * 3);
-
-
-      //System.out.println("\nTotal score is: "+bestScore);
-      //System.out.println("\nAdjusted score is: "+adjustedScore);
-
-
-      if (!swappedSpots) {
-
-        for (int diters = 0; diters < secondPassSpots.length; diters++) {
-          //System.out.println("was: "+secondPassSpots[diters].newX);
-          secondPassSpots[diters].newX = secondPassSpots[diters].newX * normFactorNew;
-          //System.out.println("changed to: "+secondPassSpots[diters].newX);
-          secondPassSpots[diters].newY = secondPassSpots[diters].newY * normFactorNew;
-          //System.out.println("changed to: "+secondPassSpots[diters].oldX);
-          secondPassSpots[diters].oldX = secondPassSpots[diters].oldX * normFactorCatalog;
-          //	System.out.println("changed to: "+secondPassSpots[diters].oldX);
-          secondPassSpots[diters].oldY = secondPassSpots[diters].oldY * normFactorCatalog;
-        }
-
-      } else {
-        for (int diters = 0; diters < secondPassSpots.length; diters++) {
-          //System.out.println("was: "+secondPassSpots[diters].newX);
-          secondPassSpots[diters].newX = secondPassSpots[diters].newX * normFactorCatalog;
-          //System.out.println("changed to: "+secondPassSpots[diters].newX);
-          secondPassSpots[diters].newY = secondPassSpots[diters].newY * normFactorCatalog;
-          //System.out.println("changed to: "+secondPassSpots[diters].oldX);
-          secondPassSpots[diters].oldX = secondPassSpots[diters].oldX * normFactorNew;
-          //	System.out.println("changed to: "+secondPassSpots[diters].oldX);
-          secondPassSpots[diters].oldY = secondPassSpots[diters].oldY * normFactorNew;
-        }
+  public String getLocationID() {
+    return locationID;
+  }
 
-      }
+  //used by GridWireFormat to restore the catalog context of an encounter
+  void setCatalogContext(String taxonomy, String locationID) {
+    wireKey = null;
+    this.taxonomy = (taxonomy == null) ? "" : taxonomy;
+    this.locationID = (locationID == null) ? "" : locationID;
+  }
 
+  String getWireKey() {
+    return wireKey;
+  }
 
-      //if newspots and spots were swapped at the beginning of this method to decrease processing time, we need to correct this for eventual spot mapping
-      if (swappedSpots) {
-        VertexPointMatch[] fixedSpots = new VertexPointMatch[secondPassSpots.length];
-        for (int iter70 = 0; iter70 < secondPassSpots.length; iter70++) {
-          fixedSpots[iter70] = new VertexPointMatch(secondPassSpots[iter70].oldX, secondPassSpots[iter70].oldY, secondPassSpots[iter70].newX, secondPassSpots[iter70].newY, secondPassSpots[iter70].points);
-        }
-        secondPassSpots = fixedSpots;
-      }
+  void setWireKey(String key) {
+    this.wireKey = key;
+  }
 
-      ArrayList secondPassSpotsAL = new ArrayList();
-      for (int y = 0; y < secondPassSpots.length; y++) {
-        secondPassSpotsAL.add(secondPassSpots[y]);
+  /**
+   * Returns the pre-filter descriptor of the left or right spot pattern.
+   */
+  SpotPatternDescriptor getDescriptor(boolean rightScan) {
+    if (rightScan) {
+      if (rightDescriptor == null) {
+        rightDescriptor = SpotPatternDescriptor.create(rightSpotsX, rightSpotsY, rightReferenceSpotsX, rightReferenceSpotsY);
       }
-
-
-      //send these matched results back!!!
-      return (new MatchObject(belongsToMarkedIndividual, bestScore, adjustedScore, VmatchesA.size(), secondPassSpotsAL, encounterNumber, pointBreakdown, logMbreakdown, sex, getDate(), size));
-
-
-    } catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("0 points awarded due to exception.");
-      return (new MatchObject(belongsToMarkedIndividual, 0, 0, encounterNumber));
+      return rightDescriptor;
+    }
+    if (leftDescriptor == null) {
+      leftDescriptor = SpotPatternDescriptor.create(spotsX, spotsY, leftReferenceSpotsX, leftReferenceSpotsY);
     }
+    return leftDescriptor;
   }
 
-  private VertexPointMatch[] secondGrothPass(SuperSpot[] secondNewSpots, SuperSpot[] secondBaseSpots, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C) {
-    VertexPointMatch[] scores = new VertexPointMatch[0];
-    try {
-      SuperSpot[] newspots = secondNewSpots;
-      SuperSpot[] localspots = secondBaseSpots;
-
-      //start triangle creation in Groth method
-      double newSpan, baseSpan, newClosePairDist, baseClosePairDist;
-      double bestScore = 0;
-      int orient;
-      double allowedRotationDiff = Math.toRadians(maxTriangleRotation);
-
-
-      //construct all triangles for the newEncounter
-      newSpan = -1;
-      newClosePairDist = 9999;
-      int numSpots = newspots.length;
-      //System.out.println("     I expect "+(numSpots*(numSpots-1)*(numSpots-2)/6)+" triangles.");
-      ArrayList newTriangles = new ArrayList(numSpots * (numSpots - 1) * (numSpots - 2) / 6);
-      int newSpotArrayL = newspots.length - 2;
-      for (int i = 0; i < newSpotArrayL; i++) {
-        for (int j = i + 1; j < (newspots.length - 1); j++) {
-          int newArrayL = newspots.length;
-          for (int k = j + 1; k < newArrayL; k++) {
-            SpotTriangle tempTriangle = new SpotTriangle(newspots[i].getTheSpot(), newspots[j].getTheSpot(), newspots[k].getTheSpot(), epsilon);
-            orient = 0;
-            if (tempTriangle.clockwise) orient = 1;
-
-
-            if (tempTriangle.D13 > newSpan) {
-
-
-              newSpan = tempTriangle.D13;
-            }
-            if (tempTriangle.D12 < newClosePairDist) {
-              newClosePairDist = tempTriangle.D12;
-            }
-            if ((tempTriangle.R <= R) && (tempTriangle.C <= C)) {
-              newTriangles.add(tempTriangle);
-            }
-          }
-        }
-      }
-      //System.out.println("     I found "+newTriangles.size()+" new encounter triangles.\n Filtering for Sizelim...");
-      for (int i = 0; i < newTriangles.size(); i++) {
-        SpotTriangle tempTriangle = (SpotTriangle) newTriangles.get(i);
-
-        //old working sizelim filter
-        if (tempTriangle.D13 / newSpan >= Sizelim) {
-
-          //new sizelim second pass
-          //if (tempTriangle.D13/newSpan < Sizelim) {
-
-          //System.out.println("Removing large triangle: "+tempTriangle.D13+" "+newSpan+" "+tempTriangle.D13/newSpan);
-          newTriangles.remove(i);
-          i--;
-
-        }
-      }
-      //System.out.println("     Now using "+newTriangles.size()+" new encounter triangles.");
-      //System.out.println("     newClosePairDist is "+newClosePairDist);
-      if (newClosePairDist < (3 * epsilon)) {
-        System.out.println("WARNING!!!! Spots in the new encounter are too close together to support this high of an epsilon value!!!");
-      }
-      //construct all triangles for the base Encounter to be compared to
-      baseSpan = -1;
-      baseClosePairDist = 9999;
-      SuperSpot[] baseSpots = localspots;
-      int spotAL = baseSpots.length;
-      //System.out.println("      I expect "+(spotAL*(spotAL-1)*(spotAL-2)/6)+" triangles.");
-      ArrayList baseTriangles = new ArrayList(spotAL * (spotAL - 1) * (spotAL - 2) / 6);
-      int spotArrayL = baseSpots.length - 2;
-      int ensureNumIterations = 0;
-      for (int i = 0; i < spotArrayL; i++) {
-
-        for (int j = i + 1; j < (baseSpots.length - 1); j++) {
-
-          for (int k = j + 1; k < baseSpots.length; k++) {
-            SpotTriangle tempTriangle = new SpotTriangle(baseSpots[i].getTheSpot(), baseSpots[j].getTheSpot(), baseSpots[k].getTheSpot(), epsilon);
-            orient = 0;
-            if (tempTriangle.clockwise) orient = 1;
-            //System.out.println("New "+i+" "+j+" "+k+" "+tempTriangle.C+" "+tempTriangle.tC2+" "+tempTriangle.R+" "+tempTriangle.tR2+" "+tempTriangle.D13+" "+orient);
-            //System.out.println(i+" "+j+" "+k+" "+tempTriangle.Dxs+" "+tempTriangle.Dys+" "+tempTriangle.Dxl+" "+tempTriangle.Dyl+" "+orient);
-            if (tempTriangle.D13 > baseSpan) {
-              baseSpan = tempTriangle.D13;
-            }
-            if (tempTriangle.D12 < baseClosePairDist) {
-              baseClosePairDist = tempTriangle.D12;
-            }
-            if ((tempTriangle.R <= R) && (tempTriangle.C <= C)) {
-              baseTriangles.add(tempTriangle);
-            }
-            //ensureNumIterations++;
-          }
-        }
-      }
-      //System.out.println("     I found "+baseTriangles.size()+" base encounter triangles.\n Filtering for Sizelim...");
-      for (int i = 0; i < baseTriangles.size(); i++) {
-        SpotTriangle tempTriangle = (SpotTriangle) baseTriangles.get(i);
-
-
-        //old way
-        /*if (tempTriangle.D13/baseSpan >= Sizelim) {
-
-        //new way
-        //if (tempTriangle.D13/baseSpan < Sizelim) {
-
-            //System.out.println("Removing large triangle: "+tempTriangle.D13+" "+baseSpan+" "+tempTriangle.D13/baseSpan);
-            baseTriangles.remove(i);
-            i--;
-        } else {
-            //System.out.println("Keeping: "+i+" "+tempTriangle.D13+" "+baseSpan+" "+tempTriangle.D13/baseSpan);
-        }*/
-      }
-      //System.out.println("     Now using "+baseTriangles.size()+" base encounter triangles.");
-      //System.out.println("newSpan "+newSpan+" baseSpan "+baseSpan);
-      //System.out.println("     baseClosePairDist is "+baseClosePairDist);
-      if (baseClosePairDist < (3 * epsilon)) {
-        System.out.println("WARNING!!!! Spots in the catalog encounter are too close together to support this high of an epsilon value!!!");
-      }
-
-      //System.out.println("   I have constructed all of the triangles!");
-      SpotTriangle[] tArray = new SpotTriangle[0];
-      tArray = (SpotTriangle[]) (newTriangles.toArray(tArray));
-      SpotTriangle[] baseArray = new SpotTriangle[0];
-      baseArray = (SpotTriangle[]) (baseTriangles.toArray(baseArray));
-      //now begin processing the triangles
-
-      //System.out.println("     I found "+tArray.length+" new encounter triangles.");
-      //System.out.println("     I found "+baseArray.length+" base encounter triangles.");
-
-      Arrays.sort(tArray, new RComparator());
-      Arrays.sort(baseArray, new RComparator());
-
-      //VmatchesA are the matched triangles of the new encounter whose spots were passed into this method
-      ArrayList VmatchesA = new ArrayList(5000);
-
-      //VmatchesB are the matched triangles of this encounter
-      ArrayList VmatchesB = new ArrayList(5000);
-      ArrayList bestSums = new ArrayList(5000);
-      double holdingMatch = 0;
-
-      boolean matched;
-      int arrayL = tArray.length;
-      int baseArrayL = baseArray.length;
-      // below, 'A' refers to tArray which is the array of the new encounter triangles, 'B' to baseArray which is the array of this database encounter's triangles
-      double RA, RB, CA, CB;
-      double tRA2, tRB2, tCA2, tCB2;
-      double RotA, rotdiff, bestrot;
-      double sqrttR2sum, Rdiff2, Cdiff2, sumdiffs, bestsum, besttol;
-      int bestiter2 = 0;
-      for (int iter1 = 0; iter1 < arrayL; iter1++) {
-        matched = false;
-        bestsum = 99999;
-        RA = tArray[iter1].R;
-        tRA2 = tArray[iter1].tR2;
-        CA = tArray[iter1].C;
-        tCA2 = tArray[iter1].tC2;
-        RotA = tArray[iter1].getMyVertexOneRotationInRadians();
-        for (int iter2 = 0; iter2 < baseArrayL; iter2++) {
-          RB = baseArray[iter2].R;
-          tRB2 = baseArray[iter2].tR2;
-          sqrttR2sum = Math.sqrt(tRA2 + tRB2);
-          //System.out.println(iter1+" "+iter2+" RB "+RB+" RA-sqrttR2sum "+(RA-sqrttR2sum)+" RA+sqrttR2sum "+(RA+sqrttR2sum));
-          if ((RB > (RA - sqrttR2sum)) && (RB < (RA + sqrttR2sum))) {
-            //System.out.println("Testing...");
-            CB = baseArray[iter2].C;
-            tCB2 = baseArray[iter2].tC2;
-            Rdiff2 = (RA - RB) * (RA - RB) / (tRA2 + tRB2);
-            Cdiff2 = (CA - CB) * (CA - CB) / (tCA2 + tCB2);
-            rotdiff = Math.abs(RotA - baseArray[iter2].getMyVertexOneRotationInRadians()) / allowedRotationDiff;
-            if ((Rdiff2 < 1.0) && (Cdiff2 < 1.0) && (rotdiff < 1.0)) {
-              sumdiffs = Rdiff2 + Cdiff2 + (rotdiff * rotdiff);
-              //System.out.println("Match: "+iter1+" "+iter2+" RA "+RA+" RB "+RB+" CA "+CA+" CB "+CB+" CWA "+tArray[iter1].clockwise+" CWB "+baseArray[iter2].clockwise+" "+sumdiffs);
-              //System.out.println("PerA "+tArray[iter1].logPerimeter+" PerB "+baseArray[iter2].logPerimeter);
-
-
-              //added the requirement here that matched trianlges be of the same orientation - jah 1/19/04
-              if (sumdiffs < bestsum) {
-                //if ((sumdiffs<bestsum)&&(tArray[iter1].clockwise==baseArray[iter2].clockwise)) {
-                //if (tArray[iter1].clockwise==baseArray[iter2].clockwise) {
-
-                //check to make sure that the triangles are not extreme rotations of each other
-                //	if(Math.abs((tArray[iter1].getMyVertexOneRotationInRadians()-baseArray[iter2].getMyVertexOneRotationInRadians()))<allowedRotationDiff) {
-
-                //System.out.println("angle of rotation diff is: "+Math.toDegrees(tArray[iter1].getMyVertexOneRotationInRadians()-baseArray[iter2].getMyVertexOneRotationInRadians()));
-                matched = true;
-                bestiter2 = iter2;
-                bestsum = sumdiffs;
-
-                //	}
-              }
-            }
-          }
-        }
-        if (matched) {
-          //System.out.println("Best iter2:"+bestiter2);
-          //System.out.println("Match: "+bestsum+" "+tArray[iter1].R+" "+baseArray[bestiter2].R+" "+tArray[iter1].C+" "+baseArray[bestiter2].C+" "+tArray[iter1].D13/newSpan+" "+baseArray[bestiter2].D13/baseSpan+" "+tArray[iter1].clockwise+" "+baseArray[bestiter2].clockwise+" "+iter1+" "+bestiter2);
-          VmatchesA.add(tArray[iter1]);
-          VmatchesB.add(baseArray[bestiter2]);
-          bestSums.add(new Double(bestsum));
-        }
-      }
-      //System.out.println("I am now about to start filtering with "+VmatchesA.size()+" triangles!");
-      //now begin filtering
-      ArrayList logM = new ArrayList(VmatchesA.size());
-      int nPLUS = 0;
-      int nMINUS = 0;
-
-
-      for (int iter3 = 0; iter3 < VmatchesA.size(); iter3++) {
-        logM.add(new Double((((SpotTriangle) VmatchesA.get(iter3)).logPerimeter) - ((SpotTriangle) VmatchesB.get(iter3)).logPerimeter));
-        //System.out.println("M value of: "+(new Double((((spotTriangle)VmatchesA.elementAt(iter3)).logPerimeter)-((spotTriangle)VmatchesB.elementAt(iter3)).logPerimeter)).doubleValue());
-        if (((SpotTriangle) VmatchesA.get(iter3)).clockwise == ((SpotTriangle) VmatchesB.get(iter3)).clockwise) {
-          nPLUS++;
-        } else {
-          nMINUS++;
-        }
-      }
-      int mT = Math.abs(nPLUS - nMINUS);
-      int mF = nPLUS + nMINUS - mT;
-      double multiple = 0;
-      boolean stillIterate = true;
-      int numIterations = 0;
-      //System.out.println("   Going into the logM filter with "+VmatchesA.size()+" matching triangles. Before filtering, N+="+nPLUS+" N-="+nMINUS);
-      //while(stillIterate&&(numIterations<9)&&(VmatchesA.size()>0)) {
-      double oldStdDeviationLogM = 10000;
-      while (stillIterate && (numIterations < 20) && (VmatchesA.size() > 0)) {
-        //System.out.println("          iterating filter with "+VmatchesA.size()+" triangles!");
-        numIterations++;
-        boolean haveMadeChange = false;
-
-        //let's find some logM info
-        double meanLogM = 0;
-        double stdDeviationLogM = 0;
-
-        //method to compute logM using only the standard deviations of same sense triangles
-        int logMSize = logM.size();
-        for (int iter4 = 0; iter4 < logMSize; iter4++) {
-          boolean Aorientation = ((SpotTriangle) VmatchesA.get(iter4)).clockwise;
-          boolean Borientation = ((SpotTriangle) VmatchesB.get(iter4)).clockwise;
-          if (Aorientation == Borientation) {
-            //logMSize++;
-            meanLogM += ((Double) logM.get(iter4)).doubleValue();
-          }
-        }
-        meanLogM = meanLogM / nPLUS;
-        //System.out.println("Found a mean of: "+meanLogM);
-
-
-        for (int iter5 = 0; iter5 < logMSize; iter5++) {
-          boolean Aorientation = ((SpotTriangle) VmatchesA.get(iter5)).clockwise;
-          boolean Borientation = ((SpotTriangle) VmatchesB.get(iter5)).clockwise;
-          if (Aorientation == Borientation) {
-            stdDeviationLogM += Math.pow((((Double) logM.get(iter5)).doubleValue() - meanLogM), 2);
-          }
-        }
-
-        /*try {
-         stdDeviationLogM=Math.pow((stdDeviationLogM/(logM.size()-1)), 0.5);
-         }
-     catch (ArithmeticException ae) {stdDeviationLogM=0;}*/
-        if (nPLUS > 1) {
-          stdDeviationLogM = Math.pow((stdDeviationLogM / (nPLUS - 1)), 0.5);
-        } else {
-          stdDeviationLogM = 0.0;
-        }
-
-
-        //System.out.println("Found a std. dev. of: "+stdDeviationLogM);
-
-
-        //now let's define a filter based on logM
-        int greaterThanMeanLogM = 0;
-        int lessThanMeanLogM = 0;
-        for (int iterCount = 0; iterCount < logM.size(); iterCount++) {
-          if ((((Double) logM.get(iterCount)).doubleValue()) > meanLogM) {
-            greaterThanMeanLogM++;
-          } else {
-            lessThanMeanLogM++;
-          }
-        }
-        boolean leftSideHeavy = false;
-        boolean rightSideHeavy = false;
-        boolean balanced = false;
-        if (Math.pow((lessThanMeanLogM - greaterThanMeanLogM), 2) > (lessThanMeanLogM + greaterThanMeanLogM)) {
-          if (lessThanMeanLogM > greaterThanMeanLogM) {
-            leftSideHeavy = true;
-          } else {
-            rightSideHeavy = true;
-          }
-        } else {
-          balanced = true;
-        }
-
-        //Groth's way
-        //if(mF>mT) {multiple=1;}
-        //else if((0.1*mT)>mF) {multiple=3;}
-        //else{multiple=2;}
-
-        // softer logM filter:
-        //if(mF>2.*mT) {multiple=1;}
-        //else if((0.5*mT)>mF) {multiple=3;}
-        //else{multiple=2;}
-
-        // softer still:
-        if (nMINUS > nPLUS) {
-          multiple = 1;
-        } else if ((0.5 * mT) > mF) {
-          multiple = 3;
-        } else {
-          multiple = 2;
-        }
-
-
-        //now discard nonmatches
-        int logMremovals = 0;
-        int leftsideRemovals = 0, rightsideRemovals = 0;
-        for (int iter6 = 0; iter6 < logM.size(); iter6++) {
-
-          if (Math.abs(((Double) logM.get(iter6)).doubleValue() - meanLogM) > (multiple * stdDeviationLogM)) {
-            if (leftSideHeavy && (((Double) logM.get(iter6)).doubleValue() < meanLogM)) {
-              leftsideRemovals++;
-            } else if (rightSideHeavy && (((Double) logM.get(iter6)).doubleValue() > meanLogM)) {
-              rightsideRemovals++;
-            } else if (leftSideHeavy && (((Double) logM.get(iter6)).doubleValue() > meanLogM)) {
-              rightsideRemovals++;
-            } else if (rightSideHeavy && (((Double) logM.get(iter6)).doubleValue() < meanLogM)) {
-              leftsideRemovals++;
-            }
-            logM.remove(iter6);
-            VmatchesA.remove(iter6);
-            VmatchesB.remove(iter6);
-            bestSums.remove(iter6);
-            haveMadeChange = true;
-            iter6--;
-            logMremovals++;
-          }
-        }
-        //System.out.print("     left heavy? "+leftSideHeavy+"   ");
-        //System.out.print("     right heavy? "+rightSideHeavy+"   ");
-        //System.out.println("     Balanced? "+balanced+"   ");
-        //System.out.println("     Removed "+logMremovals+" triangles on logM filter pass "+numIterations+" with a filter/multiple value of "+multiple);
-        //System.out.println("          leftsideRemovals="+leftsideRemovals+"     rightsideRemovals="+rightsideRemovals);
-        //System.out.println("          N+ is "+nPLUS+" and N- is "+nMINUS);
-
-        if (!haveMadeChange) {
-          stillIterate = false;
-        }
-        nPLUS = 0;
-        nMINUS = 0;
-        int iterLimit = VmatchesA.size();
-        for (int iter7 = 0; iter7 < iterLimit; iter7++) {
-          if (((SpotTriangle) VmatchesA.get(iter7)).clockwise == ((SpotTriangle) VmatchesB.get(iter7)).clockwise) {
-            nPLUS++;
-          } else {
-            nMINUS++;
-          }
-        }
-        mT = Math.abs(nPLUS - (nMINUS));
-        mF = nPLUS + nMINUS - mT;
-
-        oldStdDeviationLogM = stdDeviationLogM;
-        //System.out.println("          Going into the next round with mT, mF: "+mT+","+mF);
-      }
-
-
-      for (int iter8 = 0; iter8 < VmatchesA.size(); iter8++) {
-        if (((SpotTriangle) VmatchesA.get(iter8)).clockwise != ((SpotTriangle) VmatchesB.get(iter8)).clockwise) {
-          logM.remove(iter8);
-          VmatchesA.remove(iter8);
-          VmatchesB.remove(iter8);
-          bestSums.remove(iter8);
-          iter8--;
-        }
-
-      }
-
-
-      //System.out.println("Going into scoring with "+VmatchesA.size()+" matching triangles.");
-      if (VmatchesA.size() == 0) {
-        return scores;
-      }
-      MatchedPoints mp = new MatchedPoints();
-      int vMatchL = VmatchesA.size();
-      for (int iter10 = 0; iter10 < vMatchL; iter10++) {
-        for (int iter11 = 0; iter11 < 3; iter11++) {
-          Spot spotA = ((SpotTriangle) VmatchesA.get(iter10)).getVertex(iter11 + 1);
-          Spot spotB = ((SpotTriangle) VmatchesB.get(iter10)).getVertex(iter11 + 1);
-          //for(int iter12=iter11+1; iter12<VmatchesA.size(); iter12++) {
-          int tempPlace = mp.hasMatchedPair(spotA, spotB);
-          if (tempPlace != -1) {
-            ((VertexPointMatch) mp.get(tempPlace)).points++;
-
-          } else {
-            mp.add(new VertexPointMatch(spotA, spotB, 1));
-          }
-          //	}
-        }
-
-      }
+  public MatchObject getPointsForBestMatch(SuperSpot[] newspotsTemp, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, boolean secondRun, boolean rightScan) {
+    double[] newX = new double[newspotsTemp.length];
+    double[] newY = new double[newspotsTemp.length];
+    for (int i = 0; i < newspotsTemp.length; i++) {
+      newX[i] = newspotsTemp[i].getTheSpot().getCentroidX();
+      newY[i] = newspotsTemp[i].getTheSpot().getCentroidY();
+    }
+    return getPointsForBestMatch(newX, newY, epsilon, R, Sizelim, maxTriangleRotation, C, secondRun, rightScan);
+  }
 
-      scores = (VertexPointMatch[]) (mp.toArray(scores));
-      Arrays.sort(scores, new ScoreComparator());
-      ArrayList secondRunSpots = new ArrayList();
-      int scoresSize = scores.length;
-      secondRunSpots.add(scores[0]);
-      int iter20 = 1;
-      boolean keepOnCounting = true;
-      boolean hasNotBeenSeenYet = true;
-
-      //old way
-      /*ArrayList countedSpots=new ArrayList();
-   countedSpots.add(new spot(0, scores[0].newX, scores[0].newY));
-   while(keepOnCounting&&(iter20<scoresSize)){
-
-
-
-       for(int iter30=0;iter30<countedSpots.size();iter30++){
-           spot tempSpot=(spot)countedSpots.get(iter30);
-           if((scores[iter20].newX==tempSpot.getCentroidX())&&(scores[iter20].newY==tempSpot.getCentroidY())){hasNotBeenSeenYet=false;}
-       }
-
-       if((scores[iter20].points>(scores[(iter20-1)].points/2))&&(scores[iter20].points>1)&&(hasNotBeenSeenYet)){
-           secondRunSpots.add(scores[iter20]);
-           countedSpots.add(new spot(0, scores[iter20].newX, scores[iter20].newY));
-           }
-       else{keepOnCounting=false;}
-       iter20++;
-      }*/
-
-      //Zaven's correction
-      ArrayList countedSpotsA = new ArrayList();
-      ArrayList countedSpotsB = new ArrayList();
-      countedSpotsA.add(new Spot(0, scores[0].newX, scores[0].newY));
-      countedSpotsB.add(new Spot(0, scores[0].oldX, scores[0].oldY));
-      while (keepOnCounting && (iter20 < scoresSize)) {
-
-        for (int iter30 = 0; iter30 < countedSpotsA.size(); iter30++) {
-          Spot tempSpot = (Spot) countedSpotsA.get(iter30);
-          if ((scores[iter20].newX == tempSpot.getCentroidX()) && (scores[iter20].newY == tempSpot.getCentroidY())) {
-            hasNotBeenSeenYet = false;
-          }
-          tempSpot = (Spot) countedSpotsB.get(iter30);
-          if ((scores[iter20].oldX == tempSpot.getCentroidX()) && (scores[iter20].oldY == tempSpot.getCentroidY())) {
-            hasNotBeenSeenYet = false;
-          }
-        }
-
-        if ((scores[iter20].points > (scores[(iter20 - 1)].points / 2)) && (scores[iter20].points > 1) && (hasNotBeenSeenYet)) {
-          secondRunSpots.add(scores[iter20]);
-          countedSpotsA.add(new Spot(0, scores[iter20].newX, scores[iter20].newY));
-          countedSpotsB.add(new Spot(0, scores[iter20].oldX, scores[iter20].oldY));
-        } else {
-          keepOnCounting = false;
-        }
-        iter20++;
-      }
+  /**
+   * Compares the given spot coordinates against this encounter's left (or right) spots with the modified Groth algorithm.
+   * This is the primitive, allocation-free path used by ScanWorkItem; see {@link GrothMatcher}.
+   */
+  public MatchObject getPointsForBestMatch(double[] newX, double[] newY, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, boolean secondRun, boolean rightScan) {
+    double[] catalogX = spotsX;
+    double[] catalogY = spotsY;
+    if (rightScan) {
+      catalogX = rightSpotsX;
+      catalogY = rightSpotsY;
+    }
+    return GrothMatcher.getInstance().match(newX, newY, catalogX, catalogY, epsilon, R, Sizelim, maxTriangleRotation, C, belongsToMarkedIndividual, encounterNumber, sex, getDate(), size);
+  }
 
-      VertexPointMatch[] scoredSpots = new VertexPointMatch[0];
-      scoredSpots = (VertexPointMatch[]) (secondRunSpots.toArray(scoredSpots));
-      return scoredSpots;
-    } catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("0 points awarded due to exception in secondGrothPass.");
-      return scores;
-    }
+  /**
+   * Compares another encounter's spots against this encounter's left (or right) spots, reusing the
+   * triangle sets of both encounters from the {@link TriangleSetCache}.
+   */
+  public MatchObject getPointsForBestMatch(EncounterLite newEnc, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, boolean secondRun, boolean rightScan) {
+    double[] newX = newEnc.getSpotsX();
+    double[] newY = newEnc.getSpotsY();
+    double[] catalogX = spotsX;
+    double[] catalogY = spotsY;
+    if (rightScan) {
+      newX = newEnc.getRightSpotsX();
+      newY = newEnc.getRightSpotsY();
+      catalogX = rightSpotsX;
+      catalogY = rightSpotsY;
+    }
+    return GrothMatcher.getInstance().matchCached(newEnc.getEncounterNumber(), newX, newY, catalogX, catalogY, rightScan, epsilon, R, Sizelim, maxTriangleRotation, C, belongsToMarkedIndividual, encounterNumber, sex, getDate(), size);
   }
 
   /**
@@ -1614,6 +607,8 @@ public class EncounterLite implements java.io.Serializable {
 
 
   public void processLeftSpots(ArrayList<org.ecocean.SuperSpot> initSpots) {
+    wireKey = null;
+    leftDescriptor = null;
     int length = initSpots.size();
     spotsX = new double[length];
     spotsY = new double[length];
@@ -1624,6 +619,8 @@ public class EncounterLite implements java.io.Serializable {
   }
 
   public void processLeftReferenceSpots(ArrayList<org.ecocean.SuperSpot> initSpots) {
+    wireKey = null;
+    leftDescriptor = null;
     int length = initSpots.size();
     leftReferenceSpotsX = new double[length];
     leftReferenceSpotsY = new double[length];
@@ -1634,6 +631,8 @@ public class EncounterLite implements java.io.Serializable {
   }
 
   public void processRightSpots(ArrayList<org.ecocean.SuperSpot> initSpots) {
+    wireKey = null;
+    rightDescriptor = null;
     int length = initSpots.size();
     rightSpotsX = new double[length];
     rightSpotsY = new double[length];
@@ -1644,6 +643,8 @@ public class EncounterLite implements java.io.Serializable {
   }
 
   public void processRightReferenceSpots(ArrayList<org.ecocean.SuperSpot> initSpots) {
+    wireKey = null;
+    rightDescriptor = null;
     int length = initSpots.size();
     rightReferenceSpotsX = new double[length];
     rightReferenceSpotsY = new double[length];
@@ -0,0 +1,62 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Content-addressed, least recently used cache of EncounterLites keyed by their GridWireFormat key
+ * (encounter number plus a hash of the encounter's content). Because the key changes whenever the
+ * content does, a cached entry never needs to be invalidated: an edited encounter simply gets a new key
+ * and the old entry ages out.
+ * <p/>
+ * Grid nodes keep the catalog encounters they have received in one of these so that the server only
+ * has to send keys for them. The server keeps the encounters it has sent by key in another, so that it can
+ * answer a node's request for the ones it is missing. This class is not thread safe; wrap it with
+ * Collections.synchronizedMap if it is shared.
+ */
+public class EncounterLiteCache extends LinkedHashMap<String, EncounterLite> {
+
+  static final long serialVersionUID = -3360771915452210838L;
+
+  public static final int DEFAULT_MAX_ENTRIES = 20000;
+
+  private int maxEntries;
+
+  public EncounterLiteCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  public EncounterLiteCache(int maxEntries) {
+    super(16, 0.75f, true);
+    this.maxEntries = maxEntries;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  protected boolean removeEldestEntry(Map.Entry<String, EncounterLite> eldest) {
+    return size() > maxEntries;
+  }
+
+}
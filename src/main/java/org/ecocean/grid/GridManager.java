@@ -28,11 +28,13 @@ import org.ecocean.Shepherd;
 
 import java.util.concurrent.ConcurrentHashMap;
 
+import java.util.Collections;
+import java.util.Map;
+
 import javax.servlet.http.HttpServletRequest;
 
 //import java.io.File;
 import java.util.ArrayList;
-import java.util.Enumeration;
 
 //import org.apache.commons.math.stat.descriptive.SummaryStatistics;
 
@@ -67,22 +69,30 @@ public class GridManager {
   private String maxTriangleRotation = "10";
   private String C = "0.99";
   private String secondRun = "true";
+
+  //ScanWorkItem pre-filter bound, see SpotPatternDescriptor; empty to compare every pair. Off until a bound
+  //has been checked against the catalog's own resightings, since pruned pairs are missing from the scan results
+  private String prefilterBound = "";
   
   private static ConcurrentHashMap<String,EncounterLite> matchGraph=new ConcurrentHashMap<String, EncounterLite>();
+
+  //match graph entries with spots on a side, partitioned by side and taxonomy so that a scan only enumerates the patterns it can be compared with
+  private static final ConcurrentHashMap<String,ConcurrentHashMap<String,EncounterLite>> matchGraphPartitions=new ConcurrentHashMap<String, ConcurrentHashMap<String,EncounterLite>>();
+
+  //catalog encounters sent to nodes by key only, so that nodes can fetch the ones they are missing
+  private static Map<String,EncounterLite> sentEncounters=Collections.synchronizedMap(new EncounterLiteCache(100000));
   private static int numRightPatterns=0;
   private static int numLeftPatterns=0;
+
+  //one-to-many I3S catalogs of the match graph, dropped whenever the graph changes
+  private static I3SCatalog leftI3SCatalog=null;
+  private static I3SCatalog rightI3SCatalog=null;
   
   private static boolean creationThread=false;
 
 
-  //hold incompleted scanWorkItems
-  private ArrayList<ScanWorkItem> toDo = new ArrayList<ScanWorkItem>();
-
-  //hold completed scanWorkItems
-  private ArrayList<ScanWorkItemResult> done = new ArrayList<ScanWorkItemResult>();
-
-  //in-process scan work items that have been checked out and sent to a node
-  private ArrayList<ScanWorkItem> underway = new ArrayList<ScanWorkItem>();
+  //incompleted (toDo), checked out (underway) and completed (done) scanWorkItems, kept in per-task queues
+  private WorkItemStore workItems = new WorkItemStore();
 
   
   public GridManager() {
@@ -400,290 +410,188 @@ public class GridManager {
     return secondRun;
   }
 
+  public String getPrefilterBound() {
+    return prefilterBound;
+  }
 
-  public ArrayList<ScanWorkItem> getIncompleteWork() {
-    return toDo;
+  /**
+   * Sets the descriptor distance, between 0 and 1, above which new ScanWorkItems skip a pair without
+   * comparing it. An empty value turns the pre-filter off.
+   */
+  public void setPrefilterBound(String bound) {
+    if ((bound == null) || bound.trim().equals("")) {
+      prefilterBound = "";
+      return;
+    }
+    prefilterBound = Double.toString(Double.parseDouble(bound.trim()));
   }
 
-  public ArrayList<ScanWorkItemResult> getCompletedWork() {
-    return done;
+
+  public ArrayList<ScanWorkItem> getIncompleteWork() {
+    return workItems.getAllToDo();
   }
 
   public void removeAllCompletedWorkItems() {
-    done = new ArrayList<ScanWorkItemResult>();
+    workItems.clearResults();
   }
 
   public void removeAllWorkItems() {
-    toDo = new ArrayList<ScanWorkItem>();
-    underway = new ArrayList<ScanWorkItem>();
+    workItems.clearWork();
     //numScanWorkItems=0;
   }
 
-  public synchronized void addWorkItem(ScanWorkItem swi) {
-    toDo.add(swi);
+  public void addWorkItem(ScanWorkItem swi) {
+    workItems.add(swi);
     //numScanWorkItems++;
   }
 
-  public synchronized ArrayList<ScanWorkItem> getWorkItems(int num) {
-    ArrayList<ScanWorkItem> returnItems = new ArrayList<ScanWorkItem>();
-    int iterNum=num; 
-    if(iterNum>toDo.size())iterNum=toDo.size();
-    //int toDoSize= toDo.size();
-    //boolean cont = true;
+  public ArrayList<ScanWorkItem> getWorkItems(int num) {
+    return getWorkItems(num, null);
+  }
+
+  /**
+   * Checks out up to num work items for a node. If there is no queued work, the node is given straggling
+   * underway work items instead, if it is faster than the nodes holding them, see WorkItemStore.reissue.
+   * nd may be null, in which case only work items out longer than checkoutTimeout are re-issued.
+   */
+  public ArrayList<ScanWorkItem> getWorkItems(int num, GridNode nd) {
     long time=System.currentTimeMillis();
-    for (int i = 0; i < iterNum; i++) {
-      //if (cont) {
-        ScanWorkItem item = toDo.get(i);
-        //if ((!item.isCheckedOut(checkoutTimeout)) && (!item.isDone())) {
-          item.setStartTime(time);
-          returnItems.add(item);
-          //if (returnItems.size() >= num) {
-          //  cont = false;
-         // }
-        //}
-     // }
+    String nodeID = null;
+    double nodeRate = 0;
+    if (nd != null) {
+      nodeID = nd.getNodeIdentifier();
+      nodeRate = nd.getItemsPerSecond();
     }
+    ArrayList<ScanWorkItem> returnItems = workItems.checkout(num, time, nodeID, nodeRate, checkoutTimeout);
     if (returnItems.size() > 0) {
-      toDo.removeAll(returnItems);
-      numScanTasks=numScanTasks-returnItems.size();
-      underway.addAll(returnItems);
+      synchronized(this){
+        numScanTasks=numScanTasks-returnItems.size();
+      }
       return returnItems;
     } 
     
-    //if toDO doesn't have any work, start popping stuff off underway to help finish up
-    else {
-      iterNum=underway.size();
-      if (iterNum>maxGroupSize)iterNum=maxGroupSize;
-      for (int i = 0; i < iterNum; i++) {
-        //if (cont) {
-          ScanWorkItem item = underway.get(i);
-          if (!item.isDone()) {
-            //item.setStartTime(System.currentTimeMillis());
-            returnItems.add(item);
-            //if (returnItems.size() >= num) {
-            //  cont = false;
-            //}
-          }
-        //}
-      }
-    }
-    return returnItems;
+    //if toDO doesn't have any work, re-issue the stragglers to help finish up
+    return workItems.reissue(num, time, nodeID, nodeRate, checkoutTimeout);
   }
 
   public void removeWorkItem(String uniqueNumberWorkItem) {
-    int iter = underway.size();
-    for (int i = 0; i < iter; i++) {
-      if (underway.get(i).getUniqueNumber().equals(uniqueNumberWorkItem)) {
-        underway.remove(i);
-        //numScanWorkItems--;
-        i--;
-        iter--;
-      }
-    }
+    workItems.removeUnderway(uniqueNumberWorkItem);
   }
 
-  public synchronized void removeWorkItemsForTask(String taskID) {
-    for (int i = 0; i < underway.size(); i++) {
-      if (underway.get(i).getTaskIdentifier().equals(taskID)) {
-        underway.remove(i);
-        //numScanWorkItems--;
-        i--;
-      }
-    }
-    for (int i = 0; i < toDo.size(); i++) {
-      if (toDo.get(i).getTaskIdentifier().equals(taskID)) {
-        toDo.remove(i);
-        //numScanWorkItems--;
-        i--;
-      }
-    }
+  public void removeWorkItemsForTask(String taskID) {
+    workItems.removeTask(taskID);
   }
 
   public void removeCompletedWorkItemsForTask(String taskID) {
-    //int iter=done.size();
     try{
-      for (int i = 0; i < done.size(); i++) {
-        if ((done.get(i)!=null)&&(done.get(i).getUniqueNumberTask().equals(taskID))) {
-          done.remove(i);
-          i--;
-          //iter--;
-        }
-      }
+      workItems.removeResultsForTask(taskID);
     }
     catch(Exception e){e.printStackTrace();}
   }
 
-  public synchronized void checkinResult(ScanWorkItemResult swir) {
+  public void checkinResult(ScanWorkItemResult swir) {
     try{
     
       //System.out.println("GM checking in a scan result!");
   
-      if (!doneContains(swir)) {
-        done.add(swir);
-        numCompletedWorkItems++;
+      if (workItems.addResult(swir)) {
+        synchronized(this){
+          numCompletedWorkItems++;
+        }
+        ScanTaskCheckpoint.record(swir);
       } 
       else {
-        numCollisions++;
+        reportCollision();
       }
-      //if(!done.contains(swir)){done.add(swir);}
   
-      //if ((!swir.getUniqueNumberTask().equals("TuningTask")) && (!swir.getUniqueNumberTask().equals("FalseMatchTask"))) {
-        removeWorkItem(swir.getUniqueNumberWorkItem());
-      //} 
-     // else {
-     //   ScanWorkItem swi = getWorkItem(swir.getUniqueNumberWorkItem());
-     //   swi.setDone(true);
-     // }
+      removeWorkItem(swir.getUniqueNumberWorkItem());
     }
     catch(Exception e){e.printStackTrace();}
   }
 
+  /**
+   * Puts back the results of a task recorded in its ScanTaskCheckpoint, keyed by work item unique number.
+   */
+  public void restoreResults(String taskID, Map<String, MatchObject> results) {
+    for (Map.Entry<String, MatchObject> entry : results.entrySet()) {
+      workItems.addResult(new ScanWorkItemResult(taskID, entry.getKey(), entry.getValue()));
+    }
+  }
+
   public boolean doneContains(ScanWorkItemResult swir) {
-    boolean hasit = false;
     try{
-      int iter = done.size();
-      for (int i = 0; i < iter; i++) {
-        if ((done.get(i)!=null)&&(done.get(i).getUniqueNumberWorkItem().equals(swir.getUniqueNumberWorkItem()))) {
-          hasit = true;
-        }
-      }
-      }
+      return workItems.containsResult(swir.getUniqueNumberWorkItem());
+    }
     catch(Exception e){}
-    return hasit;
+    return false;
   }
 
   public boolean toDoContains(ScanWorkItem swi) {
-    boolean hasit = false;
-    int iter = toDo.size();
-    for (int i = 0; i < iter; i++) {
-      if (toDo.get(i).getUniqueNumber().equals(swi.getUniqueNumber())) {
-        hasit = true;
-      }
-    }
-    return hasit;
+    return workItems.containsToDo(swi.getUniqueNumber());
   }
 
   public int getNumWorkItemsCompleteForTask(String taskID) {
-    int num = 0;
-    try{
-      if(done==null){done = new ArrayList<ScanWorkItemResult>();}
-      int iter = done.size();
-      for (int i = 0; i < iter; i++) {
-        if ((done.get(i)!=null)&&(done.get(i).getUniqueNumberTask().equals(taskID))) {
-          num++;
-        }
-      }
-      }
-    catch(Exception e){}
-    return num;
+    return workItems.getNumComplete(taskID);
+  }
+
+  /**
+   * Returns the number of times work items of a task were re-issued to a second node.
+   */
+  public int getNumWorkItemsReissuedForTask(String taskID) {
+    return workItems.getNumReissued(taskID);
+  }
+
+  /**
+   * Returns the number of results of a task that were discarded because another node checked in the same work
+   * item first, i.e. the work wasted by re-issuing.
+   */
+  public int getNumDuplicateResultsForTask(String taskID) {
+    return workItems.getNumDuplicates(taskID);
   }
 
   public int getNumWorkItemsIncompleteForTask(String taskID) {
-    int num = 0;
-    try{
+    int num = workItems.getNumIncomplete(taskID);
       
-      if(toDo==null){toDo = new ArrayList<ScanWorkItem>();}
-    	//int iter = numScanWorkItems;
-    	for (int i = 0; i < toDo.size(); i++) {
-      		if ((toDo.get(i)!=null)&&(toDo.get(i).getTaskIdentifier().equals(taskID))) {
-      		  	num++;
-      		}
-    	}
-    	
-      if(underway==null){underway = new ArrayList<ScanWorkItem>();}
-      int iter = underway.size();
-      for (int i = 0; i < iter; i++) {
-          if ((underway.get(i)!=null)&&(underway.get(i).getTaskIdentifier().equals(taskID))) {
-              num++;
-          }
-      }
-    	
-    	
-    	
-	}
-	catch(Exception e){e.printStackTrace();}
+    //work items running in this JVM
+    num+=LocalScanExecutor.getNumPending(taskID);
     return num;
   }
 
   public ArrayList<ScanWorkItem> getRemainingWorkItemsForTask(String taskID) {
-    ArrayList<ScanWorkItem> list = new ArrayList<ScanWorkItem>();
-    if(toDo==null){toDo = new ArrayList<ScanWorkItem>();}
-    for (int i = 0; i < toDo.size(); i++) {
-      if (toDo.get(i).getTaskIdentifier().equals(taskID)) {
-        list.add(toDo.get(i));
-      }
-    }
-    if(underway==null){underway = new ArrayList<ScanWorkItem>();}
-    for (int i = 0; i < underway.size(); i++) {
-      if (underway.get(i).getTaskIdentifier().equals(taskID)) {
-        list.add(underway.get(i));
-      }
-    }
-    return list;
+    return workItems.getRemaining(taskID);
   }
 
 
+  /**
+   * Returns the best matches of a task, at most TopMatchAccumulator.DEFAULT_MAX_MATCHES under each of the
+   * Groth and I3S rankings. Only these are kept as results are checked in.
+   */
   public ArrayList<MatchObject> getMatchObjectsForTask(String taskID) {
-    ArrayList<MatchObject> list = new ArrayList<MatchObject>();
-    int iter = done.size();
-    for (int i = 0; i < iter; i++) {
-      try{
-        if ((done.get(i)!=null)&&(done.get(i).getUniqueNumberTask().equals(taskID))) {
-          list.add(done.get(i).getResult());
-        }
-      }
-      catch(Exception e) {
-        //do nothing for now
-      }
-    }
-    return list;
-  }
-
-  public ArrayList<ScanWorkItemResult> getResultsForTask(String taskID) {
-    ArrayList<ScanWorkItemResult> list = new ArrayList<ScanWorkItemResult>();
-    int iter = done.size();
-    for (int i = 0; i < iter; i++) {
-      if (done.get(i).getUniqueNumberTask().equals(taskID)) {
-        list.add(done.get(i));
-      }
-    }
-    return list;
+    return workItems.getMatches(taskID);
   }
 
   public int getNumWorkItemsAndResults() {
-    int returnMe=0;
-    if(toDo!=null)returnMe+=toDo.size();
-    if(done!=null)returnMe+=done.size();
-    if(underway!=null)returnMe+=underway.size();
-    return returnMe;
+    return workItems.getToDoSize() + workItems.getDoneSize() + workItems.getUnderwaySize();
   }
 
   public int getToDoSize() {
-    return toDo.size();
+    return workItems.getToDoSize();
   }
 
   public int getDoneSize() {
-    return done.size();
+    return workItems.getDoneSize();
   }
   
   public int getUnderwaySize() {
-    return underway.size();
+    return workItems.getUnderwaySize();
   }
 
   public ScanWorkItem getWorkItem(String uniqueNum) {
-    int iter = toDo.size();
-    ScanWorkItem swi = new ScanWorkItem();
-    for (int i = 0; i < iter; i++) {
-      if (toDo.get(i).getUniqueNumber().equals(uniqueNum)) {
-        return toDo.get(i);
-      }
-    }
-    for (int i = 0; i < underway.size(); i++) {
-      if (underway.get(i).getUniqueNumber().equals(uniqueNum)) {
-        return underway.get(i);
-      }
+    ScanWorkItem swi = workItems.get(uniqueNum);
+    if (swi != null) {
+      return swi;
     }
-    return swi;
+    return new ScanWorkItem();
   }
 
   public int getNumProcessors() {
@@ -728,42 +636,166 @@ public class GridManager {
   
   public static ConcurrentHashMap<String,EncounterLite> getMatchGraph(){return matchGraph;}
   public static void addMatchGraphEntry(String elID,EncounterLite el){
-    matchGraph.put(elID, el);
+    synchronized(matchGraphPartitions){
+      EncounterLite old=matchGraph.put(elID, el);
+      if(old!=null){removeFromPartitions(elID, old);}
+      addToPartitions(elID, el);
+    }
+    TriangleSetCache.invalidate(elID);
+    MatchGraphSnapshot.recordPut(elID, el);
     resetPatternCounts();
   }
+
+  /*
+   * Adds many entries at once, recounting the patterns only once. Entries already in the graph are kept, as they were added while the graph was loading and are newer.
+   */
+  public static void addMatchGraphEntries(Map<String,EncounterLite> entries){
+    for(Map.Entry<String,EncounterLite> entry:entries.entrySet()){
+      boolean added=false;
+      synchronized(matchGraphPartitions){
+        if(matchGraph.putIfAbsent(entry.getKey(), entry.getValue())==null){
+          addToPartitions(entry.getKey(), entry.getValue());
+          added=true;
+        }
+      }
+      if(added){
+        TriangleSetCache.invalidate(entry.getKey());
+        MatchGraphSnapshot.recordPut(entry.getKey(), entry.getValue());
+      }
+    }
+    resetPatternCounts();
+  }
+
   public static void removeMatchGraphEntry(String elID){
-    if(matchGraph.containsKey(elID)){
-      matchGraph.remove(elID);
+    synchronized(matchGraphPartitions){
+      EncounterLite old=matchGraph.remove(elID);
+      if(old!=null){removeFromPartitions(elID, old);}
     }
+    TriangleSetCache.invalidate(elID);
+    MatchGraphSnapshot.recordRemove(elID);
     resetPatternCounts();
    }
+
+  public static Map<String,EncounterLite> getSentEncounters(){return sentEncounters;}
+
+  /**
+   * Returns the encounter with the given GridWireFormat key, or null if this server no longer has an
+   * encounter with exactly that content.
+   */
+  public static EncounterLite getEncounterLiteByKey(String key){
+    EncounterLite el=sentEncounters.get(key);
+    if(el==null){
+      el=matchGraph.get(GridWireFormat.getEncounterNumber(key));
+      try{
+        if((el!=null)&&(!key.equals(GridWireFormat.getEncounterKey(el)))){el=null;}
+      }
+      catch(java.io.IOException ioe){
+        el=null;
+      }
+    }
+    return el;
+  }
+
   public static EncounterLite getMatchGraphEncounterLiteEntry(String elID){
     return matchGraph.get(elID);
   }
+
+  /**
+   * Returns the match graph partitions holding the patterns on one side, each mapping encounter numbers to entries.
+   * If taxonomy is null all partitions of the side are returned, otherwise only the one of that taxonomy
+   * ("" for encounters without one), if there is any.
+   */
+  public static ArrayList<Map<String,EncounterLite>> getMatchGraphPartitions(boolean rightSide, String taxonomy){
+    ArrayList<Map<String,EncounterLite>> partitions=new ArrayList<Map<String,EncounterLite>>();
+    if(taxonomy!=null){
+      ConcurrentHashMap<String,EncounterLite> partition=matchGraphPartitions.get(getPartitionKey(rightSide, taxonomy));
+      if(partition!=null){partitions.add(partition);}
+      return partitions;
+    }
+    String prefix=getPartitionKey(rightSide, "");
+    for(Map.Entry<String,ConcurrentHashMap<String,EncounterLite>> entry:matchGraphPartitions.entrySet()){
+      if(entry.getKey().startsWith(prefix)){partitions.add(entry.getValue());}
+    }
+    return partitions;
+  }
+
+  /**
+   * Returns the taxonomies in the match graph, "" standing for encounters without one.
+   */
+  public static ArrayList<String> getMatchGraphTaxonomies(){
+    ArrayList<String> taxonomies=new ArrayList<String>();
+    for(String key:matchGraphPartitions.keySet()){
+      String taxonomy=key.substring(key.indexOf('|')+1);
+      if(!taxonomies.contains(taxonomy)){taxonomies.add(taxonomy);}
+    }
+    Collections.sort(taxonomies);
+    return taxonomies;
+  }
+
+  private static String getPartitionKey(boolean rightSide, String taxonomy){
+    if(rightSide){return "right|"+taxonomy;}
+    return "left|"+taxonomy;
+  }
+
+  //called with the matchGraphPartitions lock held
+  private static void addToPartitions(String elID, EncounterLite el){
+    if((el.getSpotsX()!=null)&&(el.getSpotsX().length>0)){getPartition(false, el.getTaxonomy()).put(elID, el);}
+    if((el.getRightSpotsX()!=null)&&(el.getRightSpotsX().length>0)){getPartition(true, el.getTaxonomy()).put(elID, el);}
+  }
+
+  //called with the matchGraphPartitions lock held
+  private static void removeFromPartitions(String elID, EncounterLite el){
+    for(int side=0;side<2;side++){
+      String key=getPartitionKey((side==1), el.getTaxonomy());
+      ConcurrentHashMap<String,EncounterLite> partition=matchGraphPartitions.get(key);
+      if(partition!=null){
+        partition.remove(elID);
+        if(partition.isEmpty()){matchGraphPartitions.remove(key);}
+      }
+    }
+  }
+
+  private static ConcurrentHashMap<String,EncounterLite> getPartition(boolean rightSide, String taxonomy){
+    String key=getPartitionKey(rightSide, taxonomy);
+    ConcurrentHashMap<String,EncounterLite> partition=matchGraphPartitions.get(key);
+    if(partition==null){
+      partition=new ConcurrentHashMap<String, EncounterLite>();
+      matchGraphPartitions.put(key, partition);
+    }
+    return partition;
+  }
+  /**
+   * Returns an I3SCatalog of one side of the match graph, built on first use after the graph last changed.
+   */
+  public static synchronized I3SCatalog getI3SCatalog(boolean rightSide){
+    if(rightSide){
+      if(rightI3SCatalog==null){rightI3SCatalog=new I3SCatalog(matchGraph.values(), true);}
+      return rightI3SCatalog;
+    }
+    if(leftI3SCatalog==null){leftI3SCatalog=new I3SCatalog(matchGraph.values(), false);}
+    return leftI3SCatalog;
+  }
+
   public static synchronized int getNumRightPatterns(){return numRightPatterns;}
   public static synchronized int getNumLeftPatterns(){return numLeftPatterns;}
   
   /*
    * Convenience method to speed ScanWorkItemCreationThread by always maintaining and recalculating accurate counts of potential patterns to compare against.
+   * The counts are the sizes of the match graph partitions of each side.
    */
   private static synchronized void resetPatternCounts(){
+    leftI3SCatalog=null;
+    rightI3SCatalog=null;
     numLeftPatterns=0;
     numRightPatterns=0;
-    Enumeration<String> keys=getMatchGraph().keys();
-    while(keys.hasMoreElements()){
-      String key=keys.nextElement();
-      EncounterLite el=getMatchGraphEncounterLiteEntry(key);
-      if((el.getSpots()!=null)&&(el.getSpots().size()>0)){numLeftPatterns++;}
-      if((el.getRightSpots()!=null)&&(el.getRightSpots().size()>0)){numRightPatterns++;}
-    }
-    
+    for(Map<String,EncounterLite> partition:getMatchGraphPartitions(false, null)){numLeftPatterns+=partition.size();}
+    for(Map<String,EncounterLite> partition:getMatchGraphPartitions(true, null)){numRightPatterns+=partition.size();}
   }
   
-  public void clearDoneItems(){done = new ArrayList<ScanWorkItemResult>();}
+  public void clearDoneItems(){workItems.clearResults();}
     
   public int getNumUnderway(){
-    if(underway!=null)return underway.size();
-    return 0;
+    return workItems.getUnderwaySize();
   }
 
 }
@@ -39,6 +39,15 @@ public class GridNode {
   public int groupSize;
   //public boolean isZombie = false;
 
+  //measured throughput in work items per second, smoothed over recent groups; 0 until the first checkin
+  private double itemsPerSecond = 0;
+
+  //wall time a group of work items should take a node, so slow nodes get small groups and fast nodes large ones
+  public static final long TARGET_GROUP_MILLIS = 30000;
+
+  //weight of the newest group in the throughput average
+  private static final double THROUGHPUT_SMOOTHING = 0.3;
+
   //whether this node is dedicated to a single scanTask (true) or running as a generic node (false)
   public boolean targeted = false;
 
@@ -67,31 +76,51 @@ public class GridNode {
     return numComparisons;
   }
 
-  public void checkin(int num) {
+  public synchronized void checkin(int num) {
     //this.numSpots+=numSpots;
+    long now = System.currentTimeMillis();
     if (lastCheckin != 1) {
-      totalTimeSinceStart += (System.currentTimeMillis() - lastCheckin);
+      totalTimeSinceStart += (now - lastCheckin);
     } else {
-      totalTimeSinceStart += (System.currentTimeMillis() - lastCheckout);
+      totalTimeSinceStart += (now - lastCheckout);
     }
 
-    lastCheckin = System.currentTimeMillis();
+    //the group came back this long after it was handed out, including transfer time
+    if ((lastCheckout > 2) && (num > 0)) {
+      long elapsed = Math.max(now - lastCheckout, 1);
+      double sample = num * 1000.0 / elapsed;
+      if (itemsPerSecond == 0) {
+        itemsPerSecond = sample;
+      } else {
+        itemsPerSecond = (THROUGHPUT_SMOOTHING * sample) + ((1 - THROUGHPUT_SMOOTHING) * itemsPerSecond);
+      }
+    }
+
+    lastCheckin = now;
     numComparisons = numComparisons + num;
     hasMadeFirstCheckin = true;
-
-    if (num < groupSize) {
-      groupSize = num;
-      //if (num < 1) {
-      //  num = 1;
-      //}
-    }
   }
 
   public void registerHeartbeat() {
     lastHeartbeat = System.currentTimeMillis();
   }
 
-  public int getNextGroupSize(long checkoutTimeout, int maxGroupSize, int defaultGroupSize) {
+  /**
+   * Returns the number of work items to hand the node next: as many as it completes in TARGET_GROUP_MILLIS at
+   * its measured throughput, but never more than half of what it could complete before checkoutTimeout, more
+   * than twice its previous group or more than maxGroupSize. Until its first checkin a node gets defaultGroupSize.
+   */
+  public synchronized int getNextGroupSize(long checkoutTimeout, int maxGroupSize, int defaultGroupSize) {
+    if (itemsPerSecond > 0) {
+      long targetMillis = Math.min(TARGET_GROUP_MILLIS, checkoutTimeout / 2);
+      int size = (int) (itemsPerSecond * targetMillis / 1000);
+      if (groupSize > 0) {
+        size = Math.min(size, 2 * groupSize);
+      }
+      groupSize = Math.max(1, Math.min(size, maxGroupSize));
+      return groupSize;
+    }
+    return Math.max(1, Math.min(defaultGroupSize, maxGroupSize));
     /*
     if (lastCheckout != 2) {
       long timeDiff = lastCheckin - lastCheckout;
@@ -118,8 +147,6 @@ public class GridNode {
     else {
       return groupSize;
     }*/
-    return maxGroupSize;
-    
   }
 
   public long getLastCheckin() {
@@ -142,6 +169,10 @@ public class GridNode {
     groupSize = size;
   }
 
+  public double getItemsPerSecond() {
+    return itemsPerSecond;
+  }
+
   public String getDisplayCountry() {
     return locale.getDisplayCountry();
   }
@@ -0,0 +1,711 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import com.reijns.I3S.Pair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+
+/**
+ * Compact, versioned binary format used between ScanAppletSupport, ScanWorkItemResultsHandler and
+ * the grid nodes as an alternative to Java serialization of ScanWorkItem and ScanWorkItemResult Vectors.
+ * <p/>
+ * A message starts with a magic number, the format version and the message type. A group of work
+ * items carries a table of the encounters it uses followed by the work items, which refer to their
+ * new and catalog encounters by position in that table, so an encounter is sent at most once per
+ * group. Encounters are identified by a key made of their encounter number and a hash of their content;
+ * if the node reports that it already holds an encounter with the same key, only the key is sent.
+ * Spot coordinates are sent as floats whenever that loses no precision, otherwise as doubles.
+ * <p/>
+ * From version 2 the catalog encounters of a group are always sent by key only. The node looks them up
+ * in its {@link EncounterLiteCache} and fetches the ones it is missing in batches with
+ * {@link #writeEncounterKeys}/{@link #readEncounters}; encounters received in full are checked against
+ * their key before they are used.
+ * <p/>
+ * From version 3 work items carry the ScanWorkItem pre-filter bound. In every version, an encounter ends with
+ * its taxonomy and location ID, which readers that predate them ignore.
+ * <p/>
+ * Clients that do not ask for this format with the {@link #PARAMETER} request parameter keep
+ * receiving and sending serialized objects.
+ */
+public class GridWireFormat {
+
+  public static final int VERSION = 3;
+
+  //request parameter a node uses to ask for this format, set to the highest version it supports
+  public static final String PARAMETER = "wireFormat";
+
+  public static final String CONTENT_TYPE = "application/x-sharkgrid";
+
+  //"SGRD"
+  private static final int MAGIC = 0x53475244;
+
+  private static final byte TYPE_WORK_ITEMS = 1;
+  private static final byte TYPE_RESULTS = 2;
+  private static final byte TYPE_ENCOUNTER_KEYS = 3;
+  private static final byte TYPE_ENCOUNTERS = 4;
+
+  private static final byte ENCOUNTER_FULL = 0;
+  private static final byte ENCOUNTER_REFERENCE = 1;
+
+  private static final byte COORDS_NULL = 0;
+  private static final byte COORDS_FLOAT = 1;
+  private static final byte COORDS_DOUBLE = 2;
+
+  private GridWireFormat() {
+  }
+
+  /**
+   * Returns the format version to answer a request with, or 0 if the client did not ask for this format
+   * and must be answered with serialized objects.
+   */
+  public static int getRequestedVersion(String parameter) {
+    if (parameter == null) {
+      return 0;
+    }
+    try {
+      int requested = Integer.parseInt(parameter.trim());
+      if (requested <= 0) {
+        return 0;
+      }
+      return Math.min(requested, VERSION);
+    }
+    catch (NumberFormatException nfe) {
+      return 0;
+    }
+  }
+
+
+  /**
+   * Returns the content type of a response in the given version of this format.
+   */
+  public static String getContentType(int version) {
+    return CONTENT_TYPE + "; version=" + version;
+  }
+
+  /**
+   * Returns the version of this format a response with the given content type is in, or 0 if the response
+   * holds serialized objects.
+   */
+  public static int getResponseVersion(String contentType) {
+    if ((contentType == null) || !contentType.startsWith(CONTENT_TYPE)) {
+      return 0;
+    }
+    int versionStart = contentType.indexOf("version=");
+    if (versionStart == -1) {
+      return 1;
+    }
+    return getRequestedVersion(contentType.substring(versionStart + 8));
+  }
+
+
+  /**
+   * Returns the key identifying the content of an encounter: its encounter number and a hash of its spot data.
+   */
+  public static String getEncounterKey(EncounterLite el) throws IOException {
+    String key = el.getWireKey();
+    if (key == null) {
+      key = getEncounterKey(el.getEncounterNumber(), encodeEncounter(el));
+      el.setWireKey(key);
+    }
+    return key;
+  }
+
+  /**
+   * Returns the encounter number part of an encounter key.
+   */
+  public static String getEncounterNumber(String key) {
+    int separator = key.lastIndexOf('@');
+    if (separator == -1) {
+      return key;
+    }
+    return key.substring(0, separator);
+  }
+
+  private static String getEncounterKey(String encounterNumber, byte[] body) {
+    //64-bit FNV-1a
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < body.length; i++) {
+      hash ^= (body[i] & 0xff);
+      hash *= 0x100000001b3L;
+    }
+    return encounterNumber + "@" + Long.toHexString(hash);
+  }
+
+
+  /**
+   * Writes a group of work items. nodeEncounterKeys holds the keys of the encounters the node already has
+   * and may be null. From version 2, if sentEncounters is not null, every catalog encounter is sent by key
+   * only and put into sentEncounters so that the node can fetch it later.
+   */
+  public static void writeWorkItems(DataOutputStream out, int version, List<ScanWorkItem> items, Set<String> nodeEncounterKeys, Map<String, EncounterLite> sentEncounters) throws IOException {
+    writeHeader(out, version, TYPE_WORK_ITEMS);
+
+    //build the encounter table
+    IdentityHashMap<EncounterLite, Integer> positions = new IdentityHashMap<EncounterLite, Integer>();
+    IdentityHashMap<EncounterLite, Boolean> catalog = new IdentityHashMap<EncounterLite, Boolean>();
+    ArrayList<EncounterLite> table = new ArrayList<EncounterLite>();
+    int numItems = items.size();
+    for (int i = 0; i < numItems; i++) {
+      ScanWorkItem swi = items.get(i);
+      addToTable(swi.getNewEncounterLite(), positions, table);
+      addToTable(swi.getExistingEncounterLite(), positions, table);
+      if (swi.getExistingEncounterLite() != null) {
+        catalog.put(swi.getExistingEncounterLite(), Boolean.TRUE);
+      }
+    }
+    boolean catalogByKey = (version >= 2) && (sentEncounters != null);
+
+    int numEncounters = table.size();
+    out.writeInt(numEncounters);
+    for (int i = 0; i < numEncounters; i++) {
+      EncounterLite el = table.get(i);
+      String key = getEncounterKey(el);
+      if ((nodeEncounterKeys != null) && nodeEncounterKeys.contains(key)) {
+        out.writeByte(ENCOUNTER_REFERENCE);
+        out.writeUTF(key);
+      } else if (catalogByKey && catalog.containsKey(el)) {
+        sentEncounters.put(key, el);
+        out.writeByte(ENCOUNTER_REFERENCE);
+        out.writeUTF(key);
+      } else {
+        writeFullEncounter(out, key, el);
+      }
+    }
+
+    out.writeInt(numItems);
+    for (int i = 0; i < numItems; i++) {
+      ScanWorkItem swi = items.get(i);
+      writeString(out, swi.getUniqueNumber());
+      writeString(out, swi.getTaskIdentifier());
+      out.writeInt(getPosition(swi.getNewEncounterLite(), positions));
+      out.writeInt(getPosition(swi.getExistingEncounterLite(), positions));
+      boolean hasParameters = (swi.epsilon != null) && (swi.R != null) && (swi.Sizelim != null) && (swi.maxTriangleRotation != null) && (swi.C != null);
+      out.writeBoolean(hasParameters);
+      if (hasParameters) {
+        out.writeDouble(swi.epsilon.doubleValue());
+        out.writeDouble(swi.R.doubleValue());
+        out.writeDouble(swi.Sizelim.doubleValue());
+        out.writeDouble(swi.maxTriangleRotation.doubleValue());
+        out.writeDouble(swi.C.doubleValue());
+      }
+      if (version >= 3) {
+        out.writeBoolean(swi.prefilterBound != null);
+        if (swi.prefilterBound != null) {
+          out.writeDouble(swi.prefilterBound.doubleValue());
+        }
+      }
+      out.writeBoolean(swi.isSecondRun());
+      out.writeBoolean(swi.rightScan);
+      out.writeInt(swi.getNice());
+      out.writeInt(swi.getTotalWorkItemsInTask());
+      out.writeInt(swi.getWorkItemsCompleteInTask());
+    }
+    out.flush();
+  }
+
+  /**
+   * Returns the keys of the encounters a group of work items sends by key only that are not in heldEncounters.
+   */
+  public static List<String> getMissingEncounterKeys(DataInputStream in, Map<String, EncounterLite> heldEncounters) throws IOException {
+    readHeader(in, TYPE_WORK_ITEMS);
+    ArrayList<String> missing = new ArrayList<String>();
+    int numEncounters = in.readInt();
+    for (int i = 0; i < numEncounters; i++) {
+      byte kind = in.readByte();
+      String key = in.readUTF();
+      if (kind == ENCOUNTER_REFERENCE) {
+        if ((heldEncounters == null) || !heldEncounters.containsKey(key)) {
+          missing.add(key);
+        }
+      } else {
+        in.skipBytes(in.readInt());
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * Reads a group of work items. Encounters sent by key only are looked up in heldEncounters, which may be
+   * null if the node reported none; work items using an encounter that cannot be found are left out.
+   * Every encounter used by the group is put into receivedEncounters by key, if it is not null.
+   */
+  public static Vector<ScanWorkItem> readWorkItems(DataInputStream in, Map<String, EncounterLite> heldEncounters, Map<String, EncounterLite> receivedEncounters) throws IOException {
+    int version = readHeader(in, TYPE_WORK_ITEMS);
+
+    int numEncounters = in.readInt();
+    EncounterLite[] table = new EncounterLite[numEncounters];
+    for (int i = 0; i < numEncounters; i++) {
+      byte kind = in.readByte();
+      String key = in.readUTF();
+      if (kind == ENCOUNTER_REFERENCE) {
+        if (heldEncounters != null) {
+          table[i] = heldEncounters.get(key);
+        }
+      } else if (kind == ENCOUNTER_FULL) {
+        table[i] = readFullEncounter(in, key);
+      } else {
+        throw new IOException("Unknown encounter entry type: " + kind);
+      }
+      if ((receivedEncounters != null) && (table[i] != null)) {
+        receivedEncounters.put(key, table[i]);
+      }
+    }
+
+    int numItems = in.readInt();
+    Vector<ScanWorkItem> items = new Vector<ScanWorkItem>(numItems);
+    for (int i = 0; i < numItems; i++) {
+      String uniqueNum = readString(in);
+      String taskID = readString(in);
+      int newPosition = in.readInt();
+      int existingPosition = in.readInt();
+      EncounterLite newEnc = getEntry(table, newPosition);
+      EncounterLite existingEnc = getEntry(table, existingPosition);
+      boolean resolved = ((newPosition == -1) || (newEnc != null)) && ((existingPosition == -1) || (existingEnc != null));
+      ScanWorkItem swi;
+      if (in.readBoolean()) {
+        double epsilon = in.readDouble();
+        double R = in.readDouble();
+        double Sizelim = in.readDouble();
+        double maxTriangleRotation = in.readDouble();
+        double C = in.readDouble();
+        Double prefilterBound = null;
+        if ((version >= 3) && in.readBoolean()) {
+          prefilterBound = new Double(in.readDouble());
+        }
+        boolean secondRun = in.readBoolean();
+        boolean rightScan = in.readBoolean();
+        swi = new ScanWorkItem(newEnc, existingEnc, uniqueNum, taskID, epsilon, R, Sizelim, maxTriangleRotation, C, prefilterBound, secondRun, rightScan);
+      } else {
+        //a blank work item telling the node there is no work
+        swi = new ScanWorkItem();
+        if ((version >= 3) && in.readBoolean()) {
+          swi.prefilterBound = new Double(in.readDouble());
+        }
+        in.readBoolean();
+        swi.rightScan = in.readBoolean();
+      }
+      swi.setNice(in.readInt());
+      swi.setTotalWorkItemsInTask(in.readInt());
+      swi.setWorkItemsCompleteInTask(in.readInt());
+      if (resolved) {
+        items.add(swi);
+      }
+    }
+    return items;
+  }
+
+
+  /**
+   * Writes encounters in full, in answer to a node's request for the encounters it is missing.
+   */
+  public static void writeEncounters(DataOutputStream out, int version, List<EncounterLite> encounters) throws IOException {
+    writeHeader(out, version, TYPE_ENCOUNTERS);
+    int numEncounters = encounters.size();
+    out.writeInt(numEncounters);
+    for (int i = 0; i < numEncounters; i++) {
+      EncounterLite el = encounters.get(i);
+      writeFullEncounter(out, getEncounterKey(el), el);
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads encounters written by {@link #writeEncounters}, by key.
+   */
+  public static Map<String, EncounterLite> readEncounters(DataInputStream in) throws IOException {
+    readHeader(in, TYPE_ENCOUNTERS);
+    int numEncounters = in.readInt();
+    HashMap<String, EncounterLite> encounters = new HashMap<String, EncounterLite>();
+    for (int i = 0; i < numEncounters; i++) {
+      EncounterLite el = readEncounter(in);
+      encounters.put(el.getWireKey(), el);
+    }
+    return encounters;
+  }
+
+  /**
+   * Writes a single encounter in full, outside of a grid message (e.g. to the match graph snapshot).
+   */
+  static void writeEncounter(DataOutputStream out, EncounterLite el) throws IOException {
+    writeFullEncounter(out, getEncounterKey(el), el);
+  }
+
+  static EncounterLite readEncounter(DataInputStream in) throws IOException {
+    byte kind = in.readByte();
+    if (kind != ENCOUNTER_FULL) {
+      throw new IOException("Unexpected encounter entry type: " + kind);
+    }
+    String key = in.readUTF();
+    return readFullEncounter(in, key);
+  }
+
+
+  /**
+   * Writes the keys of the encounters a node holds, sent by the node along with its request for work.
+   */
+  public static void writeEncounterKeys(DataOutputStream out, int version, Collection<String> keys) throws IOException {
+    writeHeader(out, version, TYPE_ENCOUNTER_KEYS);
+    out.writeInt(keys.size());
+    for (String key : keys) {
+      out.writeUTF(key);
+    }
+    out.flush();
+  }
+
+  public static Set<String> readEncounterKeys(DataInputStream in) throws IOException {
+    readHeader(in, TYPE_ENCOUNTER_KEYS);
+    int numKeys = in.readInt();
+    HashSet<String> keys = new HashSet<String>();
+    for (int i = 0; i < numKeys; i++) {
+      keys.add(in.readUTF());
+    }
+    return keys;
+  }
+
+
+  /**
+   * Writes the results of a group of work items.
+   */
+  public static void writeResults(DataOutputStream out, int version, List<ScanWorkItemResult> results) throws IOException {
+    writeHeader(out, version, TYPE_RESULTS);
+    int numResults = results.size();
+    out.writeInt(numResults);
+    for (int i = 0; i < numResults; i++) {
+      ScanWorkItemResult swir = results.get(i);
+      writeString(out, swir.getUniqueNumberTask());
+      writeString(out, swir.getUniqueNumberWorkItem());
+      MatchObject mo = swir.getResult();
+      out.writeBoolean(mo != null);
+      if (mo != null) {
+        writeMatchObject(out, mo);
+      }
+    }
+    out.flush();
+  }
+
+  public static Vector<ScanWorkItemResult> readResults(DataInputStream in) throws IOException {
+    readHeader(in, TYPE_RESULTS);
+    int numResults = in.readInt();
+    Vector<ScanWorkItemResult> results = new Vector<ScanWorkItemResult>(numResults);
+    for (int i = 0; i < numResults; i++) {
+      String taskID = readString(in);
+      String wiID = readString(in);
+      MatchObject mo = null;
+      if (in.readBoolean()) {
+        mo = readMatchObject(in);
+      }
+      results.add(new ScanWorkItemResult(taskID, wiID, mo));
+    }
+    return results;
+  }
+
+
+  /**
+   * Writes a single match, outside of a grid message (e.g. to a ScanTaskCheckpoint).
+   */
+  static void writeMatchObject(DataOutputStream out, MatchObject mo) throws IOException {
+    writeString(out, mo.individualName);
+    writeString(out, mo.date);
+    writeString(out, mo.encounterNumber);
+    writeString(out, mo.pointBreakdown);
+    writeString(out, mo.newSex);
+    writeString(out, mo.catalogSex);
+    writeString(out, mo.wiUniqueNum);
+    writeString(out, mo.taskID);
+    out.writeDouble(mo.matchValue);
+    out.writeDouble(mo.adjustedMatchValue);
+    out.writeDouble(mo.size);
+    out.writeInt(mo.numTriangles);
+    writeDoubles(out, mo.logMbreakdown);
+
+    //Groth point matches
+    int numScores = (mo.scores == null) ? -1 : mo.scores.size();
+    out.writeInt(numScores);
+    for (int i = 0; i < numScores; i++) {
+      VertexPointMatch vpm = (VertexPointMatch) mo.scores.get(i);
+      out.writeDouble(vpm.newX);
+      out.writeDouble(vpm.newY);
+      out.writeDouble(vpm.oldX);
+      out.writeDouble(vpm.oldY);
+      out.writeInt(vpm.points);
+    }
+
+    //I3S point pairs
+    int numPoints = (mo.Points == null) ? -1 : mo.Points.size();
+    out.writeInt(numPoints);
+    for (int i = 0; i < numPoints; i++) {
+      Pair pair = (Pair) mo.Points.get(i);
+      out.writeInt(pair.m1);
+      out.writeInt(pair.m2);
+      out.writeDouble(pair.dist);
+    }
+    out.writeDouble(mo.i3sMatchValue);
+  }
+
+  static MatchObject readMatchObject(DataInputStream in) throws IOException {
+    MatchObject mo = new MatchObject();
+    mo.individualName = readString(in);
+    mo.date = readString(in);
+    mo.encounterNumber = readString(in);
+    mo.pointBreakdown = readString(in);
+    mo.newSex = readString(in);
+    mo.catalogSex = readString(in);
+    mo.wiUniqueNum = readString(in);
+    mo.taskID = readString(in);
+    mo.matchValue = in.readDouble();
+    mo.adjustedMatchValue = in.readDouble();
+    mo.size = in.readDouble();
+    mo.numTriangles = in.readInt();
+    mo.logMbreakdown = readDoubles(in);
+
+    int numScores = in.readInt();
+    if (numScores < 0) {
+      mo.scores = null;
+    } else {
+      mo.scores = new ArrayList(numScores);
+      for (int i = 0; i < numScores; i++) {
+        double newX = in.readDouble();
+        double newY = in.readDouble();
+        double oldX = in.readDouble();
+        double oldY = in.readDouble();
+        int points = in.readInt();
+        mo.scores.add(new VertexPointMatch(newX, newY, oldX, oldY, points));
+      }
+    }
+
+    int numPoints = in.readInt();
+    if (numPoints < 0) {
+      mo.Points = null;
+    } else {
+      mo.Points = new Vector(numPoints);
+      for (int i = 0; i < numPoints; i++) {
+        Pair pair = new Pair();
+        pair.m1 = in.readInt();
+        pair.m2 = in.readInt();
+        pair.dist = in.readDouble();
+        mo.Points.add(pair);
+      }
+    }
+    mo.i3sMatchValue = in.readDouble();
+    return mo;
+  }
+
+
+  private static void writeFullEncounter(DataOutputStream out, String key, EncounterLite el) throws IOException {
+    byte[] body = encodeEncounter(el);
+    out.writeByte(ENCOUNTER_FULL);
+    out.writeUTF(key);
+    out.writeInt(body.length);
+    out.write(body);
+  }
+
+  //the key of an encounter received in full must match its content
+  private static EncounterLite readFullEncounter(DataInputStream in, String key) throws IOException {
+    byte[] body = new byte[in.readInt()];
+    in.readFully(body);
+    EncounterLite el = decodeEncounter(new DataInputStream(new ByteArrayInputStream(body)));
+    if (!key.equals(getEncounterKey(el.getEncounterNumber(), body))) {
+      throw new IOException("Content of encounter " + key + " does not match its key.");
+    }
+    el.setWireKey(key);
+    return el;
+  }
+
+  private static byte[] encodeEncounter(EncounterLite el) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    writeString(out, el.getEncounterNumber());
+    writeString(out, el.getBelongsToMarkedIndividual());
+    writeString(out, el.getSex());
+    writeString(out, el.getDate());
+    out.writeDouble(el.getSize());
+    writeCoordinates(out, el.getSpotsX());
+    writeCoordinates(out, el.getSpotsY());
+    writeCoordinates(out, el.getRightSpotsX());
+    writeCoordinates(out, el.getRightSpotsY());
+    writeCoordinates(out, el.getLeftReferenceSpotsX());
+    writeCoordinates(out, el.getLeftReferenceSpotsY());
+    writeCoordinates(out, el.getRightReferenceSpotsX());
+    writeCoordinates(out, el.getRightReferenceSpotsY());
+    //catalog context, appended so that older readers simply ignore it
+    writeString(out, el.getTaxonomy());
+    writeString(out, el.getLocationID());
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static EncounterLite decodeEncounter(DataInputStream in) throws IOException {
+    String encounterNumber = readString(in);
+    String belongsToMarkedIndividual = readString(in);
+    String sex = readString(in);
+    String date = readString(in);
+    double size = in.readDouble();
+    double[] spotsX = readCoordinates(in);
+    double[] spotsY = readCoordinates(in);
+    double[] rightSpotsX = readCoordinates(in);
+    double[] rightSpotsY = readCoordinates(in);
+    double[] leftReferenceSpotsX = readCoordinates(in);
+    double[] leftReferenceSpotsY = readCoordinates(in);
+    double[] rightReferenceSpotsX = readCoordinates(in);
+    double[] rightReferenceSpotsY = readCoordinates(in);
+    EncounterLite el = new EncounterLite(encounterNumber, belongsToMarkedIndividual, sex, date, size, spotsX, spotsY, rightSpotsX, rightSpotsY, leftReferenceSpotsX, leftReferenceSpotsY, rightReferenceSpotsX, rightReferenceSpotsY);
+    //encounters written before the catalog context was added end here
+    if (in.available() > 0) {
+      el.setCatalogContext(readString(in), readString(in));
+    }
+    return el;
+  }
+
+  //coordinates go out as floats unless that would change one of them
+  private static void writeCoordinates(DataOutputStream out, double[] values) throws IOException {
+    if (values == null) {
+      out.writeByte(COORDS_NULL);
+      return;
+    }
+    boolean exact = true;
+    for (int i = 0; (i < values.length) && exact; i++) {
+      exact = (((double) ((float) values[i])) == values[i]) || Double.isNaN(values[i]);
+    }
+    out.writeByte(exact ? COORDS_FLOAT : COORDS_DOUBLE);
+    out.writeInt(values.length);
+    for (int i = 0; i < values.length; i++) {
+      if (exact) {
+        out.writeFloat((float) values[i]);
+      } else {
+        out.writeDouble(values[i]);
+      }
+    }
+  }
+
+  private static double[] readCoordinates(DataInputStream in) throws IOException {
+    byte encoding = in.readByte();
+    if (encoding == COORDS_NULL) {
+      return null;
+    }
+    double[] values = new double[in.readInt()];
+    for (int i = 0; i < values.length; i++) {
+      if (encoding == COORDS_FLOAT) {
+        values[i] = in.readFloat();
+      } else {
+        values[i] = in.readDouble();
+      }
+    }
+    return values;
+  }
+
+  private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.length);
+    for (int i = 0; i < values.length; i++) {
+      out.writeDouble(values[i]);
+    }
+  }
+
+  private static double[] readDoubles(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    double[] values = new double[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = in.readDouble();
+    }
+    return values;
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    if (in.readBoolean()) {
+      return in.readUTF();
+    }
+    return null;
+  }
+
+  private static void addToTable(EncounterLite el, IdentityHashMap<EncounterLite, Integer> positions, ArrayList<EncounterLite> table) {
+    if ((el != null) && !positions.containsKey(el)) {
+      positions.put(el, new Integer(table.size()));
+      table.add(el);
+    }
+  }
+
+  private static int getPosition(EncounterLite el, IdentityHashMap<EncounterLite, Integer> positions) {
+    if (el == null) {
+      return -1;
+    }
+    return positions.get(el).intValue();
+  }
+
+  private static EncounterLite getEntry(EncounterLite[] table, int position) throws IOException {
+    if (position == -1) {
+      return null;
+    }
+    if ((position < 0) || (position >= table.length)) {
+      throw new IOException("Work item refers to missing encounter table entry " + position);
+    }
+    return table[position];
+  }
+
+  private static void writeHeader(DataOutputStream out, int version, byte type) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeByte(version);
+    out.writeByte(type);
+  }
+
+  //returns the version of the message
+  private static int readHeader(DataInputStream in, byte type) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a grid wire format message.");
+    }
+    int version = in.readByte();
+    if ((version < 1) || (version > VERSION)) {
+      throw new IOException("Unsupported grid wire format version: " + version);
+    }
+    byte readType = in.readByte();
+    if (readType != type) {
+      throw new IOException("Unexpected grid wire format message type: " + readType);
+    }
+    return version;
+  }
+
+}
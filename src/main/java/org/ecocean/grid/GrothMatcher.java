@@ -0,0 +1,490 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.util.ArrayList;
+
+
+/**
+ * Allocation-free implementation of the modified Groth triangle matcher used by
+ * {@link EncounterLite#getPointsForBestMatch}.
+ * <p/>
+ * Works directly on the spotsX/spotsY arrays of an EncounterLite. Triangles live in
+ * {@link SpotTriangleSet} instances and all intermediate matching state (matched triangle pairs,
+ * logM values, vertex point votes) lives in primitive buffers owned by the matcher, so a thread
+ * that keeps reusing its matcher only allocates the returned MatchObject. Scores are identical
+ * to the original SpotTriangle based implementation.
+ * <p/>
+ * A matcher is not thread safe; use {@link #getInstance()} to get the one bound to the current thread.
+ */
+public class GrothMatcher {
+
+  private static final ThreadLocal<GrothMatcher> threadMatchers = new ThreadLocal<GrothMatcher>() {
+    protected GrothMatcher initialValue() {
+      return new GrothMatcher();
+    }
+  };
+
+  //triangle sets for the two passes
+  private final SpotTriangleSet newSet = new SpotTriangleSet();
+  private final SpotTriangleSet baseSet = new SpotTriangleSet();
+  private final SpotTriangleSet secondNewSet = new SpotTriangleSet();
+  private final SpotTriangleSet secondBaseSet = new SpotTriangleSet();
+
+  //(R, C) lookup over the triangles being matched against
+  private final TriangleShapeIndex shapeIndex = new TriangleShapeIndex();
+
+  //matched triangle pairs of the current pass
+  private int[] pairA = new int[64];
+  private int[] pairB = new int[64];
+  private double[] logM = new double[64];
+  private boolean[] sameSense = new boolean[64];
+  private int numPairs = 0;
+
+  //logM values that survived the first pass
+  private double[] firstPassLogM = new double[64];
+
+  //vertex point votes, keyed by canonical spot index on each side
+  private int[] pointA = new int[64];
+  private int[] pointB = new int[64];
+  private int[] points = new int[64];
+  private double[] pointKey = new double[64];
+  private int[] pointOrder = new int[64];
+  private int[] pointOrderTmp = new int[64];
+  private int numPoints = 0;
+  private int[] pointLookup = new int[256];
+
+  //vote entries kept by Zaven's correction, in score order
+  private int[] selected = new int[64];
+  private int numSelected = 0;
+
+  //spots carried into the second pass
+  private double[] secondNewX = new double[16];
+  private double[] secondNewY = new double[16];
+  private double[] secondBaseX = new double[16];
+  private double[] secondBaseY = new double[16];
+
+
+  public GrothMatcher() {
+  }
+
+  /**
+   * Returns the matcher bound to the calling thread, creating it on first use.
+   */
+  public static GrothMatcher getInstance() {
+    return threadMatchers.get();
+  }
+
+  /**
+   * Compares a new spot pattern against a catalog spot pattern with the modified Groth algorithm.
+   * Coordinates are raw image coordinates; both patterns are normalized here.
+   */
+  public MatchObject match(double[] newX, double[] newY, double[] catalogX, double[] catalogY, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, String individualID, String encounterNumber, String sex, String date, double size) {
+    try {
+      if ((newX == null) || (catalogX == null)) {
+        return new MatchObject(individualID, 0, 0, encounterNumber);
+      }
+
+      newSet.setSpots(newX, newY, newX.length, true);
+      newSet.build(epsilon, R, C, Sizelim, true);
+      baseSet.setSpots(catalogX, catalogY, catalogX.length, true);
+      baseSet.build(epsilon, R, C, Sizelim, true);
+
+      return match(newSet, baseSet, epsilon, R, Sizelim, maxTriangleRotation, C, individualID, encounterNumber, sex, date, size);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.out.println("0 points awarded due to exception.");
+      return new MatchObject(individualID, 0, 0, encounterNumber);
+    }
+  }
+
+  /**
+   * Same as {@link #match(double[], double[], double[], double[], double, double, double, double, double, String, String, String, String, double)},
+   * but takes both first-pass triangle sets from the {@link TriangleSetCache}, so each encounter's triangles
+   * are only built once per side and set of Groth parameters.
+   */
+  public MatchObject matchCached(String newEncounterNumber, double[] newX, double[] newY, double[] catalogX, double[] catalogY, boolean rightScan, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, String individualID, String encounterNumber, String sex, String date, double size) {
+    try {
+      if ((newX == null) || (catalogX == null)) {
+        return new MatchObject(individualID, 0, 0, encounterNumber);
+      }
+      SpotTriangleSet newTriangles = TriangleSetCache.getTriangles(newEncounterNumber, rightScan, newX, newY, epsilon, R, C, Sizelim, newSet);
+      SpotTriangleSet baseTriangles = TriangleSetCache.getTriangles(encounterNumber, rightScan, catalogX, catalogY, epsilon, R, C, Sizelim, baseSet);
+
+      return match(newTriangles, baseTriangles, epsilon, R, Sizelim, maxTriangleRotation, C, individualID, encounterNumber, sex, date, size);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.out.println("0 points awarded due to exception.");
+      return new MatchObject(individualID, 0, 0, encounterNumber);
+    }
+  }
+
+  /**
+   * Compares two normalized, already built triangle sets. Neither set is modified.
+   */
+  public MatchObject match(SpotTriangleSet newTriangles, SpotTriangleSet baseTriangles, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, String individualID, String encounterNumber, String sex, String date, double size) {
+    try {
+      double allowedRotationDiff = Math.toRadians(maxTriangleRotation);
+
+      //make sure that list A is always the smaller of the two lists
+      boolean swappedSpots = false;
+      SpotTriangleSet tSet = newTriangles;
+      SpotTriangleSet bSet = baseTriangles;
+      if (newTriangles.numTriangles > baseTriangles.numTriangles) {
+        swappedSpots = true;
+        tSet = baseTriangles;
+        bSet = newTriangles;
+      }
+      int arrayL = tSet.numTriangles;
+
+      int numMatched = matchTriangles(tSet, bSet, allowedRotationDiff);
+      if (numMatched == 0) {
+        return new MatchObject(individualID, 0, 0, encounterNumber);
+      }
+
+      tallyPoints(tSet, bSet);
+      if (points[pointOrder[0]] == 1) {
+        return new MatchObject(individualID, 0, 0, encounterNumber);
+      }
+      selectPoints();
+
+      //keep the first pass logM values before the second pass reuses the pair buffers
+      if (firstPassLogM.length < numMatched) {
+        firstPassLogM = new double[logM.length];
+      }
+      System.arraycopy(logM, 0, firstPassLogM, 0, numMatched);
+
+      //collect the distinct spots on each side for the second pass
+      int numSecondNew = 0;
+      int numSecondBase = 0;
+      ensureSecondSpotCapacity(numSelected);
+      for (int s = 0; s < numSelected; s++) {
+        int p = selected[s];
+        int a = pointA[p];
+        boolean seen = false;
+        for (int q = 0; q < s; q++) {
+          if (pointA[selected[q]] == a) {
+            seen = true;
+            break;
+          }
+        }
+        if (!seen) {
+          secondNewX[numSecondNew] = tSet.spotX[a];
+          secondNewY[numSecondNew] = tSet.spotY[a];
+          numSecondNew++;
+        }
+        int b = pointB[p];
+        seen = false;
+        for (int q = 0; q < s; q++) {
+          if (pointB[selected[q]] == b) {
+            seen = true;
+            break;
+          }
+        }
+        if (!seen) {
+          secondBaseX[numSecondBase] = bSet.spotX[b];
+          secondBaseY[numSecondBase] = bSet.spotY[b];
+          numSecondBase++;
+        }
+      }
+
+      //now run Groth's algorithm again if there are enough spots. if not, this is not a match.
+      if ((numSecondNew <= 3) || (numSecondBase <= 3)) {
+        return new MatchObject(individualID, 0, 0, encounterNumber);
+      }
+      secondNewSet.setSpots(secondNewX, secondNewY, numSecondNew, false);
+      secondNewSet.build(epsilon, R, C, Sizelim, true);
+      secondBaseSet.setSpots(secondBaseX, secondBaseY, numSecondBase, false);
+      secondBaseSet.build(epsilon, R, C, Sizelim, false);
+
+      if (matchTriangles(secondNewSet, secondBaseSet, allowedRotationDiff) == 0) {
+        return new MatchObject(individualID, 0, 0, encounterNumber);
+      }
+      tallyPoints(secondNewSet, secondBaseSet);
+      selectPoints();
+      if (numSelected < 3) {
+        return new MatchObject(individualID, 0, 0, encounterNumber);
+      }
+
+      //score and map the matched spots back to image coordinates
+      double newFactor = swappedSpots ? baseTriangles.normFactor : newTriangles.normFactor;
+      double baseFactor = swappedSpots ? newTriangles.normFactor : baseTriangles.normFactor;
+      double bestScore = 0;
+      StringBuffer pointBreakdown = new StringBuffer();
+      ArrayList secondPassSpotsAL = new ArrayList(numSelected);
+      for (int s = 0; s < numSelected; s++) {
+        int p = selected[s];
+        bestScore += points[p];
+        pointBreakdown.append(points[p]).append(" + ");
+        double nX = secondNewSet.spotX[pointA[p]] * newFactor;
+        double nY = secondNewSet.spotY[pointA[p]] * newFactor;
+        double oX = secondBaseSet.spotX[pointB[p]] * baseFactor;
+        double oY = secondBaseSet.spotY[pointB[p]] * baseFactor;
+        if (swappedSpots) {
+          secondPassSpotsAL.add(new VertexPointMatch(oX, oY, nX, nY, points[p]));
+        } else {
+          secondPassSpotsAL.add(new VertexPointMatch(nX, nY, oX, oY, points[p]));
+        }
+      }
+      double adjustedScore = bestScore / (arrayL * 3);
+
+      double[] logMbreakdown = new double[numMatched];
+      System.arraycopy(firstPassLogM, 0, logMbreakdown, 0, numMatched);
+
+      return new MatchObject(individualID, bestScore, adjustedScore, numMatched, secondPassSpotsAL, encounterNumber, pointBreakdown.toString(), logMbreakdown, sex, date, size);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.out.println("0 points awarded due to exception.");
+      return new MatchObject(individualID, 0, 0, encounterNumber);
+    }
+  }
+
+  /**
+   * Pairs each triangle of tSet with its best fitting triangle of bSet, then applies the
+   * iterative logM filter and removes opposite sense pairs. Returns the number of surviving pairs.
+   */
+  private int matchTriangles(SpotTriangleSet tSet, SpotTriangleSet bSet, double allowedRotationDiff) {
+    int arrayL = tSet.numTriangles;
+    shapeIndex.index(bSet);
+
+    ensurePairCapacity(arrayL);
+    numPairs = 0;
+    for (int iter1 = 0; iter1 < arrayL; iter1++) {
+      int bestiter2 = shapeIndex.findBest(tSet.R[iter1], tSet.tR2[iter1], tSet.C[iter1], tSet.tC2[iter1], tSet.rotation[iter1], allowedRotationDiff);
+      if (bestiter2 >= 0) {
+        pairA[numPairs] = iter1;
+        pairB[numPairs] = bestiter2;
+        logM[numPairs] = tSet.logPerimeter[iter1] - bSet.logPerimeter[bestiter2];
+        sameSense[numPairs] = (tSet.clockwise[iter1] == bSet.clockwise[bestiter2]);
+        numPairs++;
+      }
+    }
+
+    filterLogM();
+
+    //finally drop the pairs of opposite sense
+    int kept = 0;
+    for (int i = 0; i < numPairs; i++) {
+      if (sameSense[i]) {
+        movePair(i, kept);
+        kept++;
+      }
+    }
+    numPairs = kept;
+    return numPairs;
+  }
+
+  //the softened, iterative logM filter of the modified Groth algorithm
+  private void filterLogM() {
+    int nPLUS = 0;
+    int nMINUS = 0;
+    for (int i = 0; i < numPairs; i++) {
+      if (sameSense[i]) {
+        nPLUS++;
+      } else {
+        nMINUS++;
+      }
+    }
+    int mT = Math.abs(nPLUS - nMINUS);
+    int mF = nPLUS + nMINUS - mT;
+    double multiple = 0;
+    boolean stillIterate = true;
+    int numIterations = 0;
+
+    while (stillIterate && (numIterations < 20) && (numPairs > 0)) {
+      numIterations++;
+      boolean haveMadeChange = false;
+
+      //compute logM statistics using only same sense triangles
+      double meanLogM = 0;
+      double stdDeviationLogM = 0;
+      for (int i = 0; i < numPairs; i++) {
+        if (sameSense[i]) {
+          meanLogM += logM[i];
+        }
+      }
+      meanLogM = meanLogM / nPLUS;
+      for (int i = 0; i < numPairs; i++) {
+        if (sameSense[i]) {
+          stdDeviationLogM += Math.pow((logM[i] - meanLogM), 2);
+        }
+      }
+      if (nPLUS > 1) {
+        stdDeviationLogM = Math.pow((stdDeviationLogM / (nPLUS - 1)), 0.5);
+      } else {
+        stdDeviationLogM = 0.0;
+      }
+
+      if (nMINUS > nPLUS) {
+        multiple = 1;
+      } else if ((0.5 * mT) > mF) {
+        multiple = 3;
+      } else {
+        multiple = 2;
+      }
+
+      //now discard nonmatches
+      int kept = 0;
+      for (int i = 0; i < numPairs; i++) {
+        if (Math.abs(logM[i] - meanLogM) > (multiple * stdDeviationLogM)) {
+          haveMadeChange = true;
+        } else {
+          movePair(i, kept);
+          kept++;
+        }
+      }
+      numPairs = kept;
+
+      if (!haveMadeChange) {
+        stillIterate = false;
+      }
+      nPLUS = 0;
+      nMINUS = 0;
+      for (int i = 0; i < numPairs; i++) {
+        if (sameSense[i]) {
+          nPLUS++;
+        } else {
+          nMINUS++;
+        }
+      }
+      mT = Math.abs(nPLUS - (nMINUS));
+      mF = nPLUS + nMINUS - mT;
+    }
+  }
+
+  private void movePair(int from, int to) {
+    if (from != to) {
+      pairA[to] = pairA[from];
+      pairB[to] = pairB[from];
+      logM[to] = logM[from];
+      sameSense[to] = sameSense[from];
+    }
+  }
+
+  /**
+   * Counts, for every matched pair of vertices, how many matched triangles share it,
+   * then orders the votes by descending count, ties kept in first-seen order.
+   */
+  private void tallyPoints(SpotTriangleSet tSet, SpotTriangleSet bSet) {
+    int lookupSize = tSet.numSpots * bSet.numSpots;
+    if (pointLookup.length < lookupSize) {
+      pointLookup = new int[lookupSize];
+    }
+    ensurePointCapacity(numPairs * 3);
+    numPoints = 0;
+    int bSpots = bSet.numSpots;
+    for (int i = 0; i < numPairs; i++) {
+      int ta = pairA[i];
+      int tb = pairB[i];
+      for (int v = 0; v < 3; v++) {
+        int a, b;
+        if (v == 0) {
+          a = tSet.v1[ta];
+          b = bSet.v1[tb];
+        } else if (v == 1) {
+          a = tSet.v2[ta];
+          b = bSet.v2[tb];
+        } else {
+          a = tSet.v3[ta];
+          b = bSet.v3[tb];
+        }
+        a = tSet.canon[a];
+        b = bSet.canon[b];
+        int slot = a * bSpots + b;
+        int existing = pointLookup[slot] - 1;
+        if (existing >= 0) {
+          points[existing]++;
+        } else {
+          pointA[numPoints] = a;
+          pointB[numPoints] = b;
+          points[numPoints] = 1;
+          numPoints++;
+          pointLookup[slot] = numPoints;
+        }
+      }
+    }
+
+    //clear the lookup table for the next pass and sort the votes
+    for (int p = 0; p < numPoints; p++) {
+      pointLookup[pointA[p] * bSpots + pointB[p]] = 0;
+      pointOrder[p] = p;
+      pointKey[p] = -points[p];
+    }
+    SpotTriangleSet.stableSort(pointOrder, pointOrderTmp, numPoints, pointKey);
+  }
+
+  //Zaven's correction: walk down the votes until the count halves or a spot repeats
+  private void selectPoints() {
+    if (selected.length < numPoints) {
+      selected = new int[pointOrder.length];
+    }
+    numSelected = 0;
+    selected[numSelected++] = pointOrder[0];
+    boolean hasNotBeenSeenYet = true;
+    int iter20 = 1;
+    while (iter20 < numPoints) {
+      int p = pointOrder[iter20];
+      for (int s = 0; s < numSelected; s++) {
+        if (pointA[selected[s]] == pointA[p]) {
+          hasNotBeenSeenYet = false;
+        }
+        if (pointB[selected[s]] == pointB[p]) {
+          hasNotBeenSeenYet = false;
+        }
+      }
+      if ((points[p] > (points[pointOrder[iter20 - 1]] / 2)) && (points[p] > 1) && hasNotBeenSeenYet) {
+        selected[numSelected++] = p;
+      } else {
+        break;
+      }
+      iter20++;
+    }
+  }
+
+  private void ensurePairCapacity(int capacity) {
+    if (pairA.length < capacity) {
+      pairA = new int[capacity];
+      pairB = new int[capacity];
+      logM = new double[capacity];
+      sameSense = new boolean[capacity];
+    }
+  }
+
+  private void ensurePointCapacity(int capacity) {
+    if (pointA.length < capacity) {
+      pointA = new int[capacity];
+      pointB = new int[capacity];
+      points = new int[capacity];
+      pointKey = new double[capacity];
+      pointOrder = new int[capacity];
+      pointOrderTmp = new int[capacity];
+    }
+  }
+
+  private void ensureSecondSpotCapacity(int capacity) {
+    if (secondNewX.length < capacity) {
+      secondNewX = new double[capacity];
+      secondNewY = new double[capacity];
+      secondBaseX = new double[capacity];
+      secondBaseY = new double[capacity];
+    }
+  }
+
+}
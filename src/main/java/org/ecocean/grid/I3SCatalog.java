@@ -0,0 +1,409 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import com.reijns.I3S.Affine;
+import com.reijns.I3S.PairBuffer;
+import com.reijns.I3S.Point2D;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * One-to-many I3S matcher. Scores an unknown encounter against a whole catalog of EncounterLites in one pass.
+ * <p/>
+ * EncounterLite.i3sScan builds both FingerPrints, copies their spots into Point2D objects and normalizes
+ * them with the fiducial points for every single comparison. This class normalizes every catalog encounter
+ * once, when the catalog is built, and keeps the normalized spots of all encounters packed into two
+ * coordinate arrays. A scan normalizes the unknown once, scores the catalog on the LocalScanExecutor's
+ * ForkJoinPool and returns the best matches. LocalScanExecutor uses {@link #match} to score the work items
+ * of local ScanTasks one pair at a time against the already normalized catalog spots.
+ * <p/>
+ * The scoring is the same as Compare.find(unknown, best, 1, true, pairs) on a single catalog FingerPrint,
+ * including the exhaustive affine search, and gives the same scores as i3sScan. The catalog is immutable;
+ * build a new one when the match graph changes.
+ */
+public class I3SCatalog {
+
+  //number of catalog encounters scored by a single fork/join leaf
+  private static final int BATCH_SIZE = 64;
+
+  private final boolean rightSide;
+  private final EncounterLite[] encounters;
+
+  //normalized spots of encounter i are at [offsets[i], offsets[i+1]) in x and y
+  private final int[] offsets;
+  private final double[] x;
+  private final double[] y;
+  private final int maxSpots;
+
+  //position of each catalog EncounterLite, by identity, so that a pattern changed since the catalog was built is not found
+  private final IdentityHashMap<EncounterLite, Integer> positions = new IdentityHashMap<EncounterLite, Integer>();
+
+  /**
+   * Builds the catalog for one side from a collection of EncounterLites, such as GridManager.getMatchGraph().values().
+   * Encounters without spots on that side are left out.
+   */
+  public I3SCatalog(Collection<EncounterLite> catalog, boolean rightSide) {
+    this.rightSide = rightSide;
+
+    ArrayList<EncounterLite> withSpots = new ArrayList<EncounterLite>();
+    int numSpots = 0;
+    int max = 0;
+    Iterator<EncounterLite> it = catalog.iterator();
+    while (it.hasNext()) {
+      EncounterLite el = it.next();
+      double[] spotsX = getSpotsX(el, rightSide);
+      if ((spotsX != null) && (spotsX.length > 0)) {
+        withSpots.add(el);
+        numSpots += spotsX.length;
+        max = Math.max(max, spotsX.length);
+      }
+    }
+
+    int numEncounters = withSpots.size();
+    encounters = withSpots.toArray(new EncounterLite[numEncounters]);
+    offsets = new int[numEncounters + 1];
+    x = new double[numSpots];
+    y = new double[numSpots];
+    maxSpots = max;
+
+    int offset = 0;
+    for (int i = 0; i < numEncounters; i++) {
+      EncounterLite el = encounters[i];
+      offsets[i] = offset;
+      normalize(el, rightSide, x, y, offset);
+      positions.put(el, Integer.valueOf(i));
+      offset += getSpotsX(el, rightSide).length;
+    }
+    offsets[numEncounters] = offset;
+  }
+
+  public boolean isRightSide() {
+    return rightSide;
+  }
+
+  /**
+   * Returns the number of catalog encounters with spots on this catalog's side.
+   */
+  public int size() {
+    return encounters.length;
+  }
+
+  /**
+   * Scores an unknown encounter against every catalog encounter except itself and returns the best maxResults
+   * matches, best (lowest score) first. Returns an empty list if the unknown has no spots on this catalog's side.
+   */
+  public ArrayList<I3SMatchObject> scan(EncounterLite unknown, int maxResults) {
+    ArrayList<I3SMatchObject> matches = new ArrayList<I3SMatchObject>();
+    double[] spotsX = getSpotsX(unknown, rightSide);
+    if ((spotsX == null) || (spotsX.length == 0) || (maxResults <= 0) || (encounters.length == 0)) {
+      return matches;
+    }
+
+    int numUnknownSpots = spotsX.length;
+    double[] ux = new double[numUnknownSpots];
+    double[] uy = new double[numUnknownSpots];
+    normalize(unknown, rightSide, ux, uy, 0);
+
+    ScanAction action = new ScanAction(unknown.getEncounterNumber(), ux, uy, maxResults, 0, encounters.length);
+    ArrayList<Scored> best = LocalScanExecutor.getPool().invoke(action);
+    Collections.sort(best, SCORE_ORDER);
+
+    //rebuild the point pairs of the matches we return
+    Scorer scorer = new Scorer(maxSpots, numUnknownSpots);
+    for (int i = 0; i < best.size(); i++) {
+      Scored s = best.get(i);
+      EncounterLite el = encounters[s.index];
+      TreeMap pairs = scorer.getPairs(x, y, offsets[s.index], offsets[s.index + 1] - offsets[s.index], ux, uy);
+      matches.add(new I3SMatchObject(el.getBelongsToMarkedIndividual(), s.score, el.getEncounterNumber(), el.getSex(), el.getDate(), el.getSize(), pairs, 0));
+    }
+    return matches;
+  }
+
+  /**
+   * Scores an unknown encounter against one catalog encounter, giving the same I3SMatchObject as
+   * catalogEncounter.i3sScan(unknown, rightSide). Returns null if this catalog does not hold that
+   * EncounterLite object, or if the unknown has no spots on this catalog's side, so that the caller can
+   * fall back to i3sScan.
+   */
+  public I3SMatchObject match(EncounterLite unknown, EncounterLite catalogEncounter) {
+    Integer position = positions.get(catalogEncounter);
+    double[] spotsX = getSpotsX(unknown, rightSide);
+    if ((position == null) || (spotsX == null) || (spotsX.length == 0)) {
+      return null;
+    }
+    int index = position.intValue();
+    int numUnknownSpots = spotsX.length;
+    double[] ux = new double[numUnknownSpots];
+    double[] uy = new double[numUnknownSpots];
+    normalize(unknown, rightSide, ux, uy, 0);
+
+    int offset = offsets[index];
+    int n = offsets[index + 1] - offset;
+    Scorer scorer = new Scorer(n, numUnknownSpots);
+    double score = scorer.score(x, y, offset, n, ux, uy);
+    TreeMap pairs = scorer.getPairs(x, y, offset, n, ux, uy);
+    return new I3SMatchObject(catalogEncounter.getBelongsToMarkedIndividual(), score, catalogEncounter.getEncounterNumber(), catalogEncounter.getSex(), catalogEncounter.getDate(), catalogEncounter.getSize(), pairs, 0);
+  }
+
+  //the same normalization as EncounterLite.doAffine: maps the three fiducial points onto fixed positions
+  private static void normalize(EncounterLite el, boolean rightSide, double[] outX, double[] outY, int offset) {
+    Point2D[] control;
+    double[] spotsX;
+    double[] spotsY;
+    if (rightSide) {
+      control = el.getThreeRightFiducialPoints();
+      spotsX = el.getRightSpotsX();
+      spotsY = el.getRightSpotsY();
+    } else {
+      control = el.getThreeLeftFiducialPoints();
+      spotsX = el.getSpotsX();
+      spotsY = el.getSpotsY();
+    }
+    double[] matrix = new double[6];
+    Affine.calcAffine(control[0].getX(), control[0].getY(), control[1].getX(), control[1].getY(), control[2].getX(), control[2].getY(), 100, 100, 900, 100, 500, 700, matrix);
+    for (int i = 0; i < spotsX.length; i++) {
+      outX[offset + i] = matrix[0] * spotsX[i] + matrix[1] * spotsY[i] + matrix[2];
+      outY[offset + i] = matrix[3] * spotsX[i] + matrix[4] * spotsY[i] + matrix[5];
+    }
+  }
+
+  private static double[] getSpotsX(EncounterLite el, boolean rightSide) {
+    if (rightSide) {
+      return el.getRightSpotsX();
+    }
+    return el.getSpotsX();
+  }
+
+  //a catalog index and its score
+  private static class Scored {
+    final int index;
+    final double score;
+
+    Scored(int index, double score) {
+      this.index = index;
+      this.score = score;
+    }
+  }
+
+  //best first, ties by catalog order so that results do not depend on how the scan was split up
+  private static final Comparator<Scored> SCORE_ORDER = new Comparator<Scored>() {
+    public int compare(Scored a, Scored b) {
+      if (a.score != b.score) {
+        return (a.score < b.score) ? -1 : 1;
+      }
+      return (a.index < b.index) ? -1 : ((a.index == b.index) ? 0 : 1);
+    }
+  };
+
+  /**
+   * Scores a range of the catalog and returns its best maxResults, splitting the range until it is small enough.
+   */
+  private class ScanAction extends RecursiveTask<ArrayList<Scored>> {
+
+    static final long serialVersionUID = 1L;
+    private final String unknownNumber;
+    private final double[] ux;
+    private final double[] uy;
+    private final int maxResults;
+    private final int start;
+    private final int end;
+
+    ScanAction(String unknownNumber, double[] ux, double[] uy, int maxResults, int start, int end) {
+      this.unknownNumber = unknownNumber;
+      this.ux = ux;
+      this.uy = uy;
+      this.maxResults = maxResults;
+      this.start = start;
+      this.end = end;
+    }
+
+    protected ArrayList<Scored> compute() {
+      if ((end - start) > BATCH_SIZE) {
+        int mid = (start + end) >>> 1;
+        ScanAction left = new ScanAction(unknownNumber, ux, uy, maxResults, start, mid);
+        ScanAction right = new ScanAction(unknownNumber, ux, uy, maxResults, mid, end);
+        left.fork();
+        ArrayList<Scored> merged = right.compute();
+        merged.addAll(left.join());
+        return best(merged);
+      }
+
+      ArrayList<Scored> scored = new ArrayList<Scored>();
+      Scorer scorer = new Scorer(maxSpots, ux.length);
+      for (int i = start; i < end; i++) {
+        if ((unknownNumber != null) && unknownNumber.equals(encounters[i].getEncounterNumber())) {
+          continue;
+        }
+        double score = scorer.score(x, y, offsets[i], offsets[i + 1] - offsets[i], ux, uy);
+        scored.add(new Scored(i, score));
+      }
+      return best(scored);
+    }
+
+    private ArrayList<Scored> best(ArrayList<Scored> scored) {
+      if (scored.size() <= maxResults) {
+        return scored;
+      }
+      //worst kept score at the head
+      PriorityQueue<Scored> kept = new PriorityQueue<Scored>(maxResults + 1, Collections.reverseOrder(SCORE_ORDER));
+      for (int i = 0; i < scored.size(); i++) {
+        kept.add(scored.get(i));
+        if (kept.size() > maxResults) {
+          kept.poll();
+        }
+      }
+      return new ArrayList<Scored>(kept);
+    }
+  }
+
+  /**
+   * I3S scoring on packed coordinates, with scratch buffers reused across catalog encounters. This follows
+   * FingerPrint.distance and Compare.exhaustiveSearch step by step so that the scores are identical.
+   */
+  private static class Scorer {
+
+    private final PairBuffer pairs;
+    private final PairBuffer testPairs;
+
+    private double[] bestX;
+    private double[] bestY;
+    private double[] testX;
+    private double[] testY;
+    private final double[] matrix = new double[6];
+
+    Scorer(int maxCatalogSpots, int numUnknownSpots) {
+      pairs = new PairBuffer(numUnknownSpots);
+      testPairs = new PairBuffer(numUnknownSpots);
+      bestX = new double[maxCatalogSpots];
+      bestY = new double[maxCatalogSpots];
+      testX = new double[maxCatalogSpots];
+      testY = new double[maxCatalogSpots];
+    }
+
+    /**
+     * Returns the score of the n catalog spots at offset against the unknown spots, as Compare.find with
+     * exhaustive set would.
+     */
+    double score(double[] cx, double[] cy, int offset, int n, double[] ux, double[] uy) {
+      double bestScore = distance(cx, cy, offset, n, ux, uy, pairs, 0);
+
+      int numPairs = pairs.compact();
+      if (numPairs < 3) {
+        return bestScore;
+      }
+
+      System.arraycopy(cx, offset, bestX, 0, n);
+      System.arraycopy(cy, offset, bestY, 0, n);
+      for (int j = 0; j < numPairs - 2; j++) {
+        for (int k = j + 1; k < numPairs - 1; k++) {
+          for (int l = k + 1; l < numPairs; l++) {
+            int fromJ = pairs.getListM1(j);
+            int fromK = pairs.getListM1(k);
+            int fromL = pairs.getListM1(l);
+            int toJ = pairs.getListM2(j);
+            int toK = pairs.getListM2(k);
+            int toL = pairs.getListM2(l);
+            Affine.calcAffine(bestX[fromJ], bestY[fromJ],
+              bestX[fromK], bestY[fromK],
+              bestX[fromL], bestY[fromL],
+              ux[toJ], uy[toJ],
+              ux[toK], uy[toK],
+              ux[toL], uy[toL],
+              matrix);
+            for (int i = 0; i < n; i++) {
+              double px = bestX[i];
+              double py = bestY[i];
+              testX[i] = matrix[0] * px + matrix[1] * py + matrix[2];
+              testY[i] = matrix[3] * px + matrix[4] * py + matrix[5];
+            }
+            double testScore = distance(testX, testY, 0, n, ux, uy, testPairs, -3);
+            if (testScore < bestScore) {
+              double[] swap = bestX;
+              bestX = testX;
+              testX = swap;
+              swap = bestY;
+              bestY = testY;
+              testY = swap;
+              bestScore = testScore;
+            }
+          }
+        }
+      }
+      return bestScore;
+    }
+
+    /**
+     * Returns the initial point pairs of the n catalog spots at offset against the unknown spots, in the
+     * form Compare.find leaves them in its pairs map.
+     */
+    TreeMap getPairs(double[] cx, double[] cy, int offset, int n, double[] ux, double[] uy) {
+      distance(cx, cy, offset, n, ux, uy, pairs, 0);
+      TreeMap map = new TreeMap();
+      pairs.store(map);
+      return map;
+    }
+
+    //FingerPrint.distance: pairs each catalog spot with its nearest unknown spot if that is clearly nearest,
+    //keeping the closest catalog spot for each unknown spot
+    private static double distance(double[] cx, double[] cy, int offset, int n, double[] ux, double[] uy, PairBuffer buffer, int affineCorr) {
+      int m = ux.length;
+      buffer.clear(m);
+      double totaldist = 0;
+      for (int i = 0; i < n; i++) {
+        double px = cx[offset + i];
+        double py = cy[offset + i];
+        double mindist = 1000000000;
+        double second = 1000000000;
+        int minj = -1;
+        for (int j = 0; j < m; j++) {
+          double dx = px - ux[j];
+          double dy = py - uy[j];
+          double dist = (dx * dx) + (dy * dy);
+          if (dist < mindist) {
+            second = mindist;
+            mindist = dist;
+            minj = j;
+          }
+        }
+
+        if (mindist * 4 <= second) {
+          totaldist += buffer.offer(i, minj, Math.sqrt(mindist));
+        }
+      }
+
+      int paircnt = buffer.size() + affineCorr;
+      if (paircnt == 0) {
+        return 1000000.0;
+      }
+      return totaldist / (paircnt * paircnt);
+    }
+  }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.io.DataOutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs the ScanWorkItems of a ScanTask inside the web application's own JVM instead of handing them
+ * to remote grid nodes.
+ * <p/>
+ * Work items are executed on a ForkJoinPool sized to the available cores and their results are
+ * checked straight into the GridManager, exactly as ScanWorkItemResultsHandler would check in the
+ * results posted by a node. Their I3S scores are computed against the GridManager's I3SCatalog of the
+ * scanned side, whose catalog spots are normalized once rather than for every pair. Local work items never enter the GridManager's work queues, so nodes
+ * never see them, but they are counted as incomplete work for their task until they have run.
+ * When the last work item of a task completes, the task is finished by posting to its write-out URL.
+ */
+public class LocalScanExecutor {
+
+  //number of work items handed to a single fork/join leaf
+  private static final int BATCH_SIZE = 16;
+
+  private static ForkJoinPool pool;
+
+  //work items submitted but not yet completed, per task. Task creation holds one extra count
+  //until all of its work items have been submitted.
+  private static ConcurrentHashMap<String, AtomicInteger> pending = new ConcurrentHashMap<String, AtomicInteger>();
+  private static ConcurrentHashMap<String, String> finishURLs = new ConcurrentHashMap<String, String>();
+
+  private LocalScanExecutor() {
+  }
+
+  public static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+    return pool;
+  }
+
+  /**
+   * Registers a new locally executed task. finishURL is the full URL of the servlet that writes out
+   * the task's results (e.g. WriteOutScanTask); it may be null if nothing should be called.
+   */
+  public static void startTask(String taskID, String finishURL) {
+    pending.put(taskID, new AtomicInteger(1));
+    if (finishURL != null) {
+      finishURLs.put(taskID, finishURL);
+    } else {
+      finishURLs.remove(taskID);
+    }
+  }
+
+  /**
+   * Submits a group of work items of a task started with {@link #startTask}.
+   */
+  public static void submit(String taskID, List<ScanWorkItem> items) {
+    if (items.size() == 0) {
+      return;
+    }
+    AtomicInteger count = pending.get(taskID);
+    if (count == null) {
+      return;
+    }
+    count.addAndGet(items.size());
+    getPool().execute(new ScanAction(taskID, count, new ArrayList<ScanWorkItem>(items), 0, items.size()));
+  }
+
+  /**
+   * Marks the end of work item creation for a task. The task is finished as soon as all submitted work items have run.
+   */
+  public static void endSubmission(String taskID) {
+    AtomicInteger count = pending.get(taskID);
+    if (count != null) {
+      release(taskID, count);
+    }
+  }
+
+  /**
+   * Forgets a task, for example when it is deleted. Work items already running still complete.
+   */
+  public static void cancelTask(String taskID) {
+    pending.remove(taskID);
+    finishURLs.remove(taskID);
+  }
+
+  public static boolean isLocalTask(String taskID) {
+    return pending.containsKey(taskID);
+  }
+
+  /**
+   * Returns the number of work items of a task that have been submitted but not yet completed.
+   */
+  public static int getNumPending(String taskID) {
+    AtomicInteger count = pending.get(taskID);
+    if (count == null) {
+      return 0;
+    }
+    //do not report the hold placed by task creation as a work item
+    int num = count.get() - 1;
+    if (num < 0) {
+      return 0;
+    }
+    return num;
+  }
+
+  //counts are compared by identity so that a cancelled and restarted task is not finished by work items of its previous run
+  private static void release(String taskID, AtomicInteger count) {
+    if ((count.decrementAndGet() == 0) && pending.remove(taskID, count)) {
+      String finishURL = finishURLs.remove(taskID);
+      if (finishURL != null) {
+        finishScanTask(taskID, finishURL);
+      }
+    }
+  }
+
+  /**
+   * Posts a task's ID to its write-out URL, which writes out its results and marks it finished. Also used for
+   * grid tasks that have no work items left to check in.
+   */
+  static void finishScanTask(String taskID, String finishURL) {
+    HttpURLConnection finishConnection = null;
+    DataOutputStream wr = null;
+    try {
+      URL u = new URL(finishURL);
+      System.out.println("...writing out local scanTask result: " + taskID + " to URL: " + finishURL);
+      finishConnection = (HttpURLConnection) u.openConnection();
+      finishConnection.setDoOutput(true);
+      finishConnection.setDoInput(true);
+      finishConnection.setInstanceFollowRedirects(false);
+      finishConnection.setRequestMethod("POST");
+      finishConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      finishConnection.setRequestProperty("charset", "utf-8");
+      finishConnection.setUseCaches(false);
+      wr = new DataOutputStream(finishConnection.getOutputStream());
+      wr.writeBytes("number=" + taskID);
+      wr.flush();
+      System.out.println("     Response Code : " + finishConnection.getResponseCode());
+    }
+    catch (Exception e) {
+      System.out.println("!!!!!I hit an Exception in LocalScanExecutor while finishing task: " + taskID);
+      e.printStackTrace();
+    }
+    finally {
+      try {
+        if (wr != null) {
+          wr.close();
+        }
+        if (finishConnection != null) {
+          finishConnection.disconnect();
+        }
+      }
+      catch (Exception ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Splits a range of work items until it is small enough, then executes it and checks in the results.
+   */
+  private static class ScanAction extends RecursiveAction {
+
+    static final long serialVersionUID = 1L;
+    private final String taskID;
+    private final AtomicInteger count;
+    private final List<ScanWorkItem> items;
+    private final int start;
+    private final int end;
+
+    ScanAction(String taskID, AtomicInteger count, List<ScanWorkItem> items, int start, int end) {
+      this.taskID = taskID;
+      this.count = count;
+      this.items = items;
+      this.start = start;
+      this.end = end;
+    }
+
+    protected void compute() {
+      if ((end - start) > BATCH_SIZE) {
+        int mid = (start + end) >>> 1;
+        invokeAll(new ScanAction(taskID, count, items, start, mid), new ScanAction(taskID, count, items, mid, end));
+        return;
+      }
+      GridManager gm = GridManagerFactory.getGridManager();
+      I3SCatalog leftCatalog = null;
+      I3SCatalog rightCatalog = null;
+      for (int i = start; i < end; i++) {
+        ScanWorkItem swi = items.get(i);
+        try {
+          //skip the work if the task was cancelled
+          if (pending.get(taskID) == count) {
+            //catalog encounters are normalized for I3S once per match graph version instead of once per pair
+            if (swi.isRightScan()) {
+              if (rightCatalog == null) {
+                rightCatalog = GridManager.getI3SCatalog(true);
+              }
+              swi.setI3SCatalog(rightCatalog);
+            } else {
+              if (leftCatalog == null) {
+                leftCatalog = GridManager.getI3SCatalog(false);
+              }
+              swi.setI3SCatalog(leftCatalog);
+            }
+            MatchObject result = swi.execute();
+            gm.checkinResult(new ScanWorkItemResult(swi.getTaskIdentifier(), swi.getUniqueNumber(), result));
+          }
+        }
+        catch (OutOfMemoryError oome) {
+          oome.printStackTrace();
+        }
+        catch (Exception e) {
+          e.printStackTrace();
+        }
+        finally {
+          release(taskID, count);
+        }
+      }
+      ScanTaskCheckpoint.flush(taskID);
+      SpotPatternDescriptor.count(items, start, end);
+    }
+  }
+
+}
@@ -34,9 +34,24 @@ public class MatchComparator implements Comparator {
     if (a1_adjustedValue > b1_adjustedValue) {
       return -1;
     } else if (a1_adjustedValue == b1_adjustedValue) {
-      return 0;
+      return compareEncounterNumbers(a1, b1);
     } else {
       return 1;
     }
   }
+
+  /**
+   * Orders matches with equal scores by catalog encounter number, so that a ranking does not depend on
+   * the order in which the matches were collected.
+   */
+  static int compareEncounterNumbers(MatchObject a, MatchObject b) {
+    String aNumber = a.getEncounterNumber();
+    String bNumber = b.getEncounterNumber();
+    if (aNumber == null) {
+      return (bNumber == null) ? 0 : 1;
+    } else if (bNumber == null) {
+      return -1;
+    }
+    return aNumber.compareTo(bNumber);
+  }
 }
\ No newline at end of file
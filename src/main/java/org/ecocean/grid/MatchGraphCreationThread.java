@@ -24,12 +24,11 @@ import org.ecocean.Encounter;
 import org.ecocean.Shepherd;
 import org.ecocean.servlet.ServletUtilities;
 
-import java.util.Collection;
-import java.util.Iterator;
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Vector;
 
-import javax.jdo.Query;
 import javax.servlet.http.HttpServletRequest;
 
 
@@ -41,6 +40,20 @@ public class MatchGraphCreationThread implements Runnable, ISharkGridThread {
   String context="context0";
   String jdoql="SELECT FROM org.ecocean.Encounter";
   boolean finished = false;
+
+  //directory holding the match graph snapshot, or null to always build the graph from the database
+  File snapshotDirectory = null;
+
+  //encounters stored this long before the snapshot was written are refreshed too, for transactions that were still committing while it was read
+  private static final long SNAPSHOT_TIME_MARGIN = 10 * 60 * 1000;
+
+  //number of encounters loaded from the database per transaction
+  private static final int PAGE_SIZE = 500;
+
+  //progress of the current build, for display on the admin pages
+  private static volatile int numEncountersToLoad = 0;
+  private static volatile int numEncountersLoaded = 0;
+
   /**
    * Constructor to create a new thread object
    */
@@ -59,17 +72,39 @@ public class MatchGraphCreationThread implements Runnable, ISharkGridThread {
 
   }
 
+  /**
+   * Creates a thread that loads the match graph from the snapshot in snapshotDirectory if there is a usable one,
+   * and otherwise builds it from the database and writes a new snapshot.
+   */
+  public MatchGraphCreationThread(File snapshotDirectory) {
+
+    this();
+    this.snapshotDirectory = snapshotDirectory;
+
+  }
+
 
   /**
    * main method of the shepherd thread
    */
   public void run() {
     createThem();
+    //scans interrupted by a restart can only be resumed once the whole match graph is there
+    if (finished) {
+      ScanTaskCheckpoint.resumeTasks();
+    }
   }
 
 
   public void createThem() {
     System.out.println("Starting MatchGraphCreationThread!");
+    if ((snapshotDirectory != null) && loadSnapshot()) {
+      finished = true;
+      System.out.println("Ending MatchGraphCreationThread!");
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
     Shepherd myShepherd = new Shepherd(context);
     myShepherd.setAction("MatchGraphCreationThread.class");
     GridManager gm = GridManagerFactory.getGridManager();
@@ -77,36 +112,46 @@ public class MatchGraphCreationThread implements Runnable, ISharkGridThread {
 
     myShepherd.beginDBTransaction();
     
-    List<String> encNumbers=myShepherd.getAllEncounterNumbers();
-    int numEncs=encNumbers.size();
+    int numEncs=myShepherd.getNumEncountersWithSpots();
     System.out.println("MatchGraphCreationThread is exploring this many encounters: "+numEncs);
     myShepherd.rollbackDBTransaction();
+    numEncountersToLoad=numEncs;
+    numEncountersLoaded=0;
     
     gm.initializeNodes((int)(numEncs*2/3));
     
-    //Query query=null;
     try {
       
-      //query=myShepherd.getPM().newQuery(jdoql);
-      //Collection c = (Collection) (query.execute());
-      //System.out.println("Num scans to do: "+c.size());
-      //Iterator encounters = c.iterator();
-      
+      //load the encounters a page at a time with only the fields the EncounterLites need,
+      //so that each page is a few queries instead of one round trip per encounter
       int count = 0;
-
-      for (int i=0;i<numEncs;i++) {
+      HashMap<String, EncounterLite> page = new HashMap<String, EncounterLite>();
+      for (int i=0;i<numEncs;i+=PAGE_SIZE) {
         myShepherd.beginDBTransaction();
-        Encounter enc = myShepherd.getEncounter(encNumbers.get(i));
-        if (((enc.getRightSpots() != null) && (enc.getRightSpots().size() > 0))||((enc.getSpots() != null) && (enc.getSpots().size() > 0))) {
-            EncounterLite el=new EncounterLite(enc);
-            gm.addMatchGraphEntry(enc.getCatalogNumber(), el);
+        List<Encounter> encs = myShepherd.getEncountersWithSpots(i, PAGE_SIZE);
+        int numInPage = encs.size();
+        for (int j=0;j<numInPage;j++) {
+          Encounter enc = encs.get(j);
+          if (hasSpots(enc)) {
+            page.put(enc.getCatalogNumber(), new EncounterLite(enc));
             count++;
           } 
-
+        }
         myShepherd.rollbackDBTransaction();
+        GridManager.addMatchGraphEntries(page);
+        page.clear();
+        numEncountersLoaded=Math.min(i+PAGE_SIZE, numEncs);
+        
+        //the catalog shrank while we were loading it
+        if (numInPage < PAGE_SIZE) {break;}
       }
-      //myShepherd.rollbackDBTransaction();
+      numEncountersLoaded=numEncountersToLoad;
       finished=true;
+      System.out.println("MatchGraphCreationThread added "+count+" encounters to the match graph in "+(System.currentTimeMillis()-startTime)+" ms.");
+
+      if (snapshotDirectory != null) {
+        MatchGraphSnapshot.write(snapshotDirectory, GridManager.getMatchGraph(), startTime);
+      }
 
     } 
     catch (Exception e) {
@@ -116,7 +161,6 @@ public class MatchGraphCreationThread implements Runnable, ISharkGridThread {
       
     }
     finally{
-      //if(query!=null){query.closeAll();}
       myShepherd.closeDBTransaction();
     }
     
@@ -124,6 +168,81 @@ public class MatchGraphCreationThread implements Runnable, ISharkGridThread {
 
   }
   
+  /**
+   * Loads the match graph from its snapshot and refreshes the encounters added, changed or deleted in the database
+   * since the snapshot was written. Returns false if there is no usable snapshot.
+   */
+  private boolean loadSnapshot() {
+    long startTime = System.currentTimeMillis();
+    HashMap<String, EncounterLite> entries = new HashMap<String, EncounterLite>();
+    long snapshotTime = MatchGraphSnapshot.read(snapshotDirectory, entries);
+    if (snapshotTime < 0) {
+      System.out.println("MatchGraphCreationThread found no usable match graph snapshot and will rebuild the graph.");
+      return false;
+    }
+
+    Shepherd myShepherd = new Shepherd(context);
+    myShepherd.setAction("MatchGraphCreationThread.class");
+    myShepherd.beginDBTransaction();
+    try {
+      //drop encounters that no longer exist
+      HashSet<String> encNumbers = new HashSet<String>(myShepherd.getAllEncounterNumbers());
+      entries.keySet().retainAll(encNumbers);
+      gm.initializeNodes((int)(encNumbers.size()*2/3));
+
+      //refresh encounters changed since the snapshot
+      List<String> changed = myShepherd.getEncounterNumbersModifiedSince(snapshotTime - SNAPSHOT_TIME_MARGIN);
+      int numChanged = changed.size();
+      for (int i = 0; i < numChanged; i++) {
+        Encounter enc = myShepherd.getEncounter(changed.get(i));
+        if ((enc != null) && hasSpots(enc)) {
+          entries.put(enc.getCatalogNumber(), new EncounterLite(enc));
+        } else {
+          entries.remove(changed.get(i));
+        }
+      }
+      System.out.println("MatchGraphCreationThread refreshed " + numChanged + " encounters changed since the snapshot.");
+    }
+    catch (Exception e) {
+      System.out.println("I failed while refreshing the match graph snapshot in MatchGraphCreationThread.");
+      e.printStackTrace();
+      return false;
+    }
+    finally {
+      myShepherd.rollbackDBTransaction();
+      myShepherd.closeDBTransaction();
+    }
+
+    GridManager.addMatchGraphEntries(entries);
+    numEncountersToLoad = entries.size();
+    numEncountersLoaded = entries.size();
+    MatchGraphSnapshot.write(snapshotDirectory, GridManager.getMatchGraph(), startTime);
+    return true;
+  }
+
+  private static boolean hasSpots(Encounter enc) {
+    return ((enc.getRightSpots() != null) && (enc.getRightSpots().size() > 0)) || ((enc.getSpots() != null) && (enc.getSpots().size() > 0));
+  }
+
+  /**
+   * Returns how far the match graph has been loaded, from 0 to 100.
+   */
+  public static int getPercentComplete() {
+    int toLoad = numEncountersToLoad;
+    if (toLoad <= 0) {
+      return 100;
+    }
+    return (int)(100L * numEncountersLoaded / toLoad);
+  }
+
+  public static int getNumEncountersToLoad() {
+    return numEncountersToLoad;
+  }
+
+  public static int getNumEncountersLoaded() {
+    return numEncountersLoaded;
+  }
+
   public boolean isFinished() {
     return finished;
   }
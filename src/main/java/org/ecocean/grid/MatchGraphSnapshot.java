@@ -0,0 +1,280 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * Persists the GridManager match graph between restarts so that it does not have to be rebuilt from
+ * the database on every startup.
+ * <p/>
+ * The graph is stored as a snapshot file holding every EncounterLite (in the GridWireFormat encounter
+ * encoding) plus an append-only journal of the entries added or removed since the snapshot was written.
+ * GridManager records every change to the graph in the journal once the snapshot is open, so both files
+ * together always describe the current graph. On startup the snapshot is read, the journal is replayed
+ * (a record cut short by a crash is ignored) and a fresh snapshot is written, which empties the journal.
+ * Once the journal grows larger than the snapshot, the snapshot is rewritten from the graph in memory so that
+ * the journal does not grow without limit on a server that runs for a long time.
+ * <p/>
+ * If the journal cannot be written the snapshot is deleted, so that the next startup rebuilds the graph
+ * from the database instead of trusting a snapshot that missed changes.
+ */
+public class MatchGraphSnapshot {
+
+  public static final String SNAPSHOT_FILE_NAME = "matchGraph.snapshot";
+  public static final String JOURNAL_FILE_NAME = "matchGraph.journal";
+
+  //"SGMG"
+  private static final int MAGIC = 0x53474d47;
+  //2: encounters changed since the snapshot are found by Encounter.modifiedLong, which version 1 snapshots predate
+  private static final int VERSION = 2;
+
+  private static final byte JOURNAL_PUT = 1;
+  private static final byte JOURNAL_REMOVE = 2;
+
+  //the journal is not compacted before it reaches this size, however small the snapshot
+  private static final long MIN_COMPACTION_BYTES = 4 * 1024 * 1024;
+
+  private static File directory;
+  private static DataOutputStream journal;
+
+  //the time the current snapshot reflects the database, and its size
+  private static long snapshotTime = -1;
+  private static long snapshotBytes = 0;
+
+  private MatchGraphSnapshot() {
+  }
+
+  /**
+   * Reads the snapshot and journal in a directory into entries. Returns the time the snapshot was written,
+   * or -1 if there is no usable snapshot and the graph has to be rebuilt.
+   */
+  public static synchronized long read(File dir, Map<String, EncounterLite> entries) {
+    File snapshotFile = new File(dir, SNAPSHOT_FILE_NAME);
+    if (!snapshotFile.exists()) {
+      return -1;
+    }
+    long time = -1;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+      if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+        System.out.println("MatchGraphSnapshot: ignoring snapshot of unknown format: " + snapshotFile.getAbsolutePath());
+        return -1;
+      }
+      time = in.readLong();
+      int numEntries = in.readInt();
+      for (int i = 0; i < numEntries; i++) {
+        String elID = in.readUTF();
+        entries.put(elID, GridWireFormat.readEncounter(in));
+      }
+    }
+    catch (IOException ioe) {
+      System.out.println("MatchGraphSnapshot: could not read snapshot: " + snapshotFile.getAbsolutePath());
+      ioe.printStackTrace();
+      entries.clear();
+      return -1;
+    }
+    finally {
+      close(in);
+    }
+
+    int numReplayed = replayJournal(new File(dir, JOURNAL_FILE_NAME), entries);
+    System.out.println("MatchGraphSnapshot: read " + entries.size() + " entries and replayed " + numReplayed + " journal records.");
+    return time;
+  }
+
+  //replays journal records until the end of the journal or the first incomplete record
+  private static int replayJournal(File journalFile, Map<String, EncounterLite> entries) {
+    if (!journalFile.exists()) {
+      return 0;
+    }
+    int numReplayed = 0;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+      while (true) {
+        byte op = in.readByte();
+        String elID = in.readUTF();
+        if (op == JOURNAL_PUT) {
+          entries.put(elID, GridWireFormat.readEncounter(in));
+        } else if (op == JOURNAL_REMOVE) {
+          entries.remove(elID);
+        } else {
+          System.out.println("MatchGraphSnapshot: stopping journal replay at unknown record type " + op);
+          break;
+        }
+        numReplayed++;
+      }
+    }
+    catch (EOFException eof) {
+      //end of the journal
+    }
+    catch (IOException ioe) {
+      System.out.println("MatchGraphSnapshot: stopping journal replay at an unreadable record.");
+      ioe.printStackTrace();
+    }
+    finally {
+      close(in);
+    }
+    return numReplayed;
+  }
+
+  /**
+   * Writes a new snapshot of graph into dir, replacing the previous snapshot and journal, and starts
+   * journaling changes to the graph. time is stored as the time the snapshot reflects the database.
+   */
+  public static synchronized void write(File dir, Map<String, EncounterLite> graph, long time) {
+    closeJournal();
+    directory = dir;
+    File snapshotFile = new File(dir, SNAPSHOT_FILE_NAME);
+    File tempFile = new File(dir, SNAPSHOT_FILE_NAME + ".tmp");
+    DataOutputStream out = null;
+    try {
+      //copy the entries first, the graph may change while we write
+      ArrayList<Map.Entry<String, EncounterLite>> snapshotEntries = new ArrayList<Map.Entry<String, EncounterLite>>(graph.entrySet());
+
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(time);
+      out.writeInt(snapshotEntries.size());
+      Iterator<Map.Entry<String, EncounterLite>> iter = snapshotEntries.iterator();
+      while (iter.hasNext()) {
+        Map.Entry<String, EncounterLite> entry = iter.next();
+        out.writeUTF(entry.getKey());
+        GridWireFormat.writeEncounter(out, entry.getValue());
+      }
+      out.close();
+      out = null;
+
+      if (snapshotFile.exists() && !snapshotFile.delete()) {
+        throw new IOException("Unable to replace " + snapshotFile.getAbsolutePath());
+      }
+      if (!tempFile.renameTo(snapshotFile)) {
+        throw new IOException("Unable to rename " + tempFile.getAbsolutePath());
+      }
+      journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, JOURNAL_FILE_NAME), false)));
+      snapshotTime = time;
+      snapshotBytes = snapshotFile.length();
+      System.out.println("MatchGraphSnapshot: wrote " + snapshotEntries.size() + " entries to " + snapshotFile.getAbsolutePath());
+    }
+    catch (IOException ioe) {
+      System.out.println("MatchGraphSnapshot: could not write snapshot: " + snapshotFile.getAbsolutePath());
+      ioe.printStackTrace();
+      close(out);
+      tempFile.delete();
+      invalidate();
+    }
+  }
+
+  /**
+   * Records that an entry was added to or replaced in the match graph.
+   */
+  public static synchronized void recordPut(String elID, EncounterLite el) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.writeByte(JOURNAL_PUT);
+      journal.writeUTF(elID);
+      GridWireFormat.writeEncounter(journal, el);
+      journal.flush();
+    }
+    catch (IOException ioe) {
+      ioe.printStackTrace();
+      invalidate();
+      return;
+    }
+    compactIfNeeded();
+  }
+
+  /**
+   * Records that an entry was removed from the match graph.
+   */
+  public static synchronized void recordRemove(String elID) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.writeByte(JOURNAL_REMOVE);
+      journal.writeUTF(elID);
+      journal.flush();
+    }
+    catch (IOException ioe) {
+      ioe.printStackTrace();
+      invalidate();
+      return;
+    }
+    compactIfNeeded();
+  }
+
+  public static synchronized boolean isJournaling() {
+    return (journal != null);
+  }
+
+  //rewrites the snapshot from the match graph once the journal outgrows it. The snapshot keeps its time: the graph only
+  //follows the changes made through GridManager, so the next startup must still refresh everything stored since then.
+  private static void compactIfNeeded() {
+    if ((journal != null) && (journal.size() > Math.max(MIN_COMPACTION_BYTES, snapshotBytes))) {
+      System.out.println("MatchGraphSnapshot: compacting a journal of " + journal.size() + " bytes.");
+      write(directory, GridManager.getMatchGraph(), snapshotTime);
+    }
+  }
+
+  //stops journaling and deletes the snapshot, which no longer reflects the graph
+  private static void invalidate() {
+    closeJournal();
+    if (directory != null) {
+      System.out.println("MatchGraphSnapshot: deleting the snapshot, the match graph will be rebuilt on the next startup.");
+      new File(directory, SNAPSHOT_FILE_NAME).delete();
+      new File(directory, JOURNAL_FILE_NAME).delete();
+    }
+  }
+
+  private static void closeJournal() {
+    close(journal);
+    journal = null;
+  }
+
+  private static void close(java.io.Closeable c) {
+    if (c != null) {
+      try {
+        c.close();
+      }
+      catch (IOException ioe) {
+        ioe.printStackTrace();
+      }
+    }
+  }
+
+}
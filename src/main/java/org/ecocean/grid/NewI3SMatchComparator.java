@@ -34,7 +34,7 @@ public class NewI3SMatchComparator implements Comparator {
     if (a1_adjustedValue < b1_adjustedValue) {
       return -1;
     } else if (a1_adjustedValue == b1_adjustedValue) {
-      return 0;
+      return MatchComparator.compareEncounterNumbers(a1, b1);
     } else {
       return 1;
     }
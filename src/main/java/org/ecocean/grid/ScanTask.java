@@ -58,6 +58,9 @@ public class ScanTask implements Serializable {
   private boolean started = false;
   private int numComparisons = Integer.MAX_VALUE;
 
+  //if true, work items are executed by the LocalScanExecutor instead of remote grid nodes
+  private boolean localExecution = false;
+
 
   /**
    * empty constructor required by JDO Enhancer. DO NOT USE.
@@ -369,5 +372,13 @@ public class ScanTask implements Serializable {
     started = value;
   }
 
+  public boolean getLocalExecution() {
+    return localExecution;
+  }
+
+  public void setLocalExecution(boolean localExecution) {
+    this.localExecution = localExecution;
+  }
+
 
 }
\ No newline at end of file
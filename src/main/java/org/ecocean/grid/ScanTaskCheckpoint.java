@@ -0,0 +1,375 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+
+/**
+ * Keeps the progress of running ScanTasks on disk, so that a scan interrupted by a restart picks up where it
+ * left off instead of starting over.
+ * <p/>
+ * Each task has an append-only checkpoint file holding the settings it was created with followed by one record
+ * per completed work item: its unique number and MatchObject. GridManager appends a record for every result it
+ * accepts, and the code checking in results calls {@link #flush} once per checked-in group. Each task's checkpoint
+ * has its own lock, so tasks do not wait on each other. Work item unique numbers are made of the task ID and the catalog encounter number, so they identify
+ * the same comparison every time a task's work items are created.
+ * <p/>
+ * When ScanWorkItemCreationThread creates the work items of a task that has a checkpoint, it puts the recorded
+ * results back into the GridManager and only creates work items for the rest of the match graph. On startup,
+ * once the match graph is loaded, {@link #resumeTasks} does this for every task left with a checkpoint. A
+ * record cut short by a crash is ignored. The checkpoint is deleted by ScanTaskCleanupThread, when the task is
+ * written out, deleted or restarted.
+ */
+public class ScanTaskCheckpoint {
+
+  public static final String DIRECTORY_NAME = "scanTaskCheckpoints";
+  private static final String FILE_SUFFIX = ".checkpoint";
+
+  //"SGCP"
+  private static final int MAGIC = 0x53474350;
+  private static final int VERSION = 1;
+
+  private static final byte RECORD_RESULT = 1;
+
+  private static File directory;
+
+  //an open checkpoint, locked by itself while it is written
+  private static class Checkpoint {
+    DataOutputStream out;
+
+    Checkpoint(DataOutputStream out) {
+      this.out = out;
+    }
+  }
+
+  //open checkpoints by task ID. Opening and deleting also hold the class lock; recording and flushing do not.
+  private static final ConcurrentHashMap<String, Checkpoint> checkpoints = new ConcurrentHashMap<String, Checkpoint>();
+
+  private ScanTaskCheckpoint() {
+  }
+
+  /**
+   * Sets the directory checkpoints are kept in. Without one, tasks are not checkpointed.
+   */
+  public static synchronized void setDirectory(File dir) {
+    if ((dir != null) && !dir.isDirectory() && !dir.mkdirs()) {
+      System.out.println("ScanTaskCheckpoint: could not create " + dir.getAbsolutePath() + ", scan tasks will not be checkpointed.");
+      dir = null;
+    }
+    directory = dir;
+  }
+
+  public static synchronized boolean isEnabled() {
+    return (directory != null);
+  }
+
+  /**
+   * Starts checkpointing a task whose work items are about to be created, and returns the results already
+   * recorded for it, by work item unique number. A checkpoint of a different scan under the same task ID is
+   * discarded.
+   */
+  static synchronized Map<String, MatchObject> open(ScanWorkItemCreationThread task) {
+    LinkedHashMap<String, MatchObject> completed = new LinkedHashMap<String, MatchObject>();
+    if (directory == null) {
+      return completed;
+    }
+    close(checkpoints.remove(task.taskID));
+    File file = getFile(task.taskID);
+    if (file.exists()) {
+      ScanWorkItemCreationThread recorded = read(file, completed);
+      if ((recorded == null) || !recorded.encounterNumber.equals(task.encounterNumber) || (recorded.rightSide != task.rightSide)) {
+        completed.clear();
+      }
+    }
+
+    //rewrite the checkpoint without any incomplete last record, so that new records can be appended to it
+    File tempFile = new File(directory, file.getName() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      writeTask(out, task);
+      Iterator<Map.Entry<String, MatchObject>> it = completed.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, MatchObject> entry = it.next();
+        writeResult(out, entry.getKey(), entry.getValue());
+      }
+      out.close();
+      out = null;
+      if (file.exists() && !file.delete()) {
+        throw new IOException("Unable to replace " + file.getAbsolutePath());
+      }
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Unable to rename " + tempFile.getAbsolutePath());
+      }
+      checkpoints.put(task.taskID, new Checkpoint(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))));
+      if (completed.size() > 0) {
+        System.out.println("ScanTaskCheckpoint: resuming " + task.taskID + " with " + completed.size() + " completed work items.");
+      }
+    }
+    catch (IOException ioe) {
+      System.out.println("ScanTaskCheckpoint: could not write checkpoint: " + file.getAbsolutePath());
+      ioe.printStackTrace();
+      close(out);
+      tempFile.delete();
+    }
+    return completed;
+  }
+
+  /**
+   * Records a result accepted by the GridManager. The record is buffered until the next {@link #flush} of its task.
+   */
+  public static void record(ScanWorkItemResult swir) {
+    Checkpoint cp = checkpoints.get(swir.getUniqueNumberTask());
+    if (cp == null) {
+      return;
+    }
+    IOException failure = null;
+    synchronized (cp) {
+      if (cp.out == null) {
+        return;
+      }
+      try {
+        writeResult(cp.out, swir.getUniqueNumberWorkItem(), swir.getResult());
+      }
+      catch (IOException ioe) {
+        failure = ioe;
+      }
+    }
+    if (failure != null) {
+      fail(swir.getUniqueNumberTask(), failure);
+    }
+  }
+
+  /**
+   * Writes the buffered records of a task to disk. Called once per checked-in group of results rather than per result.
+   */
+  public static void flush(String taskID) {
+    Checkpoint cp = checkpoints.get(taskID);
+    if (cp == null) {
+      return;
+    }
+    IOException failure = null;
+    synchronized (cp) {
+      if (cp.out == null) {
+        return;
+      }
+      try {
+        cp.out.flush();
+      }
+      catch (IOException ioe) {
+        failure = ioe;
+      }
+    }
+    if (failure != null) {
+      fail(taskID, failure);
+    }
+  }
+
+  //a checkpoint missing results would resume the task with them lost, so the task starts over instead
+  private static void fail(String taskID, IOException ioe) {
+    System.out.println("ScanTaskCheckpoint: could not record a result, deleting the checkpoint of " + taskID);
+    ioe.printStackTrace();
+    delete(taskID);
+  }
+
+  /**
+   * Stops checkpointing a task and deletes its checkpoint.
+   */
+  public static synchronized void delete(String taskID) {
+    close(checkpoints.remove(taskID));
+    if (directory != null) {
+      getFile(taskID).delete();
+    }
+  }
+
+  /**
+   * Creates the remaining work items of every task that has a checkpoint but is not running, normally after a
+   * restart once the match graph has been loaded.
+   */
+  public static void resumeTasks() {
+    ArrayList<ScanWorkItemCreationThread> tasks = new ArrayList<ScanWorkItemCreationThread>();
+    synchronized (ScanTaskCheckpoint.class) {
+      if (directory == null) {
+        return;
+      }
+      File[] files = directory.listFiles();
+      if (files == null) {
+        return;
+      }
+      HashSet<String> taskIDs = new HashSet<String>();
+      for (int i = 0; i < files.length; i++) {
+        if (!files[i].getName().endsWith(FILE_SUFFIX)) {
+          continue;
+        }
+        ScanWorkItemCreationThread task = read(files[i], null);
+        if ((task != null) && !checkpoints.containsKey(task.taskID) && taskIDs.add(task.taskID)) {
+          tasks.add(task);
+        }
+      }
+    }
+    ThreadPoolExecutor es = SharkGridThreadExecutorService.getExecutorService();
+    for (int i = 0; i < tasks.size(); i++) {
+      System.out.println("ScanTaskCheckpoint: resuming interrupted scan task " + tasks.get(i).taskID);
+      es.execute(tasks.get(i));
+    }
+  }
+
+  //reads the task a checkpoint was created for and, if completed is not null, its results; returns null if the header is unreadable
+  private static ScanWorkItemCreationThread read(File file, Map<String, MatchObject> completed) {
+    ScanWorkItemCreationThread task = null;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      task = readTask(in);
+      if (task == null) {
+        System.out.println("ScanTaskCheckpoint: ignoring checkpoint of unknown format: " + file.getAbsolutePath());
+        return null;
+      }
+      while (completed != null) {
+        byte type = in.readByte();
+        if (type != RECORD_RESULT) {
+          System.out.println("ScanTaskCheckpoint: stopping at unknown record type " + type + " in " + file.getAbsolutePath());
+          break;
+        }
+        String wiID = in.readUTF();
+        MatchObject mo = null;
+        if (in.readBoolean()) {
+          mo = GridWireFormat.readMatchObject(in);
+        }
+        completed.put(wiID, mo);
+      }
+    }
+    catch (EOFException eof) {
+      //end of the checkpoint, or a header cut short
+    }
+    catch (IOException ioe) {
+      System.out.println("ScanTaskCheckpoint: stopping at an unreadable record in " + file.getAbsolutePath());
+      ioe.printStackTrace();
+    }
+    finally {
+      close(in);
+    }
+    return task;
+  }
+
+  private static void writeTask(DataOutputStream out, ScanWorkItemCreationThread task) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(task.taskID);
+    out.writeUTF(task.encounterNumber);
+    out.writeBoolean(task.rightSide);
+    out.writeBoolean(task.writeThis);
+    GridWireFormat.writeString(out, task.context);
+    GridWireFormat.writeString(out, task.jdoql);
+    out.writeBoolean(task.localExecution);
+    GridWireFormat.writeString(out, task.finishURL);
+    GridWireFormat.writeString(out, task.taxonomy);
+    GridWireFormat.writeString(out, task.sex);
+    out.writeInt((task.locationIDs == null) ? -1 : task.locationIDs.size());
+    if (task.locationIDs != null) {
+      Iterator<String> it = task.locationIDs.iterator();
+      while (it.hasNext()) {
+        out.writeUTF(it.next());
+      }
+    }
+    out.writeInt(task.nice);
+  }
+
+  private static ScanWorkItemCreationThread readTask(DataInputStream in) throws IOException {
+    if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+      return null;
+    }
+    String taskID = in.readUTF();
+    String encounterNumber = in.readUTF();
+    boolean rightSide = in.readBoolean();
+    boolean writeThis = in.readBoolean();
+    String context = GridWireFormat.readString(in);
+    String jdoql = GridWireFormat.readString(in);
+    boolean localExecution = in.readBoolean();
+    String finishURL = GridWireFormat.readString(in);
+    String taxonomy = GridWireFormat.readString(in);
+    String sex = GridWireFormat.readString(in);
+    int numLocationIDs = in.readInt();
+    ArrayList<String> locationIDs = null;
+    if (numLocationIDs >= 0) {
+      locationIDs = new ArrayList<String>(numLocationIDs);
+      for (int i = 0; i < numLocationIDs; i++) {
+        locationIDs.add(in.readUTF());
+      }
+    }
+    int nice = in.readInt();
+
+    ScanWorkItemCreationThread task = new ScanWorkItemCreationThread(taskID, rightSide, encounterNumber, writeThis, context, jdoql, localExecution, finishURL);
+    task.setFilters(taxonomy, sex, locationIDs);
+    task.setNice(nice);
+    return task;
+  }
+
+  private static void writeResult(DataOutputStream out, String wiID, MatchObject mo) throws IOException {
+    out.writeByte(RECORD_RESULT);
+    out.writeUTF(wiID);
+    out.writeBoolean(mo != null);
+    if (mo != null) {
+      GridWireFormat.writeMatchObject(out, mo);
+    }
+  }
+
+  //task IDs are "scanL" or "scanR" plus an encounter number, but keep the file name safe regardless
+  private static File getFile(String taskID) {
+    return new File(directory, taskID.replaceAll("[^A-Za-z0-9_.-]", "_") + FILE_SUFFIX);
+  }
+
+  private static void close(Checkpoint cp) {
+    if (cp != null) {
+      synchronized (cp) {
+        close(cp.out);
+        cp.out = null;
+      }
+    }
+  }
+
+  private static void close(java.io.Closeable c) {
+    if (c != null) {
+      try {
+        c.close();
+      }
+      catch (IOException ioe) {
+        ioe.printStackTrace();
+      }
+    }
+  }
+
+}
@@ -64,8 +64,10 @@ public class ScanTaskCleanupThread implements Runnable, ISharkGridThread {
 
 
       GridManager gm = GridManagerFactory.getGridManager();
+      LocalScanExecutor.cancelTask(taskID);
       gm.removeWorkItemsForTask(taskID);
       gm.removeCompletedWorkItemsForTask(taskID);
+      ScanTaskCheckpoint.delete(taskID);
 
 
     } catch (Exception e) {
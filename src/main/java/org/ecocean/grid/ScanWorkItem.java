@@ -26,8 +26,6 @@ package org.ecocean.grid;
 
 import com.reijns.I3S.Pair;
 import org.ecocean.Encounter;
-import org.ecocean.Spot;
-import org.ecocean.SuperSpot;
 
 import java.util.*;
 
@@ -55,6 +53,8 @@ public class ScanWorkItem implements java.io.Serializable {
   public Double Sizelim;
   public Double maxTriangleRotation;
   public Double C;
+  //descriptor distance above which a pair is not compared, null to compare every pair
+  public Double prefilterBound;
   private boolean secondRun;
   public boolean rightScan;
   private MatchObject result;
@@ -62,6 +62,16 @@ public class ScanWorkItem implements java.io.Serializable {
   private int totalWorkItemsInTask;
   private int workItemsCompleteInTask;
 
+  //pre-normalized I3S catalog of the scanned side, set by LocalScanExecutor for work items run in this JVM
+  private transient I3SCatalog i3sCatalog;
+
+  //pre-filter outcome of the last execute(), counted per batch by SpotPatternDescriptor.count
+  private transient boolean prefiltered;
+  private transient int prunedStage = -1;
+
+  //the score FingerPrint.distance gives a pair it cannot match
+  private static final double NO_I3S_MATCH = 1000000.0;
+
 
   /**
    * empty constructor required by JDO Enhancer. DO NOT USE.
@@ -83,6 +93,9 @@ public class ScanWorkItem implements java.io.Serializable {
     this.Sizelim = new Double(props.getProperty("Sizelim"));
     this.maxTriangleRotation = new Double(props.getProperty("maxTriangleRotation"));
     this.C = new Double(props.getProperty("C"));
+    if ((props.getProperty("prefilterBound") != null) && !props.getProperty("prefilterBound").trim().equals("")) {
+      this.prefilterBound = new Double(props.getProperty("prefilterBound"));
+    }
 
     //boolean read-ins
     this.secondRun = true;
@@ -112,6 +125,9 @@ public class ScanWorkItem implements java.io.Serializable {
     this.Sizelim = new Double(props.getProperty("Sizelim"));
     this.maxTriangleRotation = new Double(props.getProperty("maxTriangleRotation"));
     this.C = new Double(props.getProperty("C"));
+    if ((props.getProperty("prefilterBound") != null) && !props.getProperty("prefilterBound").trim().equals("")) {
+      this.prefilterBound = new Double(props.getProperty("prefilterBound"));
+    }
 
     //boolean read-ins
     this.secondRun = true;
@@ -129,6 +145,23 @@ public class ScanWorkItem implements java.io.Serializable {
 
   }
 
+  //used by GridWireFormat to rebuild a work item received by a grid node
+  ScanWorkItem(EncounterLite newEnc, EncounterLite existingEnc, String uniqueNum, String taskID, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, Double prefilterBound, boolean secondRun, boolean rightScan) {
+    this.newEncounter = newEnc;
+    this.existingEncounter = existingEnc;
+    this.uniqueNum = uniqueNum;
+    this.taskID = taskID;
+    this.epsilon = new Double(epsilon);
+    this.R = new Double(R);
+    this.Sizelim = new Double(Sizelim);
+    this.maxTriangleRotation = new Double(maxTriangleRotation);
+    this.C = new Double(C);
+    this.prefilterBound = prefilterBound;
+    this.secondRun = secondRun;
+    this.rightScan = rightScan;
+    createTime = System.currentTimeMillis();
+  }
+
   //public scanWorkItemResult getResult(){
   //return result;
   //}
@@ -169,46 +202,25 @@ public class ScanWorkItem implements java.io.Serializable {
    */
   public MatchObject execute() {
 
-
-    //determine which spots to pass in
-    SuperSpot[] newspotsTemp = new SuperSpot[0];
-    SuperSpot[] oldspotsTemp = new SuperSpot[0];
-    if (!rightScan) {
-      newspotsTemp = (SuperSpot[]) newEncounter.getSpots().toArray(newspotsTemp);
-      oldspotsTemp = (SuperSpot[]) existingEncounter.getSpots().toArray(oldspotsTemp);
-    } else {
-      newspotsTemp = (SuperSpot[]) newEncounter.getRightSpots().toArray(newspotsTemp);
-      oldspotsTemp = (SuperSpot[]) existingEncounter.getRightSpots().toArray(oldspotsTemp);
+    //cheap descriptor pre-filter, pairs that cannot match get a zero score without running Groth and I3S
+    prefiltered = (prefilterBound != null);
+    prunedStage = -1;
+    if (prefiltered) {
+      prunedStage = SpotPatternDescriptor.prune(newEncounter.getDescriptor(rightScan), existingEncounter.getDescriptor(rightScan), prefilterBound.doubleValue());
     }
-
-    //create a re-write of the new spots
-    ArrayList<SuperSpot> newGrothSpots = new ArrayList<SuperSpot>();
-    int spotLength = newspotsTemp.length;
-    for (int t = 0; t < spotLength; t++) {
-      newGrothSpots.add(new SuperSpot(new Spot(0, newspotsTemp[t].getTheSpot().getCentroidX(), newspotsTemp[t].getTheSpot().getCentroidY())));
-    }
-
-    //create a re-write of the old spots
-    ArrayList<SuperSpot> existingGrothSpots = new ArrayList<SuperSpot>();
-    int spotLength2 = oldspotsTemp.length;
-    for (int t = 0; t < spotLength2; t++) {
-      existingGrothSpots.add(new SuperSpot(new Spot(0, oldspotsTemp[t].getTheSpot().getCentroidX(), oldspotsTemp[t].getTheSpot().getCentroidY())));
+    if (prunedStage != -1) {
+      i3sResult = new I3SMatchObject(existingEncounter.getBelongsToMarkedIndividual(), NO_I3S_MATCH, existingEncounter.getEncounterNumber(), existingEncounter.getSex(), existingEncounter.getDate(), existingEncounter.getSize(), new TreeMap(), 0);
+      MatchObject pruned = new MatchObject(existingEncounter.getBelongsToMarkedIndividual(), 0, 0, existingEncounter.getEncounterNumber());
+      pruned.setI3SValues(new Vector(), NO_I3S_MATCH);
+      done = true;
+      return pruned;
     }
 
-
-    MatchObject result = existingEncounter.getPointsForBestMatch(newspotsTemp, epsilon.doubleValue(), R.doubleValue(), Sizelim.doubleValue(), maxTriangleRotation.doubleValue(), C.doubleValue(), secondRun, rightScan);
+    //triangle sets for both encounters come from the TriangleSetCache
+    MatchObject result = existingEncounter.getPointsForBestMatch(newEncounter, epsilon.doubleValue(), R.doubleValue(), Sizelim.doubleValue(), maxTriangleRotation.doubleValue(), C.doubleValue(), secondRun, rightScan);
 
     //I3S processing
 
-    //reset the spot patterns after Groth processing
-    if (!rightScan) {
-      newEncounter.processLeftSpots(newGrothSpots);
-      existingEncounter.processLeftSpots(existingGrothSpots);
-    } else {
-      newEncounter.processRightSpots(newGrothSpots);
-      existingEncounter.processRightSpots(existingGrothSpots);
-    }
-
     //adjust for scale
     double[] matrix = new double[6];
     com.reijns.I3S.Point2D[] comapare2mePoints = new com.reijns.I3S.Point2D[0];
@@ -221,7 +233,13 @@ public class ScanWorkItem implements java.io.Serializable {
     //comapare2mePoints=existingEncounter.getThreeLeftFiducialPoints();
     //lookForThisEncounterPoints=newEncounter.getThreeLeftFiducialPoints();
     //}
-    i3sResult = existingEncounter.i3sScan(newEncounter, rightScan);
+    i3sResult = null;
+    if ((i3sCatalog != null) && (i3sCatalog.isRightSide() == rightScan)) {
+      i3sResult = i3sCatalog.match(newEncounter, existingEncounter);
+    }
+    if (i3sResult == null) {
+      i3sResult = existingEncounter.i3sScan(newEncounter, rightScan);
+    }
 
     //create a Vector of Points
     Vector points = new Vector();
@@ -289,6 +307,28 @@ public class ScanWorkItem implements java.io.Serializable {
     this.nice = nice;
   }
 
+  /**
+   * Sets the I3SCatalog used for the I3S score of this work item. Work items whose existing encounter is
+   * not in the catalog, or that have no catalog, use EncounterLite.i3sScan.
+   */
+  public void setI3SCatalog(I3SCatalog i3sCatalog) {
+    this.i3sCatalog = i3sCatalog;
+  }
+
+  /**
+   * Returns true if the last execute() ran the descriptor pre-filter on this pair.
+   */
+  public boolean isPrefiltered() {
+    return prefiltered;
+  }
+
+  /**
+   * Returns the SpotPatternDescriptor stage that pruned this pair in the last execute(), or -1 if it was compared.
+   */
+  public int getPrunedStage() {
+    return prunedStage;
+  }
+
   public MatchObject getResult() {
     return result;
   }
@@ -331,6 +371,10 @@ public class ScanWorkItem implements java.io.Serializable {
     workItemsCompleteInTask = num;
   }
 
+  public boolean isSecondRun() {
+    return secondRun;
+  }
+
   public boolean isRightScan() {
     return rightScan;
   }
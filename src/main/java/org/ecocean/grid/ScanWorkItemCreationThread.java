@@ -23,13 +23,15 @@ import org.ecocean.Encounter;
 //import org.ecocean.Occurrence;
 import org.ecocean.Shepherd;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import javax.jdo.Query;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Enumeration;
 
 
 public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
@@ -44,6 +46,19 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
   GridManager gm;
   String context="context0";
   String jdoql="SELECT FROM org.ecocean.Encounter";
+  boolean localExecution = false;
+  String finishURL = null;
+
+  //scan filters, null to compare against every pattern
+  String taxonomy = null;
+  String sex = null;
+  Set<String> locationIDs = null;
+
+  //scheduling priority of the work items, see WorkItemStore.checkout
+  int nice = 0;
+
+  //number of work items handed to the LocalScanExecutor at once
+  private static final int LOCAL_SUBMIT_SIZE = 100;
 
   /**
    * Constructor to create a new thread object
@@ -70,6 +85,37 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
   }
 
 
+  /**
+   * Constructor for a task whose work items are executed in this JVM by the LocalScanExecutor, if localExecution
+   * is true. finishURL is the URL posted to once all work items have completed, normally the WriteOutScanTask servlet.
+   * Grid tasks are finished when a node checks in their last result, so they only post to it when there is no work
+   * left for the nodes.
+   */
+  public ScanWorkItemCreationThread(String taskID, boolean rightSide, String encounterNum, boolean writeThis, String context, String jdoql, boolean localExecution, String finishURL) {
+    this(taskID, rightSide, encounterNum, writeThis, context, jdoql);
+    this.localExecution = localExecution;
+    this.finishURL = finishURL;
+  }
+
+
+  /**
+   * Limits the scan to patterns of one taxonomy ("" for encounters without one), sex and set of location IDs.
+   * A null or empty filter does not limit the scan.
+   */
+  public void setFilters(String taxonomy, String sex, Collection<String> locationIDs) {
+    this.taxonomy = taxonomy;
+    this.sex = ((sex == null) || sex.trim().equals("")) ? null : sex.trim();
+    this.locationIDs = ((locationIDs == null) || locationIDs.isEmpty()) ? null : new HashSet<String>(locationIDs);
+  }
+
+  /**
+   * Sets the nice value of the task's work items. Interactive scans keep the default of 0; bulk rescans should
+   * use a higher value so that they yield to interactive scans queued after them.
+   */
+  public void setNice(int nice) {
+    this.nice = nice;
+  }
+
   /**
    * main method of the shepherd thread
    */
@@ -107,6 +153,7 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
     props2.setProperty("maxTriangleRotation", gm.getGrothMaxTriangleRotation());
     props2.setProperty("C", gm.getGrothC());
     props2.setProperty("secondRun", gm.getGrothSecondRun());
+    props2.setProperty("prefilterBound", gm.getPrefilterBound());
 
 
     
@@ -120,7 +167,17 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
     //now, add the workItems
     //myShepherd.beginDBTransaction();
     Query query=null;
+    ArrayList<ScanWorkItem> localItems = new ArrayList<ScanWorkItem>();
+    if (localExecution) {
+      LocalScanExecutor.startTask(taskID, finishURL);
+    }
     try {
+      //results recorded before a restart are put back, and their work items are not created again
+      Map<String,MatchObject> completed = ScanTaskCheckpoint.open(this);
+      if (completed.size() > 0) {
+        gm.restoreResults(taskID, completed);
+      }
+
       //Iterator encounters = myShepherd.getAllEncountersNoQuery();
       
       //query=myShepherd.getPM().newQuery(jdoql);
@@ -128,44 +185,53 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
       //System.out.println("Num scans to do: "+c.size());
       //Iterator encounters = c.iterator();
 
-      ConcurrentHashMap<String,EncounterLite> chm= gm.getMatchGraph();
-      Enumeration<String> keys=chm.keys();
+      //only the partitions of the scanned side (and taxonomy, if filtered) hold patterns we can compare against
+      ArrayList<Map<String,EncounterLite>> partitions = GridManager.getMatchGraphPartitions(rightSide, taxonomy);
      
       int count = 0;
+      int numRestored = 0;
 
-      while (keys.hasMoreElements()) {
-        //System.out.println("     Iterating encounters to create scanWorkItems...");
-        String kv=keys.nextElement();
-        EncounterLite el=chm.get(kv);
-        //Encounter enc = (Encounter) encounters.next();
-        if (!kv.equals(encounterNumber)) {
-          String wiIdentifier = taskID + "_" + (new Integer(count)).toString();
-          if (rightSide && (el.getRightSpots() != null) && (el.getRightSpots().size() > 0)) {
-            //add the workItem
-            ScanWorkItem swi = new ScanWorkItem(baseEnc, el, wiIdentifier, taskID, props2);
-            //String uniqueNum = swi.getUniqueNumber();
-
-            gm.addWorkItem(swi);
-
-            //System.out.println("Added a new right-side scan task!");
-            count++;
-          } 
-          else if (!rightSide && (el.getSpots() != null) && (el.getSpots().size() > 0)) {
+      for (Map<String,EncounterLite> partition : partitions) {
+        for (Map.Entry<String,EncounterLite> entry : partition.entrySet()) {
+          //System.out.println("     Iterating encounters to create scanWorkItems...");
+          String kv=entry.getKey();
+          EncounterLite el=entry.getValue();
+          if (!kv.equals(encounterNumber) && matchesFilters(el)) {
+            //the same comparison gets the same identifier every time the task's work items are created, see ScanTaskCheckpoint
+            String wiIdentifier = taskID + "_" + kv;
+            if (completed.containsKey(wiIdentifier)) {
+              numRestored++;
+              continue;
+            }
             //add the workItem
             ScanWorkItem swi = new ScanWorkItem(baseEnc, el, wiIdentifier, taskID, props2);
-
+            swi.setNice(nice);
             //String uniqueNum = swi.getUniqueNumber();
 
+            addWorkItem(swi, localItems);
 
-            gm.addWorkItem(swi);
-            //System.out.println("Added a new left-side scan task: " + count);
+            //System.out.println("Added a new scan work item: " + count);
             count++;
           }
         }
+      }
+      System.out.println("ScanWorkItemCreationThread: created " + count + " work items for " + taskID + " from " + partitions.size() + " match graph partition(s), " + numRestored + " already completed.");
 
+      //no node will check in a result of a grid task resumed with every result in its checkpoint, or of a scan
+      //whose filters match no pattern, so finish it here. Local tasks are finished by the LocalScanExecutor.
+      if (!localExecution && (count == 0)) {
+        if (numRestored == 0) {
+          System.out.println("ScanWorkItemCreationThread: no patterns match the filters of " + taskID + ", finishing it with no matches.");
+        }
+        finishGridTask();
       }
 
 
+      if (localExecution) {
+        LocalScanExecutor.submit(taskID, localItems);
+        localItems.clear();
+      }
+
       //System.out.println("Trying to commit the add of the scanWorkItems after leaving loop");
       //myShepherd.rollbackDBTransaction();
       
@@ -180,9 +246,43 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
     finally{
       if(query!=null){query.closeAll();}
       //myShepherd.closeDBTransaction();
+      if (localExecution) {
+        LocalScanExecutor.endSubmission(taskID);
+      }
     }
 
   }
 
+  private void finishGridTask() {
+    if (finishURL == null) {
+      System.out.println("ScanWorkItemCreationThread: " + taskID + " has no work items left but no URL to finish it with. Restart it from scanTaskAdmin.jsp.");
+      return;
+    }
+    LocalScanExecutor.finishScanTask(taskID, finishURL);
+  }
+
+  private boolean matchesFilters(EncounterLite el) {
+    if ((sex != null) && !sex.equals(el.getSex())) {
+      return false;
+    }
+    if ((locationIDs != null) && !locationIDs.contains(el.getLocationID())) {
+      return false;
+    }
+    return true;
+  }
+
+  //queue the work item for the grid nodes or, for local tasks, hand it to the LocalScanExecutor in groups
+  private void addWorkItem(ScanWorkItem swi, ArrayList<ScanWorkItem> localItems) {
+    if (!localExecution) {
+      gm.addWorkItem(swi);
+      return;
+    }
+    localItems.add(swi);
+    if (localItems.size() >= LOCAL_SUBMIT_SIZE) {
+      LocalScanExecutor.submit(taskID, localItems);
+      localItems.clear();
+    }
+  }
+
 
 }
\ No newline at end of file
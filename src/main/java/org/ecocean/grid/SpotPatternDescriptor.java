@@ -0,0 +1,217 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import com.reijns.I3S.Affine;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Cheap shape summary of one side's spot pattern, used by ScanWorkItem to skip pairs that cannot match
+ * before running the Groth and I3S matchers.
+ * <p/>
+ * A descriptor holds the number of spots and, if the side has three reference spots, two summaries of the
+ * spots after the same reference-spot normalization I3S uses: the aspect ratio of their bounding box and
+ * a histogram of their distances from the centre of the reference spots, in rings of RING_WIDTH. Each
+ * stage of {@link #prune} turns one of these into a distance between 0 (same shape) and 1, and a pair is
+ * pruned by the first stage whose distance exceeds the bound. Stages are ordered by cost, and patterns
+ * without reference spots are only compared by spot count.
+ * <p/>
+ * The number of pairs compared and pruned by each stage are counted JVM-wide, so a grid node counts the
+ * pairs it executed and the server counts the pairs executed by LocalScanExecutor. prune itself counts
+ * nothing: ScanWorkItem records its outcome and {@link #count} adds up a whole batch of executed work
+ * items, so that the threads of a scan do not contend for the counters on every pair.
+ */
+public class SpotPatternDescriptor {
+
+  public static final int STAGE_SPOT_COUNT = 0;
+  public static final int STAGE_ASPECT = 1;
+  public static final int STAGE_RADIAL = 2;
+  public static final int NUM_STAGES = 3;
+
+  private static final String[] STAGE_NAMES = {"spot count", "bounding box aspect", "radial histogram"};
+
+  //rings of the radial histogram, in normalized coordinates; the reference spots are 800 apart
+  static final int NUM_RINGS = 8;
+  static final double RING_WIDTH = 100;
+
+  //where doAffine in EncounterLite maps the three reference spots
+  private static final double[] TARGET_X = {100, 900, 500};
+  private static final double[] TARGET_Y = {100, 100, 700};
+  private static final double CENTER_X = (TARGET_X[0] + TARGET_X[1] + TARGET_X[2]) / 3;
+  private static final double CENTER_Y = (TARGET_Y[0] + TARGET_Y[1] + TARGET_Y[2]) / 3;
+
+  private static final AtomicLong numCompared = new AtomicLong();
+  private static final AtomicLongArray numPruned = new AtomicLongArray(NUM_STAGES);
+
+  final int numSpots;
+  final boolean normalized;
+  final double aspect;
+  final double[] rings;
+
+  private SpotPatternDescriptor(int numSpots, boolean normalized, double aspect, double[] rings) {
+    this.numSpots = numSpots;
+    this.normalized = normalized;
+    this.aspect = aspect;
+    this.rings = rings;
+  }
+
+  /**
+   * Builds the descriptor of a pattern. refX and refY may be null if the side has no reference spots.
+   */
+  static SpotPatternDescriptor create(double[] spotsX, double[] spotsY, double[] refX, double[] refY) {
+    int numSpots = (spotsX == null) ? 0 : spotsX.length;
+    if ((numSpots < 2) || (refX == null) || (refY == null) || (refX.length != 3) || (refY.length != 3)) {
+      return new SpotPatternDescriptor(numSpots, false, 0, null);
+    }
+
+    double[] matrix = new double[6];
+    Affine.calcAffine(refX[0], refY[0], refX[1], refY[1], refX[2], refY[2], TARGET_X[0], TARGET_Y[0], TARGET_X[1], TARGET_Y[1], TARGET_X[2], TARGET_Y[2], matrix);
+
+    double minX = Double.MAX_VALUE;
+    double maxX = -Double.MAX_VALUE;
+    double minY = Double.MAX_VALUE;
+    double maxY = -Double.MAX_VALUE;
+    double[] rings = new double[NUM_RINGS];
+    for (int i = 0; i < numSpots; i++) {
+      double x = matrix[0] * spotsX[i] + matrix[1] * spotsY[i] + matrix[2];
+      double y = matrix[3] * spotsX[i] + matrix[4] * spotsY[i] + matrix[5];
+      if (Double.isNaN(x) || Double.isNaN(y) || Double.isInfinite(x) || Double.isInfinite(y)) {
+        //collinear reference spots
+        return new SpotPatternDescriptor(numSpots, false, 0, null);
+      }
+      minX = Math.min(minX, x);
+      maxX = Math.max(maxX, x);
+      minY = Math.min(minY, y);
+      maxY = Math.max(maxY, y);
+
+      double dx = x - CENTER_X;
+      double dy = y - CENTER_Y;
+      int ring = (int) (Math.sqrt((dx * dx) + (dy * dy)) / RING_WIDTH);
+      rings[Math.min(ring, NUM_RINGS - 1)] += 1.0 / numSpots;
+    }
+    //one unit keeps a pattern of collinear spots finite; it is negligible at the normalized scale
+    double aspect = (maxX - minX + 1) / (maxY - minY + 1);
+    return new SpotPatternDescriptor(numSpots, true, aspect, rings);
+  }
+
+  /**
+   * Returns the stage that rules out a match between two patterns, or -1 if the pair has to be compared.
+   * A bound of 1 or more prunes nothing but pairs where one side has no spots at all.
+   */
+  public static int prune(SpotPatternDescriptor a, SpotPatternDescriptor b, double bound) {
+    int stage = -1;
+    if (getSpotCountDistance(a, b) > bound) {
+      stage = STAGE_SPOT_COUNT;
+    } else if (a.normalized && b.normalized) {
+      if (getAspectDistance(a, b) > bound) {
+        stage = STAGE_ASPECT;
+      } else if (getRadialDistance(a, b) > bound) {
+        stage = STAGE_RADIAL;
+      }
+    }
+    return stage;
+  }
+
+  /**
+   * Adds the pre-filter outcomes of the executed work items from start (inclusive) to end (exclusive) to the
+   * JVM-wide counts. Work items that were not executed, or ran without a bound, are not counted.
+   */
+  public static void count(List<ScanWorkItem> items, int start, int end) {
+    long compared = 0;
+    long[] pruned = new long[NUM_STAGES];
+    for (int i = start; i < end; i++) {
+      ScanWorkItem swi = items.get(i);
+      if (swi.isPrefiltered()) {
+        compared++;
+        if (swi.getPrunedStage() != -1) {
+          pruned[swi.getPrunedStage()]++;
+        }
+      }
+    }
+    if (compared == 0) {
+      return;
+    }
+    numCompared.addAndGet(compared);
+    for (int i = 0; i < NUM_STAGES; i++) {
+      if (pruned[i] > 0) {
+        numPruned.addAndGet(i, pruned[i]);
+      }
+    }
+  }
+
+  //1 - smaller spot count / larger spot count
+  static double getSpotCountDistance(SpotPatternDescriptor a, SpotPatternDescriptor b) {
+    int max = Math.max(a.numSpots, b.numSpots);
+    if (max == 0) {
+      return 0;
+    }
+    return 1.0 - ((double) Math.min(a.numSpots, b.numSpots) / max);
+  }
+
+  //1 - smaller aspect ratio / larger aspect ratio
+  static double getAspectDistance(SpotPatternDescriptor a, SpotPatternDescriptor b) {
+    return 1.0 - (Math.min(a.aspect, b.aspect) / Math.max(a.aspect, b.aspect));
+  }
+
+  //share of spots that would have to move to another ring to turn one histogram into the other
+  static double getRadialDistance(SpotPatternDescriptor a, SpotPatternDescriptor b) {
+    double sum = 0;
+    for (int i = 0; i < NUM_RINGS; i++) {
+      sum += Math.abs(a.rings[i] - b.rings[i]);
+    }
+    return sum / 2;
+  }
+
+  public int getNumSpots() {
+    return numSpots;
+  }
+
+  public static String getStageName(int stage) {
+    return STAGE_NAMES[stage];
+  }
+
+  public static long getNumCompared() {
+    return numCompared.get();
+  }
+
+  public static long getNumPruned(int stage) {
+    return numPruned.get(stage);
+  }
+
+  public static long getNumPruned() {
+    long total = 0;
+    for (int i = 0; i < NUM_STAGES; i++) {
+      total += numPruned.get(i);
+    }
+    return total;
+  }
+
+  public static void resetCounts() {
+    numCompared.set(0);
+    for (int i = 0; i < NUM_STAGES; i++) {
+      numPruned.set(i, 0);
+    }
+  }
+
+}
@@ -0,0 +1,483 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+
+/**
+ * Packed, primitive form of the Groth triangles built from one spot pattern.
+ * <p/>
+ * Holds the (optionally normalized) spot coordinates plus one entry per kept triangle in parallel
+ * arrays, sorted by ascending R exactly as <code>Arrays.sort(SpotTriangle[], new RComparator())</code>
+ * would order the equivalent <code>SpotTriangle</code> objects. Instances are reusable: calling
+ * {@link #setSpots(double[], double[], int, boolean)} and {@link #build(double, double, double, double, boolean)}
+ * again only grows the backing arrays when a bigger pattern comes along.
+ * <p/>
+ * Keeping each value in its own array also lets the tolerance tests of the triangle matching run as
+ * plain arithmetic loops over consecutive triangles, see {@link #getShapeFits}, which the JIT
+ * can compile to SIMD instructions.
+ *
+ * @see SpotTriangle
+ * @see GrothMatcher
+ */
+public class SpotTriangleSet {
+
+  //spot coordinates the triangles were built from
+  double[] spotX = new double[0];
+  double[] spotY = new double[0];
+
+  //index of the first spot with identical coordinates, so that coordinate equality becomes int equality
+  int[] canon = new int[0];
+  int numSpots = 0;
+  double normFactor = 1;
+
+  //per triangle values, sorted by ascending R
+  double[] R = new double[0];
+  double[] C = new double[0];
+  double[] tR2 = new double[0];
+  double[] tC2 = new double[0];
+  double[] D13 = new double[0];
+  double[] logPerimeter = new double[0];
+  double[] rotation = new double[0];
+  boolean[] clockwise = new boolean[0];
+  int[] v1 = new int[0];
+  int[] v2 = new int[0];
+  int[] v3 = new int[0];
+  int numTriangles = 0;
+
+  //longest side and shortest pair distance over all triangles, before filtering
+  double span = -1;
+  double closePairDist = 9999;
+
+  //sort scratch
+  private int[] order = new int[0];
+  private int[] orderTmp = new int[0];
+  private double[] doubleTmp = new double[0];
+  private int[] intTmp = new int[0];
+  private boolean[] booleanTmp = new boolean[0];
+
+
+  public SpotTriangleSet() {
+  }
+
+  /**
+   * Loads a spot pattern into this set. When normalize is true, coordinates are divided by the
+   * largest x or y value of the pattern, as done by the modified Groth algorithm.
+   */
+  public void setSpots(double[] x, double[] y, int length, boolean normalize) {
+    if (spotX.length < length) {
+      spotX = new double[length];
+      spotY = new double[length];
+      canon = new int[length];
+    }
+    numSpots = length;
+    normFactor = 1;
+    if (normalize) {
+      double xMax = 0;
+      double yMax = 0;
+      for (int i = 0; i < length; i++) {
+        if (x[i] > xMax) {
+          xMax = x[i];
+        }
+      }
+      for (int i = 0; i < length; i++) {
+        if (y[i] > yMax) {
+          yMax = y[i];
+        }
+      }
+      if (xMax > yMax) {
+        normFactor = xMax;
+      } else {
+        normFactor = yMax;
+      }
+      for (int i = 0; i < length; i++) {
+        spotX[i] = x[i] / normFactor;
+        spotY[i] = y[i] / normFactor;
+      }
+    } else {
+      System.arraycopy(x, 0, spotX, 0, length);
+      System.arraycopy(y, 0, spotY, 0, length);
+    }
+    for (int i = 0; i < length; i++) {
+      canon[i] = i;
+      for (int j = 0; j < i; j++) {
+        if ((spotX[j] == spotX[i]) && (spotY[j] == spotY[i])) {
+          canon[i] = canon[j];
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds every triangle of the loaded spots, keeps those with R and C under the given limits
+   * and, if applySizelim is set, drops triangles whose longest side is at least Sizelim of the pattern span.
+   */
+  public void build(double epsilon, double maxR, double maxC, double sizelim, boolean applySizelim) {
+    int n = numSpots;
+    int capacity = (n < 3) ? 0 : (n * (n - 1) * (n - 2) / 6);
+    ensureTriangleCapacity(capacity);
+    numTriangles = 0;
+    span = -1;
+    closePairDist = 9999;
+
+    for (int i = 0; i < n - 2; i++) {
+      for (int j = i + 1; j < n - 1; j++) {
+        for (int k = j + 1; k < n; k++) {
+          addTriangle(i, j, k, epsilon, maxR, maxC);
+        }
+      }
+    }
+
+    if (applySizelim) {
+      int kept = 0;
+      for (int t = 0; t < numTriangles; t++) {
+        if (!(D13[t] / span >= sizelim)) {
+          if (kept != t) {
+            copyTriangle(t, kept);
+          }
+          kept++;
+        }
+      }
+      numTriangles = kept;
+    }
+
+    sortByR();
+  }
+
+  /**
+   * Computes, for the triangles from start (inclusive) to end (exclusive), how far each is inside the R and
+   * C tolerances of triangle A: rFit[i - start] is (tRA2 + tR2) - (RA - R)^2 and cFit[i - start] is
+   * (tCA2 + tC2) - (CA - C)^2. Only triangles with both values above 0 can pass the tolerance tests of the
+   * Groth matching, (RA - R)^2 / (tRA2 + tR2) < 1 and the same for C, so the caller only has to run those
+   * tests, with their divisions, on them.
+   * <p/>
+   * The loops have no branches, calls or divisions, so the JIT can vectorize them.
+   */
+  public void getShapeFits(int start, int end, double RA, double tRA2, double CA, double tCA2, double[] rFit, double[] cFit) {
+    double[] R = this.R;
+    double[] tR2 = this.tR2;
+    double[] C = this.C;
+    double[] tC2 = this.tC2;
+    int n = end - start;
+    for (int k = 0; k < n; k++) {
+      double dR = RA - R[start + k];
+      rFit[k] = (tRA2 + tR2[start + k]) - (dR * dR);
+    }
+    for (int k = 0; k < n; k++) {
+      double dC = CA - C[start + k];
+      cFit[k] = (tCA2 + tC2[start + k]) - (dC * dC);
+    }
+  }
+
+  public int getNumTriangles() {
+    return numTriangles;
+  }
+
+  public int getNumSpots() {
+    return numSpots;
+  }
+
+  public double getNormFactor() {
+    return normFactor;
+  }
+
+  public double getSpan() {
+    return span;
+  }
+
+  public double getClosePairDist() {
+    return closePairDist;
+  }
+
+  /**
+   * Returns a copy of this set with arrays trimmed to the current number of spots and triangles,
+   * suitable for long-lived caching.
+   */
+  public SpotTriangleSet compactCopy() {
+    SpotTriangleSet copy = new SpotTriangleSet();
+    int n = numSpots;
+    int t = numTriangles;
+    copy.spotX = copyOf(spotX, n);
+    copy.spotY = copyOf(spotY, n);
+    copy.canon = copyOf(canon, n);
+    copy.numSpots = n;
+    copy.normFactor = normFactor;
+    copy.R = copyOf(R, t);
+    copy.C = copyOf(C, t);
+    copy.tR2 = copyOf(tR2, t);
+    copy.tC2 = copyOf(tC2, t);
+    copy.D13 = copyOf(D13, t);
+    copy.logPerimeter = copyOf(logPerimeter, t);
+    copy.rotation = copyOf(rotation, t);
+    copy.clockwise = new boolean[t];
+    System.arraycopy(clockwise, 0, copy.clockwise, 0, t);
+    copy.v1 = copyOf(v1, t);
+    copy.v2 = copyOf(v2, t);
+    copy.v3 = copyOf(v3, t);
+    copy.numTriangles = t;
+    copy.span = span;
+    copy.closePairDist = closePairDist;
+    return copy;
+  }
+
+  private static double[] copyOf(double[] values, int n) {
+    double[] copy = new double[n];
+    System.arraycopy(values, 0, copy, 0, n);
+    return copy;
+  }
+
+  private static int[] copyOf(int[] values, int n) {
+    int[] copy = new int[n];
+    System.arraycopy(values, 0, copy, 0, n);
+    return copy;
+  }
+
+  //mirrors the SpotTriangle constructor and getMyVertexOneRotationInRadians() operation for operation
+  private void addTriangle(int i, int j, int k, double epsilon, double maxR, double maxC) {
+    double ix = spotX[i], iy = spotY[i];
+    double jx = spotX[j], jy = spotY[j];
+    double kx = spotX[k], ky = spotY[k];
+    double Dij = distance(ix, iy, jx, jy);
+    double Dik = distance(ix, iy, kx, ky);
+    double Djk = distance(jx, jy, kx, ky);
+    double Dxl, Dyl, Dxs, Dys, d12, d13, d23;
+    int a1, a2, a3;
+    if ((Dik >= Djk) && (Dik >= Dij)) {
+      a2 = j;
+      d13 = Dik;
+      if (Djk >= Dij) {
+        Dxl = ix - kx;
+        Dyl = iy - ky;
+        Dxs = jx - ix;
+        Dys = jy - iy;
+        d12 = Dij;
+        d23 = Djk;
+        a1 = i;
+        a3 = k;
+      } else {
+        Dxl = -ix + kx;
+        Dyl = -iy + ky;
+        Dxs = -kx + jx;
+        Dys = -ky + jy;
+        d12 = Djk;
+        d23 = Dij;
+        a1 = k;
+        a3 = i;
+      }
+    } else if ((Djk > Dik) && (Djk >= Dij)) {
+      a2 = i;
+      d13 = Djk;
+      if (Dik >= Dij) {
+        Dxl = -kx + jx;
+        Dyl = -ky + jy;
+        Dxs = -jx + ix;
+        Dys = -jy + iy;
+        d12 = Dij;
+        d23 = Dik;
+        a1 = j;
+        a3 = k;
+      } else {
+        Dxl = kx - jx;
+        Dyl = ky - jy;
+        Dxs = ix - kx;
+        Dys = iy - ky;
+        d12 = Dik;
+        d23 = Dij;
+        a1 = k;
+        a3 = j;
+      }
+    } else {
+      a2 = k;
+      d13 = Dij;
+      if (Dik >= Djk) {
+        Dxl = jx - ix;
+        Dyl = jy - iy;
+        Dxs = kx - jx;
+        Dys = ky - jy;
+        d12 = Djk;
+        d23 = Dik;
+        a1 = j;
+        a3 = i;
+      } else {
+        Dxl = -jx + ix;
+        Dyl = -jy + iy;
+        Dxs = -ix + kx;
+        Dys = -iy + ky;
+        d12 = Dik;
+        d23 = Djk;
+        a1 = i;
+        a3 = j;
+      }
+    }
+
+    if (d13 > span) {
+      span = d13;
+    }
+    if (d12 < closePairDist) {
+      closePairDist = d12;
+    }
+
+    double r3 = d13;
+    double r2 = d12;
+    double tR = r3 / r2;
+    double tC = -(Dxl * Dxs + Dyl * Dys) / (r2 * r3);
+    if (!((tR <= maxR) && (tC <= maxC))) {
+      return;
+    }
+
+    double S2 = 1.0 - (tC * tC);
+    double VarFact = 1.0 / (r3 * r3) - tC / (r3 * r2) + 1.0 / (r2 * r2);
+    int t = numTriangles;
+    R[t] = tR;
+    C[t] = tC;
+    tR2[t] = tR * tR * epsilon * epsilon * 2 * VarFact;
+    tC2[t] = 2 * S2 * epsilon * epsilon * VarFact + 3 * tC * tC * Math.pow(epsilon, 4) * VarFact * VarFact;
+    D13[t] = d13;
+    logPerimeter[t] = Math.log(d12 + d13 + d23);
+    clockwise[t] = ((Dxs * Dyl - Dxl * Dys) > 0.0);
+    v1[t] = a1;
+    v2[t] = a2;
+    v3[t] = a3;
+
+    double x1 = spotX[a1];
+    double y1 = spotY[a1];
+    double centroidX = (x1 + spotX[a2] + spotX[a3]) / 3;
+    double centroidY = (y1 + spotY[a2] + spotY[a3]) / 3;
+    rotation[t] = Math.atan2(y1 - centroidY, x1 - centroidX);
+
+    numTriangles++;
+  }
+
+  private static double distance(double x1, double y1, double x2, double y2) {
+    x1 -= x2;
+    y1 -= y2;
+    return Math.sqrt(x1 * x1 + y1 * y1);
+  }
+
+  private void copyTriangle(int from, int to) {
+    R[to] = R[from];
+    C[to] = C[from];
+    tR2[to] = tR2[from];
+    tC2[to] = tC2[from];
+    D13[to] = D13[from];
+    logPerimeter[to] = logPerimeter[from];
+    rotation[to] = rotation[from];
+    clockwise[to] = clockwise[from];
+    v1[to] = v1[from];
+    v2[to] = v2[from];
+    v3[to] = v3[from];
+  }
+
+  private void ensureTriangleCapacity(int capacity) {
+    if (R.length >= capacity) {
+      return;
+    }
+    R = new double[capacity];
+    C = new double[capacity];
+    tR2 = new double[capacity];
+    tC2 = new double[capacity];
+    D13 = new double[capacity];
+    logPerimeter = new double[capacity];
+    rotation = new double[capacity];
+    clockwise = new boolean[capacity];
+    v1 = new int[capacity];
+    v2 = new int[capacity];
+    v3 = new int[capacity];
+    order = new int[capacity];
+    orderTmp = new int[capacity];
+    doubleTmp = new double[capacity];
+    intTmp = new int[capacity];
+    booleanTmp = new boolean[capacity];
+  }
+
+  //stable ascending sort on R, then the same permutation is applied to every parallel array
+  private void sortByR() {
+    int n = numTriangles;
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    stableSort(order, orderTmp, n, R);
+    permute(R, order, n);
+    permute(C, order, n);
+    permute(tR2, order, n);
+    permute(tC2, order, n);
+    permute(D13, order, n);
+    permute(logPerimeter, order, n);
+    permute(rotation, order, n);
+    permute(v1, order, n);
+    permute(v2, order, n);
+    permute(v3, order, n);
+    for (int i = 0; i < n; i++) {
+      booleanTmp[i] = clockwise[order[i]];
+    }
+    System.arraycopy(booleanTmp, 0, clockwise, 0, n);
+  }
+
+  private void permute(double[] values, int[] order, int n) {
+    for (int i = 0; i < n; i++) {
+      doubleTmp[i] = values[order[i]];
+    }
+    System.arraycopy(doubleTmp, 0, values, 0, n);
+  }
+
+  private void permute(int[] values, int[] order, int n) {
+    for (int i = 0; i < n; i++) {
+      intTmp[i] = values[order[i]];
+    }
+    System.arraycopy(intTmp, 0, values, 0, n);
+  }
+
+  /**
+   * Stable, ascending merge sort of the first n entries of idx by key[idx[i]].
+   * Equal keys keep their incoming order, matching the contract of Arrays.sort on objects.
+   */
+  static void stableSort(int[] idx, int[] tmp, int n, double[] key) {
+    int[] src = idx;
+    int[] dst = tmp;
+    for (int width = 1; width < n; width = width * 2) {
+      for (int lo = 0; lo < n; lo += 2 * width) {
+        int mid = Math.min(lo + width, n);
+        int hi = Math.min(lo + 2 * width, n);
+        int a = lo, b = mid, out = lo;
+        while ((a < mid) && (b < hi)) {
+          //take from the right run only when strictly smaller, which keeps the sort stable
+          if (key[src[b]] < key[src[a]]) {
+            dst[out++] = src[b++];
+          } else {
+            dst[out++] = src[a++];
+          }
+        }
+        while (a < mid) {
+          dst[out++] = src[a++];
+        }
+        while (b < hi) {
+          dst[out++] = src[b++];
+        }
+      }
+      int[] swap = src;
+      src = dst;
+      dst = swap;
+    }
+    if (src != idx) {
+      System.arraycopy(src, 0, idx, 0, n);
+    }
+  }
+
+}
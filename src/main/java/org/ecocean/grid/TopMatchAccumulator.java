@@ -0,0 +1,117 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+
+/**
+ * Keeps the best MatchObjects of a ScanTask as its results are checked in, so that a finished scan holds
+ * a bounded number of matches instead of one per catalog encounter.
+ * <p/>
+ * WriteOutScanTask ranks the matches twice, by the modified Groth score (MatchComparator) and by the I3S
+ * score (NewI3SMatchComparator), and writes out the best maxMatches of each ranking. This class therefore
+ * keeps the best maxMatches under each comparator, at most 2 * maxMatches matches in total. Each ranking is
+ * a bounded heap with its worst kept match at the head, so adding a match is O(log maxMatches).
+ */
+public class TopMatchAccumulator {
+
+  //WriteOutScanTask never writes out more than this many matches per ranking
+  public static final int DEFAULT_MAX_MATCHES = 100;
+
+  private final int maxMatches;
+  private final Comparator[] comparators;
+  private final PriorityQueue<MatchObject>[] rankings;
+  private int numAdded = 0;
+
+  public TopMatchAccumulator() {
+    this(DEFAULT_MAX_MATCHES);
+  }
+
+  @SuppressWarnings("unchecked")
+  public TopMatchAccumulator(int maxMatches) {
+    this.maxMatches = maxMatches;
+    comparators = new Comparator[]{new MatchComparator(), new NewI3SMatchComparator()};
+    rankings = new PriorityQueue[comparators.length];
+    for (int i = 0; i < comparators.length; i++) {
+      //reversed, so that the head of each heap is the worst match kept
+      rankings[i] = new PriorityQueue<MatchObject>(maxMatches + 1, Collections.reverseOrder(comparators[i]));
+    }
+  }
+
+  /**
+   * Offers a match. It is kept if it is among the best maxMatches seen so far under either ranking.
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized void add(MatchObject mo) {
+    if (mo == null) {
+      return;
+    }
+    numAdded++;
+    for (int i = 0; i < rankings.length; i++) {
+      PriorityQueue<MatchObject> ranking = rankings[i];
+      if (ranking.size() < maxMatches) {
+        ranking.add(mo);
+      }
+      else if ((maxMatches > 0) && (comparators[i].compare(mo, ranking.peek()) < 0)) {
+        ranking.poll();
+        ranking.add(mo);
+      }
+    }
+  }
+
+  /**
+   * Returns the kept matches, each once, in no particular order.
+   * <p/>
+   * Both comparators break score ties by encounter number, so which matches are kept does not depend on
+   * the order their results were checked in.
+   */
+  public synchronized ArrayList<MatchObject> getMatches() {
+    IdentityHashMap<MatchObject, Boolean> kept = new IdentityHashMap<MatchObject, Boolean>();
+    ArrayList<MatchObject> list = new ArrayList<MatchObject>();
+    for (int i = 0; i < rankings.length; i++) {
+      Iterator<MatchObject> it = rankings[i].iterator();
+      while (it.hasNext()) {
+        MatchObject mo = it.next();
+        if (kept.put(mo, Boolean.TRUE) == null) {
+          list.add(mo);
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Returns the number of matches offered, kept or not.
+   */
+  public synchronized int getNumAdded() {
+    return numAdded;
+  }
+
+  public int getMaxMatches() {
+    return maxMatches;
+  }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * JVM-wide cache of normalized, R/C/Sizelim-filtered Groth triangle sets, one per encounter and side.
+ * <p/>
+ * The O(n^3) triangle construction for a catalog encounter is done once and reused by every
+ * ScanWorkItem that compares against it. Entries remember the spot coordinates and Groth parameters
+ * they were built from and are rebuilt if either differs, so a stale entry can never be used, even on
+ * a remote node that does not see match graph changes. GridManager drops an encounter's entries whenever
+ * its match graph entry is added or removed.
+ * <p/>
+ * The cache is bounded by the total number of cached triangles and evicts least recently used sets first.
+ */
+public class TriangleSetCache {
+
+  //roughly 70 bytes per cached triangle
+  private static long maxTriangles = 3000000;
+  private static long numTriangles = 0;
+  private static long hits = 0;
+  private static long misses = 0;
+
+  private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+
+  private static class Entry {
+    final double[] spotsX;
+    final double[] spotsY;
+    final double epsilon;
+    final double R;
+    final double C;
+    final double Sizelim;
+    final SpotTriangleSet triangles;
+
+    Entry(double[] spotsX, double[] spotsY, double epsilon, double R, double C, double Sizelim, SpotTriangleSet triangles) {
+      this.spotsX = spotsX;
+      this.spotsY = spotsY;
+      this.epsilon = epsilon;
+      this.R = R;
+      this.C = C;
+      this.Sizelim = Sizelim;
+      this.triangles = triangles;
+    }
+
+    boolean matches(double[] x, double[] y, double epsilon, double R, double C, double Sizelim) {
+      return (this.epsilon == epsilon) && (this.R == R) && (this.C == C) && (this.Sizelim == Sizelim) && Arrays.equals(spotsX, x) && Arrays.equals(spotsY, y);
+    }
+  }
+
+  private TriangleSetCache() {
+  }
+
+  /**
+   * Returns the first-pass triangle set for the given encounter side, building and caching it if needed.
+   * The returned set is shared and must not be modified. If encounterNumber is null or empty the set is
+   * built into the supplied scratch set instead of being cached.
+   */
+  public static SpotTriangleSet getTriangles(String encounterNumber, boolean rightScan, double[] x, double[] y, double epsilon, double R, double C, double Sizelim, SpotTriangleSet scratch) {
+    if ((encounterNumber == null) || (encounterNumber.equals(""))) {
+      scratch.setSpots(x, y, x.length, true);
+      scratch.build(epsilon, R, C, Sizelim, true);
+      return scratch;
+    }
+    String key = getKey(encounterNumber, rightScan);
+    synchronized (cache) {
+      Entry entry = cache.get(key);
+      if ((entry != null) && entry.matches(x, y, epsilon, R, C, Sizelim)) {
+        hits++;
+        return entry.triangles;
+      }
+      misses++;
+    }
+
+    //build outside the lock, using the caller's scratch set to avoid oversized arrays
+    scratch.setSpots(x, y, x.length, true);
+    scratch.build(epsilon, R, C, Sizelim, true);
+    SpotTriangleSet triangles = scratch.compactCopy();
+    Entry entry = new Entry(x.clone(), y.clone(), epsilon, R, C, Sizelim, triangles);
+
+    synchronized (cache) {
+      Entry old = cache.put(key, entry);
+      if (old != null) {
+        numTriangles -= old.triangles.numTriangles;
+      }
+      numTriangles += triangles.numTriangles;
+      trim();
+    }
+    return triangles;
+  }
+
+  /**
+   * Drops the cached left and right triangle sets of an encounter.
+   */
+  public static void invalidate(String encounterNumber) {
+    synchronized (cache) {
+      remove(getKey(encounterNumber, false));
+      remove(getKey(encounterNumber, true));
+    }
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      cache.clear();
+      numTriangles = 0;
+    }
+  }
+
+  public static void setMaxTriangles(long max) {
+    synchronized (cache) {
+      maxTriangles = max;
+      trim();
+    }
+  }
+
+  public static long getMaxTriangles() {
+    synchronized (cache) {
+      return maxTriangles;
+    }
+  }
+
+  public static long getNumTriangles() {
+    synchronized (cache) {
+      return numTriangles;
+    }
+  }
+
+  public static int getSize() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public static long getHits() {
+    synchronized (cache) {
+      return hits;
+    }
+  }
+
+  public static long getMisses() {
+    synchronized (cache) {
+      return misses;
+    }
+  }
+
+  private static String getKey(String encounterNumber, boolean rightScan) {
+    if (rightScan) {
+      return encounterNumber + "_right";
+    }
+    return encounterNumber + "_left";
+  }
+
+  private static void remove(String key) {
+    Entry old = cache.remove(key);
+    if (old != null) {
+      numTriangles -= old.triangles.numTriangles;
+    }
+  }
+
+  //evict least recently used sets until we are back under budget, but always keep the newest one
+  private static void trim() {
+    Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator();
+    while ((numTriangles > maxTriangles) && (cache.size() > 1) && it.hasNext()) {
+      Entry old = it.next().getValue();
+      numTriangles -= old.triangles.numTriangles;
+      it.remove();
+    }
+  }
+
+}
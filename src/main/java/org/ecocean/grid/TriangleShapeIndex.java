@@ -0,0 +1,257 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+
+/**
+ * Range index over the shape parameters (R, C) of a {@link SpotTriangleSet}, used to find the best
+ * matching triangle for the Groth triangle-pair voting without scanning every triangle.
+ * <p/>
+ * The triangles of a set are already sorted by R, so they are split into fixed size buckets of
+ * consecutive triangles and each bucket records its largest R and C tolerances and its C range.
+ * A lookup binary searches the widest possible R window, then skips every bucket that cannot hold a
+ * triangle within tolerance in R or C. Skipping is conservative with respect to the floating point
+ * tests of the full comparison, so {@link #findBest} always returns the same triangle as
+ * {@link #findBestBruteForce}: the first triangle, in R order, with the lowest summed difference.
+ * <p/>
+ * Consecutive buckets that are not skipped are compared as one run: how far each triangle of the run
+ * is inside the R and C tolerances is computed by {@link SpotTriangleSet#getShapeFits}, and only the
+ * few triangles inside both go on to the full comparison.
+ */
+public class TriangleShapeIndex {
+
+  public static final int BUCKET_SIZE = 16;
+
+  private SpotTriangleSet set;
+  private int numBuckets = 0;
+  private double[] bucketMaxTR2 = new double[0];
+  private double[] bucketMaxTC2 = new double[0];
+  private double[] bucketMinC = new double[0];
+  private double[] bucketMaxC = new double[0];
+  private double maxTR2 = 0;
+
+  //fall back to a full scan if a tolerance is not a number
+  private boolean exhaustive = false;
+
+  //R and C fits of the run being compared, and the best triangle found so far by findBest
+  private double[] rFit = new double[0];
+  private double[] cFit = new double[0];
+  private int best = -1;
+  private double bestsum = 99999;
+
+
+  public TriangleShapeIndex() {
+  }
+
+  /**
+   * (Re)builds this index for a triangle set. The set must not change while the index is in use.
+   */
+  public void index(SpotTriangleSet triangles) {
+    this.set = triangles;
+    int n = triangles.numTriangles;
+    if (rFit.length < n) {
+      rFit = new double[n];
+      cFit = new double[n];
+    }
+    numBuckets = (n + BUCKET_SIZE - 1) / BUCKET_SIZE;
+    if (bucketMaxTR2.length < numBuckets) {
+      bucketMaxTR2 = new double[numBuckets];
+      bucketMaxTC2 = new double[numBuckets];
+      bucketMinC = new double[numBuckets];
+      bucketMaxC = new double[numBuckets];
+    }
+    maxTR2 = 0;
+    exhaustive = false;
+    double[] tR2 = triangles.tR2;
+    double[] tC2 = triangles.tC2;
+    double[] C = triangles.C;
+    for (int b = 0; b < numBuckets; b++) {
+      int start = b * BUCKET_SIZE;
+      int end = Math.min(start + BUCKET_SIZE, n);
+      double bMaxTR2 = 0;
+      double bMaxTC2 = 0;
+      double bMinC = Double.POSITIVE_INFINITY;
+      double bMaxC = Double.NEGATIVE_INFINITY;
+      for (int i = start; i < end; i++) {
+        if (Double.isNaN(tR2[i]) || Double.isNaN(tC2[i])) {
+          exhaustive = true;
+        }
+        if (tR2[i] > bMaxTR2) {
+          bMaxTR2 = tR2[i];
+        }
+        if (tC2[i] > bMaxTC2) {
+          bMaxTC2 = tC2[i];
+        }
+        if (C[i] < bMinC) {
+          bMinC = C[i];
+        }
+        if (C[i] > bMaxC) {
+          bMaxC = C[i];
+        }
+      }
+      bucketMaxTR2[b] = bMaxTR2;
+      bucketMaxTC2[b] = bMaxTC2;
+      bucketMinC[b] = bMinC;
+      bucketMaxC[b] = bMaxC;
+      if (bMaxTR2 > maxTR2) {
+        maxTR2 = bMaxTR2;
+      }
+    }
+  }
+
+  public SpotTriangleSet getTriangles() {
+    return set;
+  }
+
+  /**
+   * Returns the position of the indexed triangle that best matches triangle A, or -1 if no triangle
+   * is within tolerance in R, C and vertex one rotation.
+   */
+  public int findBest(double RA, double tRA2, double CA, double tCA2, double RotA, double allowedRotationDiff) {
+    if (exhaustive || Double.isNaN(RA) || Double.isNaN(tRA2) || Double.isNaN(CA) || Double.isNaN(tCA2)) {
+      return findBestBruteForce(RA, tRA2, CA, tCA2, RotA, allowedRotationDiff);
+    }
+    double[] R = set.R;
+    int n = set.numTriangles;
+
+    //widest window any indexed triangle could fall into
+    double window = Math.sqrt(tRA2 + maxTR2);
+    int lo = firstAbove(R, n, RA - window);
+    int hi = firstAtOrAbove(R, n, RA + window);
+
+    best = -1;
+    bestsum = 99999;
+    int runStart = 0;
+    int runEnd = 0;
+    for (int b = lo / BUCKET_SIZE; (b * BUCKET_SIZE) < hi; b++) {
+      int start = Math.max(b * BUCKET_SIZE, lo);
+      int end = Math.min((b + 1) * BUCKET_SIZE, hi);
+
+      //skip the bucket if no triangle in it can be within tolerance of R or C
+      double bucketWindow = Math.sqrt(tRA2 + bucketMaxTR2[b]);
+      if ((R[end - 1] <= (RA - bucketWindow)) || (R[start] >= (RA + bucketWindow))) {
+        continue;
+      }
+      double cGap = 0;
+      if (CA < bucketMinC[b]) {
+        cGap = bucketMinC[b] - CA;
+      } else if (CA > bucketMaxC[b]) {
+        cGap = CA - bucketMaxC[b];
+      }
+      if ((cGap * cGap) >= (tCA2 + bucketMaxTC2[b])) {
+        continue;
+      }
+
+      if (start == runEnd) {
+        runEnd = end;
+      } else {
+        compareRun(runStart, runEnd, RA, tRA2, CA, tCA2, RotA, allowedRotationDiff);
+        runStart = start;
+        runEnd = end;
+      }
+    }
+    compareRun(runStart, runEnd, RA, tRA2, CA, tCA2, RotA, allowedRotationDiff);
+    return best;
+  }
+
+  //compares triangle A with the triangles from start to end, in order, updating best and bestsum
+  private void compareRun(int start, int end, double RA, double tRA2, double CA, double tCA2, double RotA, double allowedRotationDiff) {
+    if (start >= end) {
+      return;
+    }
+    set.getShapeFits(start, end, RA, tRA2, CA, tCA2, rFit, cFit);
+    for (int iter2 = start; iter2 < end; iter2++) {
+      //a triangle outside either tolerance fails compare too, as x / s < 1 implies x < s
+      if ((rFit[iter2 - start] > 0) && (cFit[iter2 - start] > 0)) {
+        double sumdiffs = compare(iter2, RA, tRA2, CA, tCA2, RotA, allowedRotationDiff);
+        if (sumdiffs < bestsum) {
+          best = iter2;
+          bestsum = sumdiffs;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reference implementation of {@link #findBest}: compares triangle A with every indexed triangle.
+   */
+  public int findBestBruteForce(double RA, double tRA2, double CA, double tCA2, double RotA, double allowedRotationDiff) {
+    int best = -1;
+    double bestsum = 99999;
+    int n = set.numTriangles;
+    for (int iter2 = 0; iter2 < n; iter2++) {
+      double sumdiffs = compare(iter2, RA, tRA2, CA, tCA2, RotA, allowedRotationDiff);
+      if (sumdiffs < bestsum) {
+        best = iter2;
+        bestsum = sumdiffs;
+      }
+    }
+    return best;
+  }
+
+  //returns the summed difference of triangle A and triangle iter2, or NaN if they are not within tolerance
+  private double compare(int iter2, double RA, double tRA2, double CA, double tCA2, double RotA, double allowedRotationDiff) {
+    double RB = set.R[iter2];
+    double tRB2 = set.tR2[iter2];
+    double sqrttR2sum = Math.sqrt(tRA2 + tRB2);
+    if ((RB > (RA - sqrttR2sum)) && (RB < (RA + sqrttR2sum))) {
+      double CB = set.C[iter2];
+      double tCB2 = set.tC2[iter2];
+      double Rdiff2 = (RA - RB) * (RA - RB) / (tRA2 + tRB2);
+      double Cdiff2 = (CA - CB) * (CA - CB) / (tCA2 + tCB2);
+      double rotdiff = Math.abs(RotA - set.rotation[iter2]) / allowedRotationDiff;
+      if ((Rdiff2 < 1.0) && (Cdiff2 < 1.0) && (rotdiff < 1.0)) {
+        return Rdiff2 + Cdiff2 + (rotdiff * rotdiff);
+      }
+    }
+    return Double.NaN;
+  }
+
+  //index of the first value strictly greater than limit
+  private static int firstAbove(double[] sorted, int n, double limit) {
+    int lo = 0;
+    int hi = n;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] > limit) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
+  //index of the first value greater than or equal to limit
+  private static int firstAtOrAbove(double[] sorted, int n, double limit) {
+    int lo = 0;
+    int hi = n;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] >= limit) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
+}
@@ -29,7 +29,12 @@ import javax.net.ssl.HttpsURLConnection;
 
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -47,6 +52,9 @@ public class WorkAppletHeadlessEpic {
   private int numMatches = 0;
   private static String version = "1.3";
 
+  //maximum number of missing encounters fetched from the server per request
+  private static final int ENCOUNTER_FETCH_BATCH_SIZE = 200;
+
 
 
  public static ArrayList<String> urlArray = new ArrayList<String>(); 
@@ -173,6 +181,15 @@ public class WorkAppletHeadlessEpic {
   
         //start the heartbeat yo!
         hb = new AppletHeartbeatThread(sNodeIdentifier, numProcessors, urlArray.get(i), version);
+
+        //catalog encounters received so far, by GridWireFormat key
+        EncounterLiteCache encounterCache = new EncounterLiteCache();
+
+        //keys of the encounters of the last group of work items, reported to the server with the next request
+        Set<String> lastGroupKeys = new HashSet<String>();
+
+        //GridWireFormat version the server last answered with
+        int serverWireFormat = 1;
   
   
         //repeating comparison work of the applet
@@ -203,6 +220,7 @@ public class WorkAppletHeadlessEpic {
             Vector workItems = new Vector();
             Vector workItemResults = new Vector();
             ObjectInputStream inputFromServlet=null;
+            boolean useWireFormat = false;
             try {
               //let's get some work from the server
               System.out.println("\n\nLooking for some work to do...running time: "+(currentTime-startTime)/60000+" minutes");
@@ -211,7 +229,7 @@ public class WorkAppletHeadlessEpic {
               //con = getConnection("getWorkItemGroup", holdEncNumber, groupSize, nodeID, numProcessors);
               String encNumParam = "&newEncounterNumber=" + holdEncNumber;
              
-              java.net.URL u = new java.net.URL(urlArray.get(i) + "/scanAppletSupport?version=" + version + "&nodeIdentifier=" + nodeID + "&action=" + "getWorkItemGroup" + encNumParam + "&groupSize=" + groupSize + "&numProcessors=" + numProcessors);
+              java.net.URL u = new java.net.URL(urlArray.get(i) + "/scanAppletSupport?version=" + version + "&nodeIdentifier=" + nodeID + "&action=" + "getWorkItemGroup" + encNumParam + "&groupSize=" + groupSize + "&numProcessors=" + numProcessors + "&" + GridWireFormat.PARAMETER + "=" + GridWireFormat.VERSION);
               System.out.println("...Using nodeIdentifier: " + nodeID + "...with URL: "+u.toString());
              
               
@@ -230,15 +248,44 @@ public class WorkAppletHeadlessEpic {
               con.setDefaultUseCaches(false);
               con.setRequestProperty("Content-type", "application/octet-stream");
               con.setAllowUserInteraction(false);
+
+              //tell the server which encounters we already hold so that it only sends their keys
+              if (lastGroupKeys.size() > 0) {
+                DataOutputStream keysToServlet = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(con.getOutputStream())));
+                GridWireFormat.writeEncounterKeys(keysToServlet, serverWireFormat, lastGroupKeys);
+                keysToServlet.close();
+              }
               
               System.out.println("     Opened a URL connection to: "+con.getURL().toString());
               
               //inputFromServlet = new ObjectInputStream(con.getInputStream());
               
               try{
-                inputFromServlet =  new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(con.getInputStream())));
-                
-                workItems = (Vector) inputFromServlet.readObject();
+                int responseWireFormat = GridWireFormat.getResponseVersion(con.getContentType());
+                if (responseWireFormat > 0) {
+                  //the server answered in the compact binary format
+                  serverWireFormat = responseWireFormat;
+                  byte[] group = readFully(new GZIPInputStream(con.getInputStream()));
+
+                  //fetch the catalog encounters that were sent by key only and are not cached yet
+                  List<String> missingKeys = GridWireFormat.getMissingEncounterKeys(new DataInputStream(new ByteArrayInputStream(group)), encounterCache);
+                  if ((missingKeys.size() > 0) && (responseWireFormat >= 2)) {
+                    fetchEncounters(urlArray.get(i), nodeID, responseWireFormat, missingKeys, encounterCache);
+                  }
+
+                  HashMap<String, EncounterLite> receivedEncounters = new HashMap<String, EncounterLite>();
+                  workItems = GridWireFormat.readWorkItems(new DataInputStream(new ByteArrayInputStream(group)), encounterCache, receivedEncounters);
+                  if (receivedEncounters.size() > 0) {
+                    encounterCache.putAll(receivedEncounters);
+                    lastGroupKeys = new HashSet<String>(receivedEncounters.keySet());
+                    System.out.println("...group used " + receivedEncounters.size() + " encounters, " + missingKeys.size() + " of them fetched, " + encounterCache.size() + " cached...");
+                  }
+                  useWireFormat = true;
+                }
+                else {
+                  inputFromServlet =  new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(con.getInputStream())));
+                  workItems = (Vector) inputFromServlet.readObject();
+                }
                 
                 if((workItems!=null)&&(workItems.size()>0)){
                   swi = (ScanWorkItem) workItems.get(0);
@@ -273,7 +320,7 @@ public class WorkAppletHeadlessEpic {
                   */
                   
                 }
-                inputFromServlet.close();
+                if(inputFromServlet!=null)inputFromServlet.close();
             }
             catch(EOFException e){
               //no input received
@@ -283,6 +330,8 @@ public class WorkAppletHeadlessEpic {
             inputFromServlet = null;
             } 
             catch (Exception ioe) {
+              //do not claim encounters the server may no longer agree on
+              lastGroupKeys.clear();
               if(inputFromServlet!=null)inputFromServlet.close();
               ioe.printStackTrace();
               successfulConnect = false;
@@ -373,6 +422,10 @@ public class WorkAppletHeadlessEpic {
                 
                 
                 System.out.println("...all threads done!...");
+                SpotPatternDescriptor.count(workItems, 0, vectorSize);
+                if (SpotPatternDescriptor.getNumPruned() > 0) {
+                  System.out.println("...pre-filter has pruned " + SpotPatternDescriptor.getNumPruned() + " of " + SpotPatternDescriptor.getNumCompared() + " comparisons (" + SpotPatternDescriptor.getNumPruned(SpotPatternDescriptor.STAGE_SPOT_COUNT) + " by spot count, " + SpotPatternDescriptor.getNumPruned(SpotPatternDescriptor.STAGE_ASPECT) + " by aspect, " + SpotPatternDescriptor.getNumPruned(SpotPatternDescriptor.STAGE_RADIAL) + " by radial histogram)...");
+                }
                 threadHandler.shutdown();
                 //cleanup thread handlers
                 abq = null;
@@ -399,7 +452,11 @@ public class WorkAppletHeadlessEpic {
                 //if we have results to send, send 'em!
                 if (resultsSize > 0) {
   
-                  URL finishScan = new URL(urlArray.get(i)+"/ScanWorkItemResultsHandler2?" + "group=true&nodeIdentifier=" + nodeID);
+                  String wireFormatParam = "";
+                  if (useWireFormat) {
+                    wireFormatParam = "&" + GridWireFormat.PARAMETER + "=" + GridWireFormat.VERSION;
+                  }
+                  URL finishScan = new URL(urlArray.get(i)+"/ScanWorkItemResultsHandler2?" + "group=true&nodeIdentifier=" + nodeID + wireFormatParam);
                   System.out.println("Trying to send results to: "+finishScan.toString());
                   URLConnection finishConnection = null;
                   
@@ -429,34 +486,44 @@ public class WorkAppletHeadlessEpic {
                   String line="";
                   
                   try{
-                    // send the results Vector to the servlet using serialization
+                    if (useWireFormat) {
+                      //send the results in the compact binary format the server answered with
+                      DataOutputStream binaryToFinalServlet = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(finishConnection.getOutputStream())));
+                      System.out.println("     : Sending returned results...");
+                      GridWireFormat.writeResults(binaryToFinalServlet, serverWireFormat, workItemResults);
+                      binaryToFinalServlet.close();
+                      System.out.println("     : Transmission complete. Waiting for response...");
+                    }
+                    else {
+                      // send the results Vector to the servlet using serialization
                     
-                    //outputToFinalServlet = new ObjectOutputStream(finishConnection.getOutputStream());
-                    outputToFinalServlet = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(finishConnection.getOutputStream())));
+                      //outputToFinalServlet = new ObjectOutputStream(finishConnection.getOutputStream());
+                      outputToFinalServlet = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(finishConnection.getOutputStream())));
                     
                     
-                    //sendObject(outputToFinalServlet, workItemResults);
-                    System.out.println("     : Sending returned results...");
-                    //new modification
-                    //ObjectOutputStream out=null;
-                    try{
-                      //out = con;
-                      outputToFinalServlet.reset();
-                      if (workItemResults != null) {
-                        outputToFinalServlet.writeObject(workItemResults);
+                      //sendObject(outputToFinalServlet, workItemResults);
+                      System.out.println("     : Sending returned results...");
+                      //new modification
+                      //ObjectOutputStream out=null;
+                      try{
+                        //out = con;
+                        outputToFinalServlet.reset();
+                        if (workItemResults != null) {
+                          outputToFinalServlet.writeObject(workItemResults);
+                        }
+                        outputToFinalServlet.flush();
+                        outputToFinalServlet.close();
+                       }
+                      catch(Exception e){
+                        //if(out!=null)out.close();
+                        System.out.println("     : Transmission exception in sendObject.");
+                        e.printStackTrace();
                       }
-                      outputToFinalServlet.flush();
+                      System.out.println("     : Transmission complete. Waiting for response...");
+  
                       outputToFinalServlet.close();
-                     }
-                    catch(Exception e){
-                      //if(out!=null)out.close();
-                      System.out.println("     : Transmission exception in sendObject.");
-                      e.printStackTrace();
+                      outputToFinalServlet = null;
                     }
-                    System.out.println("     : Transmission complete. Waiting for response...");
-  
-                    outputToFinalServlet.close();
-                    outputToFinalServlet = null;
   
                     inputStreamFromServlet = finishConnection.getInputStream();
                     BufferedReader in = new BufferedReader(new InputStreamReader(inputStreamFromServlet));
@@ -520,4 +587,54 @@ public class WorkAppletHeadlessEpic {
   }        //end getGoing method
 
 
+  //fetches encounters this node is missing from the server in batches and adds them to the cache
+  private void fetchEncounters(String serverURL, String nodeID, int wireFormat, List<String> keys, Map<String, EncounterLite> cache) throws IOException {
+    int numKeys = keys.size();
+    for (int start = 0; start < numKeys; start += ENCOUNTER_FETCH_BATCH_SIZE) {
+      List<String> batch = keys.subList(start, Math.min(start + ENCOUNTER_FETCH_BATCH_SIZE, numKeys));
+      URL u = new URL(serverURL + "/scanAppletSupport?version=" + version + "&nodeIdentifier=" + nodeID + "&action=getEncounterLites&" + GridWireFormat.PARAMETER + "=" + wireFormat);
+      URLConnection fetchConnection = null;
+      if (serverURL.substring(0, 5).equals("https")) {
+        fetchConnection = (HttpsURLConnection)u.openConnection();
+      } else {
+        fetchConnection = (HttpURLConnection)u.openConnection();
+      }
+      fetchConnection.setConnectTimeout(30000);
+      fetchConnection.setReadTimeout(30000);
+      fetchConnection.setDoInput(true);
+      fetchConnection.setDoOutput(true);
+      fetchConnection.setUseCaches(false);
+      fetchConnection.setDefaultUseCaches(false);
+      fetchConnection.setRequestProperty("Content-type", "application/octet-stream");
+
+      DataOutputStream keysToServlet = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fetchConnection.getOutputStream())));
+      GridWireFormat.writeEncounterKeys(keysToServlet, wireFormat, new HashSet<String>(batch));
+      keysToServlet.close();
+
+      DataInputStream encountersFromServlet = new DataInputStream(new BufferedInputStream(new GZIPInputStream(fetchConnection.getInputStream())));
+      try {
+        cache.putAll(GridWireFormat.readEncounters(encountersFromServlet));
+      }
+      finally {
+        encountersFromServlet.close();
+      }
+    }
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    try {
+      int numRead;
+      while ((numRead = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, numRead);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return bytes.toByteArray();
+  }
+
+
 }
\ No newline at end of file
@@ -0,0 +1,492 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Concurrent store behind the GridManager's toDo, underway and done work lists.
+ * <p/>
+ * Queued work items are kept in per-task queues, with maps by work item unique number for O(1)
+ * lookup. Checkout shares the queued work between tasks by their nice value, see {@link #checkout}. Checked out (underway) work items are also kept in a set ordered by the time they become stragglers,
+ * so that {@link #reissue} only looks at the items that are due. Per-task counters make the complete/incomplete counts O(1).
+ * <p/>
+ * Results are not kept whole: only the unique numbers of the completed work items are remembered, to detect
+ * duplicate check-ins, and each task's matches go into a TopMatchAccumulator that keeps the best of them.
+ */
+class WorkItemStore {
+
+  //an underway work item, the time it was last handed out, and the node holding it
+  private static class Checkout {
+    final ScanWorkItem swi;
+    final long time;
+    final long sequence;
+    final String nodeID;
+    //holder's measured items per second at checkout, 0 if unknown
+    final double nodeRate;
+    //time after which the item is a straggler, see reissue
+    final long deadline;
+
+    Checkout(ScanWorkItem swi, long time, long sequence, String nodeID, double nodeRate, long expectedMillis, long checkoutTimeout) {
+      this.swi = swi;
+      this.time = time;
+      this.sequence = sequence;
+      this.nodeID = nodeID;
+      this.nodeRate = nodeRate;
+      long straggleMillis = checkoutTimeout;
+      if ((expectedMillis >= 0) && (STRAGGLER_FACTOR * expectedMillis < checkoutTimeout)) {
+        straggleMillis = STRAGGLER_FACTOR * expectedMillis;
+      }
+      this.deadline = time + straggleMillis;
+    }
+  }
+
+  //fair share state of a task with queued work
+  private static class TaskShare {
+    final String taskID;
+    final double weight;
+    final long sequence;
+    //virtual time at which the task is next due an item
+    double pass;
+
+    TaskShare(String taskID, double weight, long sequence, double pass) {
+      this.taskID = taskID;
+      this.weight = weight;
+      this.sequence = sequence;
+      this.pass = pass;
+    }
+  }
+
+  //nice values range from MIN_NICE (most favored) to MAX_NICE, as for Unix processes
+  static final int MIN_NICE = -20;
+  static final int MAX_NICE = 19;
+
+  //an underway item is a straggler once it is this many times older than its holder should need to return it
+  static final int STRAGGLER_FACTOR = 2;
+
+  private static final Comparator<Checkout> DEADLINE_ORDER = new Comparator<Checkout>() {
+    public int compare(Checkout a, Checkout b) {
+      if (a.deadline != b.deadline) {
+        return (a.deadline < b.deadline) ? -1 : 1;
+      }
+      if (a.sequence != b.sequence) {
+        return (a.sequence < b.sequence) ? -1 : 1;
+      }
+      return 0;
+    }
+  };
+
+  //toDo
+  private final ConcurrentHashMap<String, ConcurrentLinkedQueue<ScanWorkItem>> toDoByTask = new ConcurrentHashMap<String, ConcurrentLinkedQueue<ScanWorkItem>>();
+  private final ConcurrentLinkedQueue<String> taskOrder = new ConcurrentLinkedQueue<String>();
+  private final ConcurrentHashMap<String, ScanWorkItem> toDoByID = new ConcurrentHashMap<String, ScanWorkItem>();
+
+  //fair share scheduling, guarded by shares
+  private final ConcurrentHashMap<String, TaskShare> shares = new ConcurrentHashMap<String, TaskShare>();
+  private double virtualTime = 0;
+  private long shareSequence = 0;
+
+  //underway
+  private final ConcurrentHashMap<String, Checkout> underwayByID = new ConcurrentHashMap<String, Checkout>();
+  private final ConcurrentSkipListSet<Checkout> underwayByDeadline = new ConcurrentSkipListSet<Checkout>(DEADLINE_ORDER);
+  private final AtomicLong checkoutSequence = new AtomicLong();
+
+  //done, work item unique number to task
+  private final ConcurrentHashMap<String, String> doneByID = new ConcurrentHashMap<String, String>();
+  private final ConcurrentHashMap<String, TopMatchAccumulator> doneByTask = new ConcurrentHashMap<String, TopMatchAccumulator>();
+
+  //per task counts of queued plus underway work items, and of results
+  private final ConcurrentHashMap<String, AtomicInteger> incompleteCounts = new ConcurrentHashMap<String, AtomicInteger>();
+  private final ConcurrentHashMap<String, AtomicInteger> completeCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+  //per task counts of work items re-issued to a second node, and of results discarded because another node was first
+  private final ConcurrentHashMap<String, AtomicInteger> reissuedCounts = new ConcurrentHashMap<String, AtomicInteger>();
+  private final ConcurrentHashMap<String, AtomicInteger> duplicateCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+
+  public void add(ScanWorkItem swi) {
+    String taskID = swi.getTaskIdentifier();
+    ConcurrentLinkedQueue<ScanWorkItem> queue = toDoByTask.get(taskID);
+    if (queue == null) {
+      ConcurrentLinkedQueue<ScanWorkItem> newQueue = new ConcurrentLinkedQueue<ScanWorkItem>();
+      queue = toDoByTask.putIfAbsent(taskID, newQueue);
+      if (queue == null) {
+        queue = newQueue;
+        taskOrder.add(taskID);
+        synchronized (shares) {
+          //a new task starts at the current virtual time, so it is served right away but earns no credit for the past
+          shares.put(taskID, new TaskShare(taskID, getWeight(swi.getNice()), shareSequence++, virtualTime));
+        }
+      }
+    }
+    counter(incompleteCounts, taskID).incrementAndGet();
+    toDoByID.put(swi.getUniqueNumber(), swi);
+    queue.add(swi);
+  }
+
+  /**
+   * Moves up to num queued work items to underway and returns them.
+   * <p/>
+   * Items are handed out one at a time by stride scheduling: each task with queued work has a weight set by the
+   * nice value of its work items and a pass that advances by 1/weight for every item it is given, and the next
+   * item always comes from the task with the lowest pass (the oldest task on ties). Tasks therefore share the
+   * grid in proportion to their weights, and a task queued behind a large scan starts getting items in the very
+   * next group instead of waiting for that scan to drain. A task's pass never lags the virtual time, the pass of
+   * the last task served, so a task that ran out of queued work does not build up credit while it is idle.
+   * <p/>
+   * nodeID and nodeRate identify the node the items go to and its measured items per second (0 if unknown), so
+   * that {@link #reissue} can tell how long the node should take to return them. Items the node was never
+   * measured for, or is slow to return, become stragglers after checkoutTimeout.
+   */
+  public ArrayList<ScanWorkItem> checkout(int num, long time, String nodeID, double nodeRate, long checkoutTimeout) {
+    ArrayList<ScanWorkItem> returnItems = new ArrayList<ScanWorkItem>();
+    synchronized (shares) {
+      while (returnItems.size() < num) {
+        TaskShare next = null;
+        ConcurrentLinkedQueue<ScanWorkItem> nextQueue = null;
+        for (TaskShare share : shares.values()) {
+          ConcurrentLinkedQueue<ScanWorkItem> queue = toDoByTask.get(share.taskID);
+          if ((queue == null) || queue.isEmpty()) {
+            continue;
+          }
+          if ((next == null) || (Math.max(share.pass, virtualTime) < Math.max(next.pass, virtualTime)) || ((Math.max(share.pass, virtualTime) == Math.max(next.pass, virtualTime)) && (share.sequence < next.sequence))) {
+            next = share;
+            nextQueue = queue;
+          }
+        }
+        if (next == null) {
+          break;
+        }
+        ScanWorkItem swi = nextQueue.poll();
+        if (swi == null) {
+          continue;
+        }
+        virtualTime = Math.max(next.pass, virtualTime);
+        next.pass = virtualTime + (1.0 / next.weight);
+
+        toDoByID.remove(swi.getUniqueNumber());
+        swi.setStartTime(time);
+        returnItems.add(swi);
+      }
+    }
+    //the node returns the group all at once
+    long expectedMillis = getExpectedMillis(returnItems.size(), nodeRate);
+    for (int i = 0; i < returnItems.size(); i++) {
+      putUnderway(returnItems.get(i), time, nodeID, nodeRate, expectedMillis, checkoutTimeout);
+    }
+    return returnItems;
+  }
+
+  /**
+   * Returns the scheduling weight of a nice value. As for Unix processes, each step of nice changes the weight
+   * by 25%, so a task at nice 0 gets about nine times the share of a task at nice 10.
+   */
+  static double getWeight(int nice) {
+    int clamped = Math.max(MIN_NICE, Math.min(MAX_NICE, nice));
+    return 1024.0 / Math.pow(1.25, clamped);
+  }
+
+
+  //how long a node at nodeRate items per second should take to return a group of num items, -1 if unknown
+  private static long getExpectedMillis(int num, double nodeRate) {
+    if (nodeRate <= 0) {
+      return -1;
+    }
+    return (long) Math.ceil(num * 1000.0 / nodeRate);
+  }
+
+  /**
+   * Hands straggling underway work items to a node that has nothing else to do, earliest due first, and returns them.
+   * <p/>
+   * An item is a straggler once it has been out STRAGGLER_FACTOR times as long as its holder should need to return
+   * it at the throughput the holder was measured at, or for checkoutTimeout if that is sooner or the holder was
+   * never measured. The deadline is fixed at checkout, so the underway set can be walked in deadline order and the
+   * walk stops at the first item that is not due yet. Of the stragglers, a node is only given items held by another
+   * node that is slower than itself, since a slower node would most likely finish second and waste the work, except
+   * for items out longer than checkoutTimeout, whose holder is presumed gone. Re-issued items get a new deadline
+   * under the new node, and are counted per task, see getNumReissued.
+   */
+  public ArrayList<ScanWorkItem> reissue(int max, long time, String nodeID, double nodeRate, long checkoutTimeout) {
+    ArrayList<ScanWorkItem> returnItems = new ArrayList<ScanWorkItem>();
+    Iterator<Checkout> it = underwayByDeadline.iterator();
+    ArrayList<Checkout> stale = new ArrayList<Checkout>();
+    while ((stale.size() < max) && it.hasNext()) {
+      Checkout c = it.next();
+      if (time <= c.deadline) {
+        //everything after this is due even later
+        break;
+      }
+      if (c.swi.isDone() || ((nodeID != null) && nodeID.equals(c.nodeID))) {
+        continue;
+      }
+      boolean holderGone = ((time - c.time) > checkoutTimeout);
+      if (holderGone || (nodeRate > c.nodeRate)) {
+        stale.add(c);
+      }
+    }
+    long expectedMillis = getExpectedMillis(stale.size(), nodeRate);
+    for (int i = 0; i < stale.size(); i++) {
+      Checkout old = stale.get(i);
+      Checkout renewed = new Checkout(old.swi, time, checkoutSequence.incrementAndGet(), nodeID, nodeRate, expectedMillis, checkoutTimeout);
+      if (underwayByID.replace(old.swi.getUniqueNumber(), old, renewed)) {
+        underwayByDeadline.remove(old);
+        underwayByDeadline.add(renewed);
+        counter(reissuedCounts, old.swi.getTaskIdentifier()).incrementAndGet();
+        returnItems.add(old.swi);
+      }
+    }
+    return returnItems;
+  }
+
+  /**
+   * Removes a work item from underway. Returns true if it was there.
+   */
+  public boolean removeUnderway(String uniqueNum) {
+    Checkout c = underwayByID.remove(uniqueNum);
+    if (c == null) {
+      return false;
+    }
+    underwayByDeadline.remove(c);
+    AtomicInteger count = incompleteCounts.get(c.swi.getTaskIdentifier());
+    if (count != null) {
+      count.decrementAndGet();
+    }
+    return true;
+  }
+
+  /**
+   * Records a result. Returns false, and stores nothing, if a result for the same work item was already recorded.
+   */
+  public boolean addResult(ScanWorkItemResult swir) {
+    String taskID = swir.getUniqueNumberTask();
+    if (doneByID.putIfAbsent(swir.getUniqueNumberWorkItem(), taskID) != null) {
+      counter(duplicateCounts, taskID).incrementAndGet();
+      return false;
+    }
+    TopMatchAccumulator matches = doneByTask.get(taskID);
+    if (matches == null) {
+      TopMatchAccumulator newMatches = new TopMatchAccumulator();
+      matches = doneByTask.putIfAbsent(taskID, newMatches);
+      if (matches == null) {
+        matches = newMatches;
+      }
+    }
+    matches.add(swir.getResult());
+    counter(completeCounts, taskID).incrementAndGet();
+    return true;
+  }
+
+  public boolean containsResult(String uniqueNumberWorkItem) {
+    return doneByID.containsKey(uniqueNumberWorkItem);
+  }
+
+  public boolean containsToDo(String uniqueNum) {
+    return toDoByID.containsKey(uniqueNum);
+  }
+
+  /**
+   * Returns a queued or underway work item, or null.
+   */
+  public ScanWorkItem get(String uniqueNum) {
+    ScanWorkItem swi = toDoByID.get(uniqueNum);
+    if (swi != null) {
+      return swi;
+    }
+    Checkout c = underwayByID.get(uniqueNum);
+    if (c != null) {
+      return c.swi;
+    }
+    return null;
+  }
+
+  public void removeTask(String taskID) {
+    ConcurrentLinkedQueue<ScanWorkItem> queue = toDoByTask.remove(taskID);
+    if (queue != null) {
+      for (ScanWorkItem swi : queue) {
+        toDoByID.remove(swi.getUniqueNumber());
+      }
+    }
+    taskOrder.remove(taskID);
+    synchronized (shares) {
+      shares.remove(taskID);
+    }
+    Iterator<Checkout> it = underwayByDeadline.iterator();
+    while (it.hasNext()) {
+      Checkout c = it.next();
+      if (c.swi.getTaskIdentifier().equals(taskID)) {
+        underwayByID.remove(c.swi.getUniqueNumber(), c);
+        it.remove();
+      }
+    }
+    incompleteCounts.remove(taskID);
+  }
+
+  public void removeResultsForTask(String taskID) {
+    doneByTask.remove(taskID);
+    doneByID.values().removeAll(Collections.singleton(taskID));
+    completeCounts.remove(taskID);
+    reissuedCounts.remove(taskID);
+    duplicateCounts.remove(taskID);
+  }
+
+  public int getNumComplete(String taskID) {
+    AtomicInteger count = completeCounts.get(taskID);
+    if (count == null) {
+      return 0;
+    }
+    return count.get();
+  }
+
+  public int getNumIncomplete(String taskID) {
+    AtomicInteger count = incompleteCounts.get(taskID);
+    if (count == null) {
+      return 0;
+    }
+    return count.get();
+  }
+
+  /**
+   * Returns the number of times a work item of the task was re-issued to another node.
+   */
+  public int getNumReissued(String taskID) {
+    AtomicInteger count = reissuedCounts.get(taskID);
+    if (count == null) {
+      return 0;
+    }
+    return count.get();
+  }
+
+  /**
+   * Returns the number of results of the task that were discarded because the work item was already done,
+   * which is the work duplicated by re-issuing. getNumComplete is the useful work.
+   */
+  public int getNumDuplicates(String taskID) {
+    AtomicInteger count = duplicateCounts.get(taskID);
+    if (count == null) {
+      return 0;
+    }
+    return count.get();
+  }
+
+  public ArrayList<ScanWorkItem> getRemaining(String taskID) {
+    ArrayList<ScanWorkItem> list = new ArrayList<ScanWorkItem>();
+    ConcurrentLinkedQueue<ScanWorkItem> queue = toDoByTask.get(taskID);
+    if (queue != null) {
+      list.addAll(queue);
+    }
+    for (Checkout c : underwayByDeadline) {
+      if (c.swi.getTaskIdentifier().equals(taskID)) {
+        list.add(c.swi);
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Returns the best matches checked in for a task, see TopMatchAccumulator.
+   */
+  public ArrayList<MatchObject> getMatches(String taskID) {
+    TopMatchAccumulator matches = doneByTask.get(taskID);
+    if (matches == null) {
+      return new ArrayList<MatchObject>();
+    }
+    return matches.getMatches();
+  }
+
+  public ArrayList<ScanWorkItem> getAllToDo() {
+    ArrayList<ScanWorkItem> list = new ArrayList<ScanWorkItem>();
+    for (String taskID : taskOrder) {
+      ConcurrentLinkedQueue<ScanWorkItem> queue = toDoByTask.get(taskID);
+      if (queue != null) {
+        list.addAll(queue);
+      }
+    }
+    return list;
+  }
+
+  public int getToDoSize() {
+    return toDoByID.size();
+  }
+
+  public int getUnderwaySize() {
+    return underwayByID.size();
+  }
+
+  public int getDoneSize() {
+    return doneByID.size();
+  }
+
+  public void clearWork() {
+    toDoByTask.clear();
+    taskOrder.clear();
+    synchronized (shares) {
+      shares.clear();
+      virtualTime = 0;
+    }
+    toDoByID.clear();
+    underwayByID.clear();
+    underwayByDeadline.clear();
+    incompleteCounts.clear();
+  }
+
+  public void clearResults() {
+    doneByID.clear();
+    doneByTask.clear();
+    completeCounts.clear();
+    reissuedCounts.clear();
+    duplicateCounts.clear();
+  }
+
+  private void putUnderway(ScanWorkItem swi, long time, String nodeID, double nodeRate, long expectedMillis, long checkoutTimeout) {
+    Checkout c = new Checkout(swi, time, checkoutSequence.incrementAndGet(), nodeID, nodeRate, expectedMillis, checkoutTimeout);
+    Checkout old = underwayByID.put(swi.getUniqueNumber(), c);
+    if (old != null) {
+      //the same work item was queued twice, so it is only counted once from now on
+      underwayByDeadline.remove(old);
+      AtomicInteger count = incompleteCounts.get(swi.getTaskIdentifier());
+      if (count != null) {
+        count.decrementAndGet();
+      }
+    }
+    underwayByDeadline.add(c);
+  }
+
+  private static AtomicInteger counter(ConcurrentHashMap<String, AtomicInteger> counts, String taskID) {
+    AtomicInteger count = counts.get(taskID);
+    if (count == null) {
+      AtomicInteger newCount = new AtomicInteger();
+      count = counts.putIfAbsent(taskID, newCount);
+      if (count == null) {
+        count = newCount;
+      }
+    }
+    return count;
+  }
+
+}
@@ -21,9 +21,11 @@ package org.ecocean.servlet;
 
 
 
+import org.ecocean.grid.EncounterLite;
 import org.ecocean.grid.GridManager;
 import org.ecocean.grid.GridManagerFactory;
 import org.ecocean.grid.GridNode;
+import org.ecocean.grid.GridWireFormat;
 import org.ecocean.grid.ScanWorkItem;
 
 import javax.servlet.ServletConfig;
@@ -32,11 +34,17 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.Vector;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 //import java.io.PrintWriter;
@@ -61,6 +69,12 @@ public class ScanAppletSupport extends HttpServlet {
     GridManager gm = GridManagerFactory.getGridManager();
     //String supportedAppletVersion = gm.getSupportedAppletVersion();
 
+    //nodes fetch the catalog encounters they were sent by key only, regardless of their place in the queue
+    if ((request.getParameter("action") != null) && (request.getParameter("action").equals("getEncounterLites"))) {
+      getEncounterLites(request, response);
+      return;
+    }
+
     //if ((request.getParameter("version") != null) && (request.getParameter("version").equals(supportedAppletVersion)) && (request.getParameter("nodeIdentifier") != null)) {
       //System.out.println("scanAppletSupport: Cleared the first hurdle in scanAppletSupport");
 
@@ -198,7 +212,7 @@ public class ScanAppletSupport extends HttpServlet {
 
         //transmit result and clean up
         //myShepherd.closeDBTransaction();
-        boolean transmitSuccess = sendObject(response, holdSWIs);
+        boolean transmitSuccess = sendWorkItems(request, response, holdSWIs);
         if (transmitSuccess) {
           nd.setLastCheckout(System.currentTimeMillis());
         }
@@ -233,7 +247,7 @@ public class ScanAppletSupport extends HttpServlet {
 
 
         //myShepherd.closeDBTransaction();
-        boolean transmitSuccess = sendObject(response, holdResults);
+        boolean transmitSuccess = sendWorkItems(request, response, holdResults);
         if (transmitSuccess) nd.setLastCheckout(System.currentTimeMillis());
 
       } //end try
@@ -251,6 +265,78 @@ public class ScanAppletSupport extends HttpServlet {
   }
 
 
+  //transmits a group of work items in the format the node asked for
+  public boolean sendWorkItems(HttpServletRequest request, HttpServletResponse response, Vector workItems) {
+    int wireFormat = GridWireFormat.getRequestedVersion(request.getParameter(GridWireFormat.PARAMETER));
+    if (wireFormat == 0) {
+      return sendObject(response, workItems);
+    }
+    DataOutputStream outputToNode = null;
+    try {
+      //the node may post the keys of the encounters it already holds
+      Set<String> nodeEncounterKeys = null;
+      if (request.getContentLength() > 0) {
+        DataInputStream inputFromNode = new DataInputStream(new BufferedInputStream(new GZIPInputStream(request.getInputStream())));
+        nodeEncounterKeys = GridWireFormat.readEncounterKeys(inputFromNode);
+        inputFromNode.close();
+      }
+      response.setContentType(GridWireFormat.getContentType(wireFormat));
+      outputToNode = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(response.getOutputStream())));
+      GridWireFormat.writeWorkItems(outputToNode, wireFormat, workItems, nodeEncounterKeys, GridManager.getSentEncounters());
+      outputToNode.close();
+      return true;
+    }
+    catch (Exception e) {
+      System.out.println("Caught an error when attempting to return data via the sendWorkItems method of scanAppletSupport servlet");
+      e.printStackTrace();
+      return false;
+    }
+    finally {
+      try {
+        if (outputToNode != null) outputToNode.close();
+      }
+      catch (Exception e) {}
+    }
+  }
+
+  //sends a node the encounters it asked for by key; keys this server no longer knows are left out
+  public void getEncounterLites(HttpServletRequest request, HttpServletResponse response) {
+    int wireFormat = GridWireFormat.getRequestedVersion(request.getParameter(GridWireFormat.PARAMETER));
+    if (wireFormat < 2) {
+      return;
+    }
+    DataOutputStream outputToNode = null;
+    try {
+      DataInputStream inputFromNode = new DataInputStream(new BufferedInputStream(new GZIPInputStream(request.getInputStream())));
+      Set<String> keys = GridWireFormat.readEncounterKeys(inputFromNode);
+      inputFromNode.close();
+
+      ArrayList<EncounterLite> encounters = new ArrayList<EncounterLite>();
+      Iterator<String> keyIter = keys.iterator();
+      while (keyIter.hasNext()) {
+        EncounterLite el = GridManager.getEncounterLiteByKey(keyIter.next());
+        if (el != null) {
+          encounters.add(el);
+        }
+      }
+
+      response.setContentType(GridWireFormat.getContentType(wireFormat));
+      outputToNode = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(response.getOutputStream())));
+      GridWireFormat.writeEncounters(outputToNode, wireFormat, encounters);
+      outputToNode.close();
+    }
+    catch (Exception e) {
+      System.out.println("Caught an error when attempting to return data via the getEncounterLites method of scanAppletSupport servlet");
+      e.printStackTrace();
+    }
+    finally {
+      try {
+        if (outputToNode != null) outputToNode.close();
+      }
+      catch (Exception e) {}
+    }
+  }
+
   //transmits requested objects to the applet
   public boolean sendObject(HttpServletResponse response, Object encounterVector) {
     ObjectOutputStream outputToApplet=null;
@@ -285,7 +371,7 @@ public class ScanAppletSupport extends HttpServlet {
     //change
     //separate this out
     //List list=myShepherd.getID4AvailableScanWorkItems(id,query, groupSize, checkoutTimeout, force);
-    ArrayList<ScanWorkItem> list = gm.getWorkItems(groupSize);
+    ArrayList<ScanWorkItem> list = gm.getWorkItems(groupSize, gm.getGridNode(request.getParameter("nodeIdentifier")));
     int listSize = list.size();
 
     //change
@@ -366,7 +452,7 @@ public class ScanAppletSupport extends HttpServlet {
     //get a list of unfinished scanWorkItems
     //List list=myShepherd.getID4AvailableScanWorkItems(query, groupSize, checkoutTimeout, false);
     ArrayList<ScanWorkItem> list = new ArrayList<ScanWorkItem>();
-      list = gm.getWorkItems(groupSize);
+      list = gm.getWorkItems(groupSize, nd);
 
 
 
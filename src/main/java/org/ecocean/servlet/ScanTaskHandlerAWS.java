@@ -144,6 +144,12 @@ public class ScanTaskHandlerAWS extends HttpServlet {
 					rightScan="true";
 					isRightScan=true;
 				}
+				
+				//run the work items in this JVM instead of on the grid nodes
+				boolean localExecution=false;
+				if((request.getParameter("localExecution")!=null)&&(request.getParameter("localExecution").equals("true"))) {
+					localExecution=true;
+				}
 				props2.setProperty("epsilon", "0.01");
 				props2.setProperty("R", "8");
 				props2.setProperty("Sizelim", "0.85");
@@ -206,6 +212,7 @@ public class ScanTaskHandlerAWS extends HttpServlet {
 
 
 							st=new ScanTask(myShepherd, taskIdentifier, props2, request.getParameter("encounterNumber"), writeThis);
+							st.setLocalExecution(localExecution);
 							
 							//st.setNumComparisons(numComparisons-1);
 							
@@ -259,6 +266,7 @@ public class ScanTaskHandlerAWS extends HttpServlet {
 					                    //numComparisons=myShepherd.getNumEncountersWithSpotData(false);
 					                    numComparisons=gm.getNumLeftPatterns();
 					                  }
+					                  localExecution=restartTask.getLocalExecution();
 					                  st.setFinished(false);
 					                  //st.setNumComparisons(numComparisons-1);
 					                  es.execute(new ScanTaskCleanupThread(taskIdentifier));
@@ -313,7 +321,31 @@ public class ScanTaskHandlerAWS extends HttpServlet {
             //es.execute(new EC2RequestThread());
 						
             //now build our jobs for the task
-						es.execute(new ScanWorkItemCreationThread(taskIdentifier, isRightScan, request.getParameter("encounterNumber"), writeThis,context, jdoql));
+						//grid tasks need the URL too, to be finished when they have no work items left for nodes to check in
+						String finishURL=request.getScheme()+"://"+CommonConfiguration.getURLLocation(request)+"/"+CommonConfiguration.getProperty("patternMatchingEndPointServletName", context);
+						ScanWorkItemCreationThread swiThread=new ScanWorkItemCreationThread(taskIdentifier, isRightScan, request.getParameter("encounterNumber"), writeThis,context, jdoql, localExecution, finishURL);
+
+						//optional filters limiting the scan to part of the match graph
+						String taxonomy=null;
+						if((request.getParameter("taxonomy")!=null)&&(!request.getParameter("taxonomy").trim().equals(""))){taxonomy=request.getParameter("taxonomy").trim();}
+						java.util.ArrayList<String> locationIDs=new java.util.ArrayList<String>();
+						if(request.getParameterValues("locationID")!=null){
+						  for(String locationID:request.getParameterValues("locationID")){
+						    if(!locationID.trim().equals("")){locationIDs.add(locationID.trim());}
+						  }
+						}
+						swiThread.setFilters(taxonomy, request.getParameter("sex"), locationIDs);
+
+						//bulk rescans pass a positive nice value so that interactive scans are not stuck behind them
+						if(request.getParameter("nice")!=null){
+						  try{
+						    swiThread.setNice(Integer.parseInt(request.getParameter("nice").trim()));
+						  }
+						  catch(NumberFormatException nfe){
+						    nfe.printStackTrace();
+						  }
+						}
+						es.execute(swiThread);
 
 						
 
@@ -24,6 +24,8 @@ import org.ecocean.Shepherd;
 import org.ecocean.grid.GridManager;
 import org.ecocean.grid.GridManagerFactory;
 import org.ecocean.grid.GridNode;
+import org.ecocean.grid.GridWireFormat;
+import org.ecocean.grid.ScanTaskCheckpoint;
 import org.ecocean.grid.ScanWorkItemResult;
 import org.ecocean.grid.ScanTask;
 
@@ -35,6 +37,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -109,11 +112,17 @@ public class ScanWorkItemResultsHandler extends HttpServlet {
       // get an input stream and Vector of results from the applet
       
       //inputFromApplet = new ObjectInputStream(request.getInputStream());
-      inputFromApplet = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(request.getInputStream())));
-      
       Vector returnedResults = new Vector();
-      returnedResults = (Vector) receiveObject(inputFromApplet);
-      inputFromApplet.close();
+      if (GridWireFormat.getRequestedVersion(request.getParameter(GridWireFormat.PARAMETER)) > 0) {
+        DataInputStream inputFromNode = new DataInputStream(new BufferedInputStream(new GZIPInputStream(request.getInputStream())));
+        returnedResults = GridWireFormat.readResults(inputFromNode);
+        inputFromNode.close();
+      }
+      else {
+        inputFromApplet = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(request.getInputStream())));
+        returnedResults = (Vector) receiveObject(inputFromApplet);
+        inputFromApplet.close();
+      }
 
 
       //send response to applet
@@ -171,6 +180,9 @@ public class ScanWorkItemResultsHandler extends HttpServlet {
       for(int m=0;m<numTasksAddressed;m++){
         String scanTaskID=tasksAddressed.get(m);
         
+        //the results were recorded one by one, write them to disk once per group
+        ScanTaskCheckpoint.flush(scanTaskID);
+        
         int numComplete = gm.getNumWorkItemsCompleteForTask(scanTaskID);
         //numGenerated = gm.getNumWorkItemsIncompleteForTask(scanTaskID);
         //numTaskTot = numComplete + numGenerated;
@@ -252,7 +264,7 @@ public class ScanWorkItemResultsHandler extends HttpServlet {
       
       System.out.println("scanWorkItemResultsHandler registered the following error...");
       e.printStackTrace();
-      inputFromApplet.close();
+      if (inputFromApplet != null) inputFromApplet.close();
       //statusText="failure";
     }
 
@@ -186,7 +186,8 @@ public class WriteOutScanTask extends HttpServlet {
       int numMatches=matches.length;
       
       //hard limit this to 100 matches...no human really goes beyond this...
-      if(numMatches>100)numMatches=100;
+      //the GridManager only keeps this many per ranking anyway
+      if(numMatches>TopMatchAccumulator.DEFAULT_MAX_MATCHES)numMatches=TopMatchAccumulator.DEFAULT_MAX_MATCHES;
       
       for (int i = 0; i < numMatches; i++) {
         try{
@@ -334,7 +335,8 @@ public class WriteOutScanTask extends HttpServlet {
       int numMatches=matches.length;
       
       //hard limit this to 100 matches...no human really goes beyond this...
-      if(numMatches>100)numMatches=100;
+      //the GridManager only keeps this many per ranking anyway
+      if(numMatches>TopMatchAccumulator.DEFAULT_MAX_MATCHES)numMatches=TopMatchAccumulator.DEFAULT_MAX_MATCHES;
       
       for (int i = 0; i < numMatches; i++) {
         try {
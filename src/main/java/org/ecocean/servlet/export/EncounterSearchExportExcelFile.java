@@ -74,7 +74,7 @@ public class EncounterSearchExportExcelFile extends HttpServlet{
       try{
       
       
-        EncounterQueryResult queryResult = EncounterQueryProcessor.processQuery(myShepherd, request, "year descending, month descending, day descending");
+        EncounterQueryResult queryResult = EncounterQueryProcessor.processQuery(myShepherd, request, "year descending, month descending, day descending", "export");
         rEncounters = queryResult.getResult();
 
 				Vector blocked = Encounter.blocked(rEncounters, request);
@@ -83,7 +83,7 @@ public class EncounterSearchExportKML extends HttpServlet{
         rEncounters=new Vector(c);
       }
       else{
-        EncounterQueryResult queryResult = EncounterQueryProcessor.processQuery(myShepherd, request, "year descending, month descending, day descending");
+        EncounterQueryResult queryResult = EncounterQueryProcessor.processQuery(myShepherd, request, "year descending, month descending, day descending", "export");
         rEncounters = queryResult.getResult();
       }
 
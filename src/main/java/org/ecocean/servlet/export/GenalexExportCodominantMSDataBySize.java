@@ -77,12 +77,12 @@ public class GenalexExportCodominantMSDataBySize extends HttpServlet{
     
       if((request!=null)&&(request1!=null)){
     
-        MarkedIndividualQueryResult queryResult1 = IndividualQueryProcessor.processQuery(myShepherd, request1, order);
+        MarkedIndividualQueryResult queryResult1 = IndividualQueryProcessor.processQuery(myShepherd, request1, order, "export");
         //System.out.println(((MockHttpServletRequest)session.getAttribute("locationSearch1")).getQueryString());
         query1Individuals = queryResult1.getResult();
         int numSearch1Individuals = query1Individuals.size();
         
-        MarkedIndividualQueryResult queryResult2 = IndividualQueryProcessor.processQuery(myShepherd, request, order);
+        MarkedIndividualQueryResult queryResult2 = IndividualQueryProcessor.processQuery(myShepherd, request, order, "export");
         query2Individuals = queryResult2.getResult();
         int numSearch2Individuals = query2Individuals.size();
       
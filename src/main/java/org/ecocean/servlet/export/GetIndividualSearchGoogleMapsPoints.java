@@ -98,7 +98,7 @@ public class GetIndividualSearchGoogleMapsPoints extends HttpServlet {
       useLocales=true;
     }
     else{request.setAttribute("gpsOnly", "yes");}
-    MarkedIndividualQueryResult queryResult = IndividualQueryProcessor.processQuery(myShepherd, request, order);
+    MarkedIndividualQueryResult queryResult = IndividualQueryProcessor.processQuery(myShepherd, request, order, "export");
     rIndividuals = queryResult.getResult();
     int numIndividuals=rIndividuals.size();
 
@@ -43,7 +43,7 @@ public class IndividualSearchExportCapture extends HttpServlet{
     
     String locCode=request.getParameter("locationCodeField");
 
-    MarkedIndividualQueryResult result = IndividualQueryProcessor.processQuery(myShepherd, request, order);
+    MarkedIndividualQueryResult result = IndividualQueryProcessor.processQuery(myShepherd, request, order, "export");
     rIndividuals = result.getResult();
     int numIndividuals=rIndividuals.size();
     int numSharks=0;
@@ -80,7 +80,7 @@ public class KinalyzerExport extends HttpServlet{
 
       if(request!=null){
 
-        MarkedIndividualQueryResult queryResult2 = IndividualQueryProcessor.processQuery(myShepherd, request, order);
+        MarkedIndividualQueryResult queryResult2 = IndividualQueryProcessor.processQuery(myShepherd, request, order, "export");
         query2Individuals = queryResult2.getResult();
         int numSearch2Individuals = query2Individuals.size();
         
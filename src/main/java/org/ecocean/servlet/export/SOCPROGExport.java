@@ -81,7 +81,7 @@ public class SOCPROGExport extends HttpServlet{
         //query1Individuals = queryResult1.getResult();
         //int numSearch1Individuals = query1Individuals.size();
         
-        MarkedIndividualQueryResult queryResult2 = IndividualQueryProcessor.processQuery(myShepherd, request, order);
+        MarkedIndividualQueryResult queryResult2 = IndividualQueryProcessor.processQuery(myShepherd, request, order, "export");
         query2Individuals = queryResult2.getResult();
         int numSearch2Individuals = query2Individuals.size();
       
@@ -103,7 +103,7 @@ public class SimpleCMROutput extends HttpServlet{
       OutputStreamWriter outp = new OutputStreamWriter(fos);
       
       Vector<MarkedIndividual> rIndividuals = new Vector<MarkedIndividual>();
-      MarkedIndividualQueryResult result = IndividualQueryProcessor.processQuery(myShepherd, request, order);
+      MarkedIndividualQueryResult result = IndividualQueryProcessor.processQuery(myShepherd, request, order, "export");
       rIndividuals = result.getResult();
       
 
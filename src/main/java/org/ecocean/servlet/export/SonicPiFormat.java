@@ -69,7 +69,7 @@ public class SonicPiFormat extends HttpServlet{
       try{
       
       if(request.getParameterMap().size()>0){
-        EncounterQueryResult queryResult = EncounterQueryProcessor.processQuery(myShepherd, request, "year descending, month descending, day descending");
+        EncounterQueryResult queryResult = EncounterQueryProcessor.processQuery(myShepherd, request, "year descending, month descending, day descending", "export");
         rEncounters = queryResult.getResult();
       }
       else{
@@ -53,6 +53,13 @@ String context=ServletUtilities.getContext(request);
     	nfe.printStackTrace();
     }
   }
+  if (request.getParameter("prefilterBound") != null) {
+    try {
+      gm.setPrefilterBound(request.getParameter("prefilterBound"));
+    } catch (NumberFormatException nfe) {
+    	nfe.printStackTrace();
+    }
+  }
 
 
 //setup our Properties object to hold all properties
@@ -187,6 +194,14 @@ else{
     		%>
   			<div style="height:24px;width:<%=percentage %>%"><%=numComplete %>/<%=(numComplete+numIncomplete) %></div>
 		</div>
+		<%
+		int numReissued = gm.getNumWorkItemsReissuedForTask(st.getUniqueNumber());
+		if (numReissued > 0) {
+		%>
+		<small>Re-issued: <%=numReissued %>, duplicate results: <%=gm.getNumDuplicateResultsForTask(st.getUniqueNumber()) %></small>
+		<%
+		}
+		%>
     </td>
     <td>
       <%
@@ -391,6 +406,8 @@ single scan are allowed to exceed the total.</span>
     <th width="25"><span>NodeID</span></th>
     <th width="25"  ><span>#CPUs</span></th>
     <th width="25"  ><span>Items Completed</span></th>
+    <th width="25"  ><span>Items/s</span></th>
+    <th width="25"  ><span>Group Size</span></th>
     <th width="25"  ><span>Last Checkin (ms)</span></th>
 
 
@@ -412,6 +429,8 @@ single scan are allowed to exceed the total.</span>
     <td><span class="style2"><%=nd.getNodeIdentifier()%></span></td>
     <td><span class="style2"><%=nd.numProcessors%></span></td>
      <td><span class="style2"><%=nd.numComparisons%></span></td>
+    <td><span class="style2"><%=Math.round(nd.getItemsPerSecond() * 10) / 10.0%></span></td>
+    <td><span class="style2"><%=nd.groupSize%></span></td>
     <td><span class="style2"><%=(currenTime-nd.getLastHeartbeat()) %></span></td>
 
 
@@ -440,6 +459,11 @@ single scan are allowed to exceed the total.</span>
   
   (To-Do: <%=toDo%> Underway: <%=numDoing %> Done: <%=numDone%>)</p>
 
+<p>Comparisons pruned by the pre-filter on this server: <%=SpotPatternDescriptor.getNumPruned() %> of <%=SpotPatternDescriptor.getNumCompared() %>
+  (<%=SpotPatternDescriptor.getNumPruned(SpotPatternDescriptor.STAGE_SPOT_COUNT) %> by spot count,
+  <%=SpotPatternDescriptor.getNumPruned(SpotPatternDescriptor.STAGE_ASPECT) %> by bounding box aspect,
+  <%=SpotPatternDescriptor.getNumPruned(SpotPatternDescriptor.STAGE_RADIAL) %> by radial histogram)</p>
+
 <%
   if (request.isUserInRole("admin")) {
 %>
@@ -485,6 +509,15 @@ single scan are allowed to exceed the total.</span>
         type="submit" name="Submit5" value="Set"/></td>
     </form>
   </tr>
+  <tr>
+    <form name="setPrefilterBound" id="setPrefilterBound" method="get"
+          action="scanTaskAdmin.jsp">
+      <td>Set pre-filter bound (0-1, lower prunes more, empty to compare every pair):</td>
+      <td><input name="prefilterBound" type="text" id="prefilterBound"
+                 value="<%=gm.getPrefilterBound()%>" size="5" maxlength="10"/> <input
+        type="submit" name="Submit6" value="Set"/></td>
+    </form>
+  </tr>
 </table>
 <h3>Creation/deletion threads</h3>
 
@@ -499,6 +532,8 @@ single scan are allowed to exceed the total.</span>
 
 <p>Number left-side patterns in the potential match graph: <%=gm.getNumLeftPatterns() %></p>
 <p>Number right-side patterns in the potential match graph: <%=gm.getNumRightPatterns() %></p>
+<p>Taxonomies in the potential match graph: <%=gm.getMatchGraphTaxonomies() %></p>
+<p>Match graph loaded: <%=MatchGraphCreationThread.getPercentComplete() %>% (<%=MatchGraphCreationThread.getNumEncountersLoaded() %> of <%=MatchGraphCreationThread.getNumEncountersToLoad() %> encounters)</p>
 <%
 
   } catch (Exception e) {
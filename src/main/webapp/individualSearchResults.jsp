@@ -70,7 +70,8 @@
     try{
 	    String order ="";
 	
-	    MarkedIndividualQueryResult result = IndividualQueryProcessor.processQuery(myShepherd, request, order);
+	    //the table only shows summary fields, so the encounters of the individuals are not loaded
+	    MarkedIndividualQueryResult result = IndividualQueryProcessor.processQuery(myShepherd, request, order, "listSummary");
 	    rIndividuals = result.getResult();
 	
 	
@@ -198,6 +199,8 @@
 	
 	
 		JDOPersistenceManager jdopm = (JDOPersistenceManager)myShepherd.getPM();
+		//serialize the fields of the fetch plan, which without this would walk into every encounter
+		jdopm.getFetchPlan().setGroup("listSummary");
 		JSONArray jsonobj = RESTUtils.getJSONArrayFromCollection((Collection)rIndividuals, jdopm.getExecutionContext());
 		String indsJson = jsonobj.toString();
 	
@@ -0,0 +1,208 @@
+/*
+ * The Shepherd Project - A Mark-Recapture Framework
+ * Copyright (C) 2011 Jason Holmberg
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package org.ecocean.grid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Checks that {@link TriangleShapeIndex#findBest} returns the same triangle as
+ * {@link TriangleShapeIndex#findBestBruteForce} for random spot patterns.
+ */
+public class TriangleShapeIndexTest {
+
+  private static final double EPSILON = 0.01;
+  private static final double R = 50;
+  private static final double C = 0.99;
+  private static final double SIZELIM = 0.9999;
+  private static final double ALLOWED_ROTATION_DIFF = Math.toRadians(10);
+
+  @Test
+  public void findBestMatchesBruteForceOnRandomPatterns() {
+    Random r = new Random(1);
+    TriangleShapeIndex index = new TriangleShapeIndex();
+    for (int t = 0; t < 200; t++) {
+      SpotTriangleSet indexed = randomSet(r, 3 + r.nextInt(40));
+      SpotTriangleSet queries = randomSet(r, 3 + r.nextInt(40));
+      index.index(indexed);
+      assertSameAsBruteForce(index, queries);
+    }
+  }
+
+  @Test
+  public void findBestMatchesBruteForceOnResightings() {
+    Random r = new Random(2);
+    TriangleShapeIndex index = new TriangleShapeIndex();
+    for (int t = 0; t < 100; t++) {
+      int n = 5 + r.nextInt(35);
+      double[] x = new double[n];
+      double[] y = new double[n];
+      randomSpots(r, x, y);
+      SpotTriangleSet indexed = new SpotTriangleSet();
+      indexed.setSpots(x, y, n, true);
+      indexed.build(EPSILON, R, C, SIZELIM, true);
+
+      //the same pattern, slightly rotated and moved, so that most queries have a match
+      double angle = (r.nextDouble() - 0.5) * 0.2;
+      for (int i = 0; i < n; i++) {
+        double nx = (x[i] * Math.cos(angle)) - (y[i] * Math.sin(angle)) + 50 + (r.nextGaussian() * 2);
+        double ny = (x[i] * Math.sin(angle)) + (y[i] * Math.cos(angle)) + 50 + (r.nextGaussian() * 2);
+        x[i] = nx;
+        y[i] = ny;
+      }
+      SpotTriangleSet queries = new SpotTriangleSet();
+      queries.setSpots(x, y, n, true);
+      queries.build(EPSILON, R, C, SIZELIM, true);
+
+      index.index(indexed);
+      assertSameAsBruteForce(index, queries);
+    }
+  }
+
+  @Test
+  public void findBestReturnsNoMatchForEmptySets() {
+    TriangleShapeIndex index = new TriangleShapeIndex();
+    SpotTriangleSet empty = new SpotTriangleSet();
+    empty.setSpots(new double[] {10, 20}, new double[] {10, 30}, 2, true);
+    empty.build(EPSILON, R, C, SIZELIM, true);
+    assertEquals(0, empty.getNumTriangles());
+    index.index(empty);
+    assertEquals(-1, index.findBest(1.5, 0.01, 0.5, 0.01, 0.5, ALLOWED_ROTATION_DIFF));
+    assertEquals(-1, index.findBestBruteForce(1.5, 0.01, 0.5, 0.01, 0.5, ALLOWED_ROTATION_DIFF));
+
+    //an index reused for an empty set must not keep the buckets of the previous one
+    Random r = new Random(3);
+    index.index(randomSet(r, 30));
+    index.index(empty);
+    assertEquals(-1, index.findBest(1.5, 0.01, 0.5, 0.01, 0.5, ALLOWED_ROTATION_DIFF));
+  }
+
+  @Test
+  public void findBestFallsBackToBruteForceOnNaNTolerances() {
+    Random r = new Random(4);
+    TriangleShapeIndex index = new TriangleShapeIndex();
+    for (int t = 0; t < 50; t++) {
+      SpotTriangleSet indexed = randomSet(r, 10 + r.nextInt(30));
+      SpotTriangleSet queries = randomSet(r, 10 + r.nextInt(30));
+      int n = indexed.numTriangles;
+      if (n == 0) {
+        continue;
+      }
+
+      //a NaN tolerance in the indexed set makes its bucket bounds meaningless
+      int nan = r.nextInt(n);
+      if (r.nextBoolean()) {
+        indexed.tR2[nan] = Double.NaN;
+      } else {
+        indexed.tC2[nan] = Double.NaN;
+      }
+      index.index(indexed);
+      assertSameAsBruteForce(index, queries);
+
+      //NaN values of the query triangle
+      for (int i = 0; i < queries.numTriangles; i++) {
+        double RA = queries.R[i];
+        double tRA2 = queries.tR2[i];
+        double CA = queries.C[i];
+        double tCA2 = queries.tC2[i];
+        switch (i % 4) {
+          case 0:
+            RA = Double.NaN;
+            break;
+          case 1:
+            tRA2 = Double.NaN;
+            break;
+          case 2:
+            CA = Double.NaN;
+            break;
+          default:
+            tCA2 = Double.NaN;
+        }
+        assertEquals(index.findBestBruteForce(RA, tRA2, CA, tCA2, queries.rotation[i], ALLOWED_ROTATION_DIFF),
+          index.findBest(RA, tRA2, CA, tCA2, queries.rotation[i], ALLOWED_ROTATION_DIFF));
+      }
+    }
+  }
+
+  @Test
+  public void findBestMatchesBruteForceAcrossBucketBoundaries() {
+    Random r = new Random(5);
+    TriangleShapeIndex index = new TriangleShapeIndex();
+    for (int t = 0; t < 20; t++) {
+      SpotTriangleSet indexed = randomSet(r, 20 + r.nextInt(20));
+      int n = indexed.numTriangles;
+      assertTrue(n > (2 * TriangleShapeIndex.BUCKET_SIZE));
+      index.index(indexed);
+      double[] tolerances = {0, 1e-6, 1e-3, 0.01, 0.1, 1, 100};
+      for (int b = TriangleShapeIndex.BUCKET_SIZE; b < n; b += TriangleShapeIndex.BUCKET_SIZE) {
+        //queries on the last triangle of a bucket, the first of the next and half way between them, with
+        //windows from none to wide enough to take in several buckets on either side
+        double[] rs = {indexed.R[b - 1], indexed.R[b], (indexed.R[b - 1] + indexed.R[b]) / 2};
+        for (int i = 0; i < rs.length; i++) {
+          for (int j = 0; j < tolerances.length; j++) {
+            for (int k = 0; k < tolerances.length; k++) {
+              double CA = indexed.C[b - (i % 2)];
+              double RotA = indexed.rotation[b - (i % 2)];
+              assertEquals(index.findBestBruteForce(rs[i], tolerances[j], CA, tolerances[k], RotA, ALLOWED_ROTATION_DIFF),
+                index.findBest(rs[i], tolerances[j], CA, tolerances[k], RotA, ALLOWED_ROTATION_DIFF));
+            }
+          }
+        }
+      }
+
+      //every indexed triangle against itself, with its own tolerances
+      for (int i = 0; i < n; i++) {
+        assertEquals(index.findBestBruteForce(indexed.R[i], indexed.tR2[i], indexed.C[i], indexed.tC2[i], indexed.rotation[i], ALLOWED_ROTATION_DIFF),
+          index.findBest(indexed.R[i], indexed.tR2[i], indexed.C[i], indexed.tC2[i], indexed.rotation[i], ALLOWED_ROTATION_DIFF));
+      }
+    }
+  }
+
+  private static void assertSameAsBruteForce(TriangleShapeIndex index, SpotTriangleSet queries) {
+    for (int i = 0; i < queries.numTriangles; i++) {
+      int expected = index.findBestBruteForce(queries.R[i], queries.tR2[i], queries.C[i], queries.tC2[i], queries.rotation[i], ALLOWED_ROTATION_DIFF);
+      int actual = index.findBest(queries.R[i], queries.tR2[i], queries.C[i], queries.tC2[i], queries.rotation[i], ALLOWED_ROTATION_DIFF);
+      assertEquals("query triangle " + i, expected, actual);
+    }
+  }
+
+  private static SpotTriangleSet randomSet(Random r, int numSpots) {
+    double[] x = new double[numSpots];
+    double[] y = new double[numSpots];
+    randomSpots(r, x, y);
+    SpotTriangleSet set = new SpotTriangleSet();
+    set.setSpots(x, y, numSpots, true);
+    set.build(EPSILON, R, C, SIZELIM, true);
+    return set;
+  }
+
+  private static void randomSpots(Random r, double[] x, double[] y) {
+    for (int i = 0; i < x.length; i++) {
+      x[i] = r.nextDouble() * 1000;
+      y[i] = r.nextDouble() * 600;
+    }
+  }
+
+}